@@ -61,6 +61,9 @@ alter table COST
 alter table RESERVATIONS
   add  constraint RESERVATIONS_PK primary key (SID,RNAME,RID);
 
+alter table DISPONIBILITES
+  add constraint DISPONIBILITES_PK primary key (RID,BNAME);
+
 --  1.3 Contraintes de clé étrangère
 
 select 'Ajout Contraintes de clé étrangère ' as " " from dual;
@@ -133,19 +136,38 @@ create or replace trigger COST_TRG_BNAME
   end;
 /
 
+-- Contrôle par ordre et non par ligne : les salles touchées sont notées à
+-- chaque ligne et leur capacité vérifiée une fois, à la fin de l'ordre. Un
+-- chargement en masse (lot JDBC, insert ... select) ne compte plus les places
+-- de la salle pour chaque ligne insérée.
 create or replace trigger SEATS_TRG_CAPACITY
-  before insert on SEATS
-  for each row
-  declare
+  for insert on SEATS
+  compound trigger
+  type SALLES_T is table of number index by varchar2(50);
+  salles SALLES_T;
+
+  after each row is
+  begin
+    salles(:NEW.RNAME) := 1;
+  end after each row;
+
+  after statement is
+  r varchar2(50);
   x number;
   y number;
   begin
-    select count(*) into x from SEATS where RNAME = :NEW.RNAME;
-    select CAPACITY into y from ROOMS where RNAME = :NEW.RNAME;
-    if x + 1 > y
-    then RAISE_APPLICATION_ERROR(-20023,'Impossible d aouter un siège, capacité de la salle insufisante');
-    end if;
-  end;
+    r := salles.first;
+    while r is not null loop
+      select count(*) into x from SEATS where RNAME = r;
+      select CAPACITY into y from ROOMS where RNAME = r;
+      if x > y
+      then RAISE_APPLICATION_ERROR(-20023,'Impossible d aouter un siège, capacité de la salle insufisante');
+      end if;
+      r := salles.next(r);
+    end loop;
+    salles.delete;
+  end after statement;
+end SEATS_TRG_CAPACITY;
 /
 
 create or replace trigger REPRESENTATIONS_TRG_DATE
@@ -178,4 +200,150 @@ create or replace trigger REPRESENTATIONS_TRG_DELETE
   end;
 /
 
+--  Compteurs de places libres (DISPONIBILITES). Une réservation ou une
+--  annulation ne modifie pas le compteur, ce qui ferait attendre sur une même
+--  ligne jusqu'à la validation tous les acheteurs d'une classe, et verrouiller
+--  les lignes de plusieurs classes dans l'ordre des places (interblocages) :
+--  ses écarts, cumulés par représentation et classe, sont ajoutés une fois par
+--  ordre à DISPONIBILITES_ECARTS, sans verrou partagé. Le compteur d'une
+--  classe est la somme de sa ligne et de ses écarts ; les écarts sont reportés
+--  dans les compteurs par la tâche DISPONIBILITES_CUMUL.
+
+create or replace trigger RESERVATIONS_TRG_DISPONIBILITES
+  for insert or delete on RESERVATIONS
+  compound trigger
+  type ECARTS_T is table of number index by varchar2(61);
+  ecarts ECARTS_T;
+
+  procedure ajouter(representation number, salle varchar2, place number, n number) is
+  k varchar2(61);
+  b varchar2(50);
+  begin
+    select BNAME into b from SEATS where RNAME = salle and SID = place;
+    k := lpad(representation, 10, '0') || '|' || b;
+    if ecarts.exists(k)
+    then ecarts(k) := ecarts(k) + n;
+    else ecarts(k) := n;
+    end if;
+  end ajouter;
+
+  after each row is
+  begin
+    if inserting
+    then ajouter(:NEW.RID, :NEW.RNAME, :NEW.SID, -1);
+    else ajouter(:OLD.RID, :OLD.RNAME, :OLD.SID, 1);
+    end if;
+  end after each row;
+
+  after statement is
+  k varchar2(61);
+  begin
+    k := ecarts.first;
+    while k is not null loop
+      insert into DISPONIBILITES_ECARTS (RID, BNAME, ECART)
+        values (to_number(substr(k, 1, 10)), substr(k, 12), ecarts(k));
+      k := ecarts.next(k);
+    end loop;
+    ecarts.delete;
+  end after statement;
+end RESERVATIONS_TRG_DISPONIBILITES;
+/
+
+-- Report des écarts dans les compteurs. En isolation sérialisable, le report
+-- et la suppression voient les mêmes écarts : ceux validés entre-temps restent
+-- pour le report suivant.
+create or replace procedure DISPONIBILITES_CUMULER is
+  begin
+    commit;
+    set transaction isolation level serializable;
+    merge into DISPONIBILITES d
+      using (select RID, BNAME, sum(ECART) ECART from DISPONIBILITES_ECARTS group by RID, BNAME) e
+      on (d.RID = e.RID and d.BNAME = e.BNAME)
+      when matched then update set d.LIBRES = d.LIBRES + e.ECART;
+    delete from DISPONIBILITES_ECARTS;
+    commit;
+  end;
+/
+
+begin
+  begin
+    dbms_scheduler.drop_job('DISPONIBILITES_CUMUL');
+  exception
+    when others then null; -- tâche pas encore créée
+  end;
+  dbms_scheduler.create_job(job_name => 'DISPONIBILITES_CUMUL', job_type => 'STORED_PROCEDURE',
+    job_action => 'DISPONIBILITES_CUMULER', repeat_interval => 'FREQ=SECONDLY;INTERVAL=10', enabled => true);
+end;
+/
+
+create or replace trigger REPRESENTATIONS_TRG_DISPONIBILITES
+  after insert or delete on REPRESENTATIONS
+  for each row
+  begin
+    if inserting then
+      insert into DISPONIBILITES (RID, BNAME, LIBRES)
+        select :NEW.RID, BNAME, count(*) from SEATS where RNAME = :NEW.RNAME group by BNAME;
+    else
+      delete from DISPONIBILITES where RID = :OLD.RID;
+      delete from DISPONIBILITES_ECARTS where RID = :OLD.RID;
+    end if;
+  end;
+/
+
+-- Places ajoutées ou reclassées : les écarts sont cumulés par salle et classe
+-- et reportés une fois par ordre. Une place reclassée est supposée libre.
+create or replace trigger SEATS_TRG_DISPONIBILITES
+  for insert or update of BNAME on SEATS
+  compound trigger
+  type ECARTS_T is table of number index by varchar2(101);
+  ecarts ECARTS_T;
+
+  procedure ajouter(salle varchar2, classe varchar2, n number) is
+  k varchar2(101) := salle || '|' || classe;
+  begin
+    if ecarts.exists(k)
+    then ecarts(k) := ecarts(k) + n;
+    else ecarts(k) := n;
+    end if;
+  end ajouter;
+
+  after each row is
+  begin
+    ajouter(:NEW.RNAME, :NEW.BNAME, 1);
+    if updating
+    then ajouter(:OLD.RNAME, :OLD.BNAME, -1);
+    end if;
+  end after each row;
+
+  after statement is
+  k varchar2(101);
+  s varchar2(50);
+  b varchar2(50);
+  begin
+    k := ecarts.first;
+    while k is not null loop
+      s := substr(k, 1, instr(k, '|') - 1);
+      b := substr(k, instr(k, '|') + 1);
+      insert into DISPONIBILITES (RID, BNAME, LIBRES)
+        select RID, b, 0 from REPRESENTATIONS r where RNAME = s
+        and not exists (select 1 from DISPONIBILITES d where d.RID = r.RID and d.BNAME = b);
+      update DISPONIBILITES set LIBRES = LIBRES + ecarts(k)
+        where BNAME = b and RID in (select RID from REPRESENTATIONS where RNAME = s);
+      k := ecarts.next(k);
+    end loop;
+    ecarts.delete;
+  end after statement;
+end SEATS_TRG_DISPONIBILITES;
+/
+
+--  1.6 Index
+
+select 'Ajout Index ' as " " from dual;
+
+--  recherche des options expirées par le nettoyeur
+create index RESERVATIONS_IDX_EXPIRY on RESERVATIONS(EXPIRY);
+
+--  écarts d'une représentation, ajoutés à ses compteurs à la lecture
+create index DISPONIBILITES_ECARTS_IDX on DISPONIBILITES_ECARTS(RID, BNAME);
+
 commit;
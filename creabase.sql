@@ -8,6 +8,8 @@ select 'Dropping tables ' as " " from dual;
 
 drop table COST;
 drop table RESERVATIONS;
+drop table DISPONIBILITES;
+drop table DISPONIBILITES_ECARTS;
 
 --  1.2 Entity tables
 
@@ -95,7 +97,31 @@ create table RESERVATIONS (
     SID   int,              --  seat ID
     RNAME  varchar(50),     -- room NAME
     RID int,                -- representation ID
-    CNAME varchar(50)       --  client name
+    CNAME varchar(50),      --  client name
+    EXPIRY timestamp        --  end of a temporary hold, NULL once confirmed
+);
+
+--  2.2.c DISPONIBILITES: number of free seats per representation and bookingclasse,
+--  maintained by triggers on RESERVATIONS, SEATS and REPRESENTATIONS and by the
+--  DISPONIBILITES_CUMUL job (contraintes.sql)
+
+select 'Creating table DISPONIBILITES' as " " from dual;
+
+create table DISPONIBILITES (
+    RID     int,            -- representation ID
+    BNAME   varchar(50),    -- bookingclasse name
+    LIBRES  int             -- number of free seats
+);
+
+--  2.2.d DISPONIBILITES_ECARTS: changes to the free-seat counters written by
+--  bookings and cancellations, not yet folded into DISPONIBILITES
+
+select 'Creating table DISPONIBILITES_ECARTS' as " " from dual;
+
+create table DISPONIBILITES_ECARTS (
+    RID     int,            -- representation ID
+    BNAME   varchar(50),    -- bookingclasse name
+    ECART   int             -- change in the number of free seats
 );
 
 --
@@ -333,4 +359,18 @@ insert into COST
 --insert into RESERVATIONS
   --  values (1, 'Le Bataclan', 1,'Luc');
 
+--  3.8 DISPONIBILITES table
+--  Only the missing counters are added: this statement can also be run alone
+--  on a database created before the counters, to populate its existing
+--  representations.
+
+select 'Populating table DISPONIBILITES' as " " from dual;
+
+insert into DISPONIBILITES (RID, BNAME, LIBRES)
+    select r.RID, s.BNAME, count(*) - count(b.SID)
+    from REPRESENTATIONS r join SEATS s on s.RNAME = r.RNAME
+    left join RESERVATIONS b on b.RID = r.RID and b.SID = s.SID
+    where not exists (select 1 from DISPONIBILITES d where d.RID = r.RID and d.BNAME = s.BNAME)
+    group by r.RID, s.BNAME;
+
 commit;
@@ -0,0 +1,270 @@
+package gesresa;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Base de rservation entirement en mmoire, sans base de donnes : les
+ * reprsentations et leurs places sont dclares par {@link #ajouter} ou
+ * copies depuis une autre base par {@link #charger}, puis rserves par des
+ * sessions {@link GestionReservationMemoire}.
+ * <p>
+ * L'tat de chaque place est un entier long d'un tableau
+ * ({@link AtomicLongArray}), modifi uniquement par compare-and-set : une
+ * place ne peut passer de libre  prise que pour un seul client. Aucun verrou
+ * n'est pris, ni par reprsentation ni global ; les demandes portant sur
+ * plusieurs places prennent les places une  une et rendent celles dj
+ * prises si l'une d'elles choue.
+ * <p>
+ * L'tat d'une place vaut 0 si elle est libre ; sinon il porte l'identifiant
+ * du client titulaire (bits de poids fort) et l'chance de l'option en
+ * millisecondes depuis la cration de la base (40 bits de poids faible, 0
+ * pour une rservation confirme). Une option chue est une place libre : il
+ * n'y a pas de nettoyage.
+ *
+ * @author Aurel
+ *
+ */
+public class BaseMemoire {
+
+    private static final int BITS_ECHEANCE = 40;
+    private static final long MASQUE_ECHEANCE = (1L << BITS_ECHEANCE) - 1;
+    /** client titulaire des places rserves dans la base copie */
+    private static final String EXTERNE = "";
+
+    /**
+     * Places d'une reprsentation.
+     */
+    static final class Salle {
+        final Representation representation;
+        final int[] sids; // tris
+        final byte[] tarifs; // indice dans tableTarifs du tarif de chaque place
+        final Tarif[] tableTarifs;
+        final AtomicLongArray etats;
+
+        Salle(Representation representation, int[] sids, byte[] tarifs, Tarif[] tableTarifs) {
+            this.representation = representation;
+            this.sids = sids;
+            this.tarifs = tarifs;
+            this.tableTarifs = tableTarifs;
+            this.etats = new AtomicLongArray(sids.length);
+        }
+
+        int indice(int sid) {
+            return Arrays.binarySearch(sids, sid);
+        }
+
+        Tarif tarif(int indice) {
+            return tableTarifs[tarifs[indice]];
+        }
+    }
+
+    private final long origine = System.currentTimeMillis();
+    private final ConcurrentHashMap<Integer, Salle> salles; // par RID
+    private final ConcurrentHashMap<String, Integer> rids; // par (spectacle, date, salle)
+    private final ConcurrentHashMap<String, List<Representation>> spectacles;
+    private final ConcurrentHashMap<String, Integer> clients;
+    private final AtomicInteger prochainRid = new AtomicInteger();
+    private final AtomicInteger prochainClient = new AtomicInteger();
+    private volatile long dureeOption = BaseReservation.DUREE_OPTION;
+
+    public BaseMemoire() {
+        this.salles = new ConcurrentHashMap<Integer, Salle>();
+        this.rids = new ConcurrentHashMap<String, Integer>();
+        this.spectacles = new ConcurrentHashMap<String, List<Representation>>();
+        this.clients = new ConcurrentHashMap<String, Integer>();
+    }
+
+    /**
+     * Ouvre une session pour le compte d'un client.
+     */
+    public GestionReservationMemoire session(String client) {
+        return new GestionReservationMemoire(this, client);
+    }
+
+    /**
+     * Dclare une reprsentation et ses places, toutes libres.
+     *
+     * @param sids
+     *            numros des places, par ordre croissant
+     * @param tarifsPlaces
+     *            tarif de chaque place
+     * @return la reprsentation, avec son identifiant et ses tarifs
+     */
+    public Representation ajouter(String spectacle, String salle, Date date, int[] sids, Tarif[] tarifsPlaces) {
+        if (sids.length != tarifsPlaces.length) throw new IllegalArgumentException("un tarif par place");
+        List<Tarif> table = new ArrayList<Tarif>();
+        byte[] tarifs = new byte[sids.length];
+        for (int i = 0; i < sids.length; i++) {
+            if (i > 0 && sids[i] <= sids[i - 1]) throw new IllegalArgumentException("numros non croissants");
+            int t = 0;
+            while (t < table.size() && !PlanSalle.memeTarif(table.get(t), tarifsPlaces[i])) {
+                t++;
+            }
+            if (t == table.size()) {
+                if (t == Byte.MAX_VALUE) throw new IllegalArgumentException("trop de tarifs pour une reprsentation");
+                table.add(tarifsPlaces[i]);
+            }
+            tarifs[i] = (byte) t;
+        }
+        Representation r = new Representation(prochainRid.incrementAndGet(), spectacle, salle, date,
+                Collections.unmodifiableList(table));
+        Salle s = new Salle(r, sids.clone(), tarifs, table.toArray(new Tarif[table.size()]));
+        salles.put(r.getRid(), s);
+        if (rids.putIfAbsent(cle(r), r.getRid()) != null) {
+            salles.remove(r.getRid());
+            throw new IllegalArgumentException("reprsentation dj dclare : " + r);
+        }
+        List<Representation> l = spectacles.get(spectacle);
+        if (l == null) {
+            l = new CopyOnWriteArrayList<Representation>();
+            List<Representation> concurrente = spectacles.putIfAbsent(spectacle, l);
+            if (concurrente != null) l = concurrente;
+        }
+        l.add(r);
+        return r;
+    }
+
+    /**
+     * Copie les reprsentations d'un spectacle, leurs places et leur tat
+     * depuis une autre base. Les places rserves ou retenues dans la base
+     * copie sont rserves ici par un client anonyme.
+     *
+     * @return le nombre de reprsentations copies
+     */
+    public int charger(GestionReservation source, String spectacle, Date de, Date a) throws SQLException {
+        int n = 0;
+        int externe = client(EXTERNE);
+        for (Representation r : source.listerRepresentations(spectacle, de, a)) {
+            List<Place> places = source.listerPlaces(r, false);
+            int[] sids = new int[places.size()];
+            Tarif[] tarifs = new Tarif[places.size()];
+            for (int i = 0; i < sids.length; i++) {
+                sids[i] = places.get(i).getNumero();
+                tarifs[i] = places.get(i).getTarif();
+            }
+            Salle s = salles.get(ajouter(r.getSpectacle(), r.getSalle(), r.getDate(), sids, tarifs).getRid());
+            for (int i = 0; i < sids.length; i++) {
+                if (!places.get(i).isEstLibre()) s.etats.set(i, etat(externe, 0));
+            }
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * @return les places de la reprsentation
+     * @throws SQLException
+     *             si la reprsentation n'a pas t dclare
+     */
+    Salle salle(Representation representation) throws SQLException {
+        Salle s = representation.isRidConnu() ? salles.get(representation.getRid()) : null;
+        if (s == null) {
+            Integer rid = rids.get(cle(representation));
+            if (rid != null) s = salles.get(rid);
+        }
+        if (s == null) throw new SQLException("reprsentation inconnue : " + representation);
+        return s;
+    }
+
+    /**
+     * Liste, par identifiant croissant, les reprsentations d'un spectacle
+     * dont la date est comprise, au jour prs, entre deux dates.
+     */
+    List<Representation> chercher(String spectacle, Date de, Date a) {
+        List<Representation> l = new ArrayList<Representation>();
+        List<Representation> toutes = spectacles.get(spectacle);
+        if (toutes == null) return l;
+        long debut = jour(de);
+        long fin = jour(a);
+        for (Representation r : toutes) {
+            long j = jour(r.getDate());
+            if (j >= debut && j <= fin) l.add(r);
+        }
+        return l;
+    }
+
+    /**
+     * @return l'identifiant interne d'un client, attribu  sa premire
+     *         session
+     */
+    int client(String nom) {
+        Integer id = clients.get(nom);
+        if (id == null) {
+            id = prochainClient.incrementAndGet();
+            if (id > (Integer.MAX_VALUE >>> 8)) throw new IllegalStateException("trop de clients");
+            Integer concurrent = clients.putIfAbsent(nom, id);
+            if (concurrent != null) id = concurrent;
+        }
+        return id;
+    }
+
+    /**
+     * @return la date courante, en millisecondes depuis la cration de la
+     *         base
+     */
+    long maintenant() {
+        return System.currentTimeMillis() - origine;
+    }
+
+    public long getDureeOption() {
+        return dureeOption;
+    }
+
+    /**
+     * @param dureeOption
+     *            dure de validit des options poses  partir de maintenant,
+     *            en millisecondes
+     */
+    public void setDureeOption(long dureeOption) {
+        this.dureeOption = dureeOption;
+    }
+
+    /**
+     * @param echeance
+     *            chance de l'option, 0 pour une rservation confirme
+     */
+    static long etat(int client, long echeance) {
+        return (long) client << BITS_ECHEANCE | echeance & MASQUE_ECHEANCE;
+    }
+
+    static int titulaire(long etat) {
+        return (int) (etat >>> BITS_ECHEANCE);
+    }
+
+    static long echeance(long etat) {
+        return etat & MASQUE_ECHEANCE;
+    }
+
+    /**
+     * @return vrai si la place est libre ou son option chue
+     */
+    static boolean libre(long etat, long maintenant) {
+        return etat == 0 || (echeance(etat) != 0 && echeance(etat) <= maintenant);
+    }
+
+    private static String cle(Representation representation) {
+        return representation.getSpectacle() + '\n' + jour(representation.getDate()) + '\n'
+                + representation.getSalle();
+    }
+
+    private static long jour(Date d) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(d);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+}
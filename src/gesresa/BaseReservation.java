@@ -0,0 +1,378 @@
+package gesresa;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+/**
+ * Point d'accs partag  la base de rservation. Un objet BaseReservation
+ * possde le pool de connexions commun  tous les clients ; chaque client
+ * ouvre ensuite sa propre session par {@link #session(String)}, qui ne
+ * consomme une connexion physique que le temps d'un appel.
+ *
+ * @author Aurel
+ *
+ */
+public class BaseReservation implements AutoCloseable {
+
+    /** nombre de requtes prpares gardes par connexion */
+    public static final int TAILLE_CACHE_REQUETES = 32;
+    /** dlai maximal d'attente d'une connexion (ms) */
+    public static final long ATTENTE_CONNEXION = 30000;
+    /** nombre de reprsentations dont le RID est gard en cache */
+    public static final int TAILLE_CACHE_REPRESENTATIONS = 10000;
+    /** dure de vie d'un RID en cache (ms) */
+    public static final long DUREE_CACHE_REPRESENTATIONS = 10 * 60 * 1000;
+    /** priode de rafrachissement du catalogue des reprsentations (ms) */
+    public static final long PERIODE_CATALOGUE = 60 * 1000;
+    /** priode entre deux instantans du journal des plans (ms) */
+    public static final long PERIODE_INSTANTANE = 60 * 1000;
+    /** priode de rconciliation des plans de salle avec la base (ms) */
+    public static final long PERIODE_RECONCILIATION = 2000;
+    /** dure de validit d'une option sur une place (ms) */
+    public static final long DUREE_OPTION = 2 * 60 * 1000;
+    /** priode de nettoyage des options expires (ms) */
+    public static final long PERIODE_NETTOYAGE = 1000;
+    /** nombre maximal d'options expires libres par transaction */
+    public static final int LOT_NETTOYAGE = 500;
+    /** nombre de threads crivains des sessions srialises */
+    public static final int ECRIVAINS = 4;
+    /** nombre maximal de demandes valides par transaction d'un crivain */
+    public static final int LOT_ECRIVAIN = 256;
+
+    private final PoolConnexions pool;
+    private final PoolConnexions lecture; // le pool principal si aucun pool de lecture n'est fourni
+    private final CacheRepresentations representations;
+    private final CatalogueRepresentations catalogue;
+    private final MoteurPlans plans;
+    private JournalReservations journal;
+    private final NettoyeurOptions nettoyeur;
+    private ExecuteurReservation executeur; // cr  la premire session asynchrone
+    private EcrivainReservations ecrivain; // cr  la premire session srialise
+    private volatile ListeAttente attente; // cre  la premire inscription
+    private final MesuresReservation mesures;
+    private volatile long dureeOption = DUREE_OPTION;
+
+    public BaseReservation(PoolConnexions pool) {
+        this(pool, pool);
+    }
+
+    /**
+     * Construit un accs  la base dont les consultations qui doivent lire la
+     * base (chargement du catalogue et des plans de salle, rconciliation,
+     * compteurs de places libres) passent par un pool distinct, par exemple
+     * vers une rplique en lecture seule. Les rservations, annulations et
+     * options n'utilisent que le pool principal, y compris pour relire un
+     * plan aprs un conflit.
+     *
+     * @param pool
+     *            pool principal
+     * @param lecture
+     *            pool des consultations
+     */
+    public BaseReservation(PoolConnexions pool, PoolConnexions lecture) {
+        this.pool = pool;
+        this.lecture = lecture;
+        this.representations = new CacheRepresentations(TAILLE_CACHE_REPRESENTATIONS, DUREE_CACHE_REPRESENTATIONS);
+        this.catalogue = new CatalogueRepresentations(PERIODE_CATALOGUE);
+        this.plans = new MoteurPlans(PERIODE_RECONCILIATION);
+        // pas de thread de nettoyage pour une base d'une seule connexion (session autonome, voir
+        // GestionReservationImpl) : ses sessions nettoient elles-mmes avant d'crire
+        this.nettoyeur = new NettoyeurOptions(this, PERIODE_NETTOYAGE, LOT_NETTOYAGE, pool.getTaille() > 1);
+        this.mesures = new MesuresReservation(this);
+    }
+
+    /**
+     * Construit un accs  la base s'appuyant sur une source de connexions.
+     *
+     * @param source
+     *            source des connexions physiques
+     * @param taille
+     *            nombre maximal de connexions ouvertes simultanment
+     */
+    public BaseReservation(DataSource source, int taille) {
+        this(new PoolConnexions(source, taille, TAILLE_CACHE_REQUETES, ATTENTE_CONNEXION));
+    }
+
+    /**
+     * Construit un accs  la base dont les consultations lisent une autre
+     * source, en lecture seule.
+     *
+     * @param source
+     *            source des connexions du pool principal
+     * @param taille
+     *            nombre maximal de connexions principales
+     * @param sourceLecture
+     *            source des connexions de consultation
+     * @param tailleLecture
+     *            nombre maximal de connexions de consultation
+     */
+    public BaseReservation(DataSource source, int taille, DataSource sourceLecture, int tailleLecture) {
+        this(new PoolConnexions(source, taille, TAILLE_CACHE_REQUETES, ATTENTE_CONNEXION),
+                new PoolConnexions(sourceLecture, tailleLecture, TAILLE_CACHE_REQUETES, ATTENTE_CONNEXION, true));
+    }
+
+    /**
+     * Construit un accs  la base  partir d'une url JDBC.
+     *
+     * @param url
+     *            url de la base de donnes  laquelle se connecter
+     * @param user
+     *            nom d'utilisateur SQL utilis pour la connection
+     * @param password
+     *            mot de passe correspondant
+     * @param taille
+     *            nombre maximal de connexions ouvertes simultanment
+     */
+    public BaseReservation(String url, String user, String password, int taille) {
+        this(new SourceDriverManager(url, user, password), taille);
+    }
+
+    /**
+     * Ouvre une session de rservation pour le compte d'un client.
+     *
+     * @param client
+     *            nom du client  qui seront attribues les rservations
+     * @return une session  fermer aprs usage
+     */
+    public GestionReservation session(String client) {
+        return new GestionReservationImpl(this, client);
+    }
+
+    /**
+     * Ouvre une session dont les appels sont mesurs dans les mesures de la
+     * base (voir {@link #getMesures()}).
+     *
+     * @param client
+     *            nom du client  qui seront attribues les rservations
+     * @return une session  fermer aprs usage
+     */
+    public GestionReservation sessionInstrumentee(String client) {
+        return new GestionReservationInstrumentee(session(client), mesures);
+    }
+
+    /**
+     * @return les mesures partages par les sessions instrumentes de la
+     *         base,  publier par JMX si besoin
+     */
+    public MesuresReservation getMesures() {
+        return mesures;
+    }
+
+    /**
+     * Ouvre une session dont les rservations passent par l'crivain unique
+     * de leur reprsentation et sont valides par lots avec celles des autres
+     * acheteurs (voir {@link EcrivainReservations}).
+     *
+     * @param client
+     *            nom du client  qui seront attribues les rservations
+     * @return une session  fermer aprs usage
+     */
+    public GestionReservation sessionSerialisee(String client) {
+        return new GestionReservationSerialisee(new GestionReservationImpl(this, client), getEcrivain());
+    }
+
+    public synchronized EcrivainReservations getEcrivain() {
+        if (ecrivain == null) ecrivain = new EcrivainReservations(this, ECRIVAINS, LOT_ECRIVAIN);
+        return ecrivain;
+    }
+
+    /**
+     * @return la liste d'attente des clients, prvenue de chaque libration
+     *         de places reporte dans les plans
+     */
+    public synchronized ListeAttente getListeAttente() {
+        if (attente == null) {
+            attente = new ListeAttente(this);
+            plans.setAttente(attente);
+        }
+        return attente;
+    }
+
+    /**
+     * @return la liste d'attente si elle a t cre, sinon <code>null</code>
+     */
+    ListeAttente listeAttente() {
+        return attente;
+    }
+
+    /**
+     * Ouvre une session asynchrone pour le compte d'un client. Les appels de
+     * toutes les sessions asynchrones de la base sont excuts par un mme
+     * excuteur, born  la taille du pool de connexions.
+     *
+     * @param client
+     *            nom du client  qui seront attribues les rservations
+     * @return une session  fermer aprs usage par
+     *         {@link GestionReservationAsync#fermer()}
+     */
+    public GestionReservationAsync sessionAsynchrone(String client) {
+        return new GestionReservationAsynchrone(session(client), getExecuteur());
+    }
+
+    public synchronized ExecuteurReservation getExecuteur() {
+        if (executeur == null) executeur = new ExecuteurReservation(pool.getTaille());
+        return executeur;
+    }
+
+    /**
+     * Restaure les plans de salle enregistrs dans un rpertoire de journal,
+     * puis y journalise dsormais leurs modifications : un redmarrage ne
+     * relit plus les plans dans la base, seulement les rservations lors de la
+     * premire rconciliation.  appeler avant l'ouverture des sessions.
+     *
+     * @param repertoire
+     *            rpertoire du journal, cr s'il n'existe pas
+     * @return le nombre de plans restaurs
+     * @throws IOException
+     *             si le journal ne peut tre relu ou ouvert
+     */
+    public synchronized int journaliser(Path repertoire) throws IOException {
+        if (journal != null) throw new IllegalStateException("plans dj journaliss");
+        Map<Integer, PlanSalle> restaures = JournalReservations.relire(repertoire);
+        journal = new JournalReservations(repertoire, plans, PERIODE_INSTANTANE);
+        plans.restaurer(restaures, journal);
+        journal.instantane(); // les segments relus deviennent inutiles
+        return restaures.size();
+    }
+
+    /**
+     * Signale la suppression d'une reprsentation (et donc, via
+     * <code>REPRESENTATIONS_TRG_DELETE</code>, de ses rservations) : les
+     * donnes en cache la concernant sont oublies.
+     *
+     * @param rid
+     *            identifiant de la reprsentation supprime
+     */
+    public void invaliderRepresentation(int rid) {
+        representations.invalider(rid);
+        catalogue.invaliderRepresentation(rid);
+        plans.invalider(rid);
+    }
+
+    /**
+     * Signale l'ajout ou la modification d'une reprsentation ou d'un tarif
+     * d'un spectacle : le catalogue relira ce spectacle  la prochaine
+     * recherche. Les modifications faites par d'autres processus sont prises
+     * en compte au plus tard aprs {@link #PERIODE_CATALOGUE}.
+     *
+     * @param spectacle
+     *            nom du spectacle modifi
+     */
+    public void invaliderSpectacle(String spectacle) {
+        catalogue.invalider(spectacle);
+    }
+
+    public long getDureeOption() {
+        return dureeOption;
+    }
+
+    /**
+     * @param dureeOption
+     *            dure de validit des options poses  partir de maintenant,
+     *            en millisecondes
+     */
+    public void setDureeOption(long dureeOption) {
+        this.dureeOption = dureeOption;
+    }
+
+    public NettoyeurOptions getNettoyeur() {
+        return nettoyeur;
+    }
+
+    PoolConnexions getPool() {
+        return pool;
+    }
+
+    /**
+     * @return le pool des consultations, le pool principal s'il n'y en a pas
+     *         d'autre
+     */
+    PoolConnexions getPoolLecture() {
+        return lecture;
+    }
+
+    /**
+     * @return l'ge maximal, en millisecondes, de l'tat des places servi
+     *         aux consultations
+     */
+    public long getAgeMaxLectures() {
+        return plans.getPeriode();
+    }
+
+    /**
+     * Fixe l'ge maximal de l'tat des places servi aux consultations : un
+     * plan de salle lu dans la base depuis plus longtemps est rconcili avant
+     * d'tre servi. Avec un pool de lecture vers une rplique, le retard de
+     * la rplique s'y ajoute.
+     *
+     * @param ageMax
+     *            ge maximal en millisecondes
+     */
+    public void setAgeMaxLectures(long ageMax) {
+        plans.setPeriode(ageMax);
+    }
+
+    public CacheRepresentations getRepresentations() {
+        return representations;
+    }
+
+    public CatalogueRepresentations getCatalogue() {
+        return catalogue;
+    }
+
+    public MoteurPlans getPlans() {
+        return plans;
+    }
+
+    /**
+     * Libre les options expires depuis le thread appelant si la base n'a
+     * pas de thread de nettoyage (pool d'une seule connexion) et que la
+     * priode de nettoyage est coule. Doit tre appele sans connexion
+     * du pool en main.
+     */
+    void nettoyerOptions() {
+        nettoyeur.passer();
+    }
+
+    /**
+     * Arrte le nettoyage des options, l'excuteur des sessions asynchrones,
+     * les crivains des sessions srialises et la liste d'attente, ferme le
+     * journal des plans, puis ferme les pools de connexions.
+     *
+     * @throws SQLException
+     *             si une erreur survient lors de la fermeture
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            nettoyeur.close();
+            synchronized (this) {
+                if (executeur != null) executeur.close();
+                if (ecrivain != null) ecrivain.close();
+                if (attente != null) {
+                    plans.setAttente(null);
+                    attente.close();
+                }
+                if (journal != null) {
+                    try {
+                        journal.close();
+                    } catch (IOException e) {
+                        throw new SQLException("fermeture du journal des plans", e);
+                    }
+                }
+            }
+        } finally {
+            // les pools sont ferms mme si l'arrt d'un service a chou
+            try {
+                pool.close();
+            } finally {
+                if (lecture != pool) lecture.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,175 @@
+package gesresa;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache des identifiants internes (RID) des reprsentations, index par le
+ * triplet (spectacle, date, salle) qui est tout ce que connaissent les
+ * clients construisant eux-mmes leurs objets {@link Representation}.
+ * <p>
+ * Le cache est born : au-del de sa capacit, l'entre la moins rcemment
+ * utilise est vince. Une entre expire aprs une dure de vie donne, ce
+ * qui borne le temps pendant lequel une reprsentation supprime par un autre
+ * processus (dclencheur <code>REPRESENTATIONS_TRG_DELETE</code> compris)
+ * peut encore tre rsolue. Les suppressions connues de ce processus, ainsi
+ * que les critures rejetes par la base, invalident l'entre immdiatement
+ * via {@link #invalider(int)}.
+ *
+ * @author Aurel
+ *
+ */
+public class CacheRepresentations {
+
+    private static final String SQL_RID = "select RID from REPRESENTATIONS where "
+            + "SNAME = ? and STARTDATE = ? and RNAME = ?";
+
+    private static class Entree {
+        final int rid;
+        final long expiration;
+
+        Entree(int rid, long expiration) {
+            this.rid = rid;
+            this.expiration = expiration;
+        }
+    }
+
+    private final long dureeVie;
+    private final LinkedHashMap<String, Entree> entrees;
+    private final Map<Integer, String> cles; // index inverse pour l'invalidation par RID
+    private long succes;
+    private long echecs;
+
+    /**
+     * @param capacite
+     *            nombre maximal de reprsentations gardes
+     * @param dureeVie
+     *            dure de vie d'une entre, en millisecondes
+     */
+    public CacheRepresentations(final int capacite, long dureeVie) {
+        this.dureeVie = dureeVie;
+        this.cles = new HashMap<Integer, String>();
+        this.entrees = new LinkedHashMap<String, Entree>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entree> eldest) {
+                if (size() <= capacite) return false;
+                cles.remove(eldest.getValue().rid);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Retourne le RID d'une reprsentation : celui qu'elle porte s'il est
+     * connu, sinon celui du cache, sinon celui lu dans la base (et mis en
+     * cache).
+     *
+     * @param c
+     *            connexion  utiliser en cas d'absence du cache
+     * @param representation
+     *            reprsentation  rsoudre
+     * @return le RID de la reprsentation
+     * @throws SQLException
+     *             si la reprsentation n'existe pas ou si la lecture choue
+     */
+    public int resoudre(ConnexionPoolee c, Representation representation) throws SQLException {
+        int connu = chercher(representation);
+        if (connu != Representation.RID_INCONNU) return connu;
+        String cle = cle(representation);
+        PreparedStatement getRID = c.preparer(SQL_RID);
+        getRID.setString(1, representation.getSpectacle());
+        getRID.setDate(2, new java.sql.Date(representation.getDate().getTime()));
+        getRID.setString(3, representation.getSalle());
+        int rid;
+        try (ResultSet rs = getRID.executeQuery()) {
+            if (!rs.next()) throw new SQLException("reprsentation inconnue : " + representation);
+            rid = rs.getInt("RID");
+        }
+        ajouter(cle, rid);
+        return rid;
+    }
+
+    /**
+     * Retourne le RID d'une reprsentation sans accder  la base.
+     *
+     * @return le RID port par la reprsentation ou prsent dans le cache,
+     *         {@link Representation#RID_INCONNU} sinon
+     */
+    public int chercher(Representation representation) {
+        if (representation.isRidConnu()) return representation.getRid();
+        String cle = cle(representation);
+        synchronized (this) {
+            Entree e = entrees.get(cle);
+            if (e != null && e.expiration > System.currentTimeMillis()) {
+                succes++;
+                return e.rid;
+            }
+            echecs++;
+        }
+        return Representation.RID_INCONNU;
+    }
+
+    /**
+     * Enregistre le RID d'une reprsentation lue dans la base.
+     */
+    public void enregistrer(Representation representation) {
+        if (representation.isRidConnu()) ajouter(cle(representation), representation.getRid());
+    }
+
+    /**
+     * Retire une reprsentation du cache, par exemple aprs sa suppression.
+     *
+     * @param rid
+     *            identifiant de la reprsentation
+     */
+    public synchronized void invalider(int rid) {
+        String cle = cles.remove(rid);
+        if (cle != null) entrees.remove(cle);
+    }
+
+    /**
+     * Retire du cache l'entre correspondant au triplet d'une reprsentation
+     * dont le RID n'est pas connu.
+     */
+    public synchronized void invalider(Representation representation) {
+        Entree e = entrees.remove(cle(representation));
+        if (e != null) cles.remove(e.rid);
+    }
+
+    public synchronized void vider() {
+        entrees.clear();
+        cles.clear();
+    }
+
+    public synchronized int taille() {
+        return entrees.size();
+    }
+
+    public synchronized long getSucces() {
+        return succes;
+    }
+
+    public synchronized long getEchecs() {
+        return echecs;
+    }
+
+    private synchronized void ajouter(String cle, int rid) {
+        String ancienne = cles.put(rid, cle);
+        if (ancienne != null && !ancienne.equals(cle)) entrees.remove(ancienne);
+        Entree precedente = entrees.put(cle, new Entree(rid, System.currentTimeMillis() + dureeVie));
+        if (precedente != null && precedente.rid != rid) cles.remove(precedente.rid);
+    }
+
+    private static String cle(Representation representation) {
+        // mme troncature au jour que celle applique par setDate
+        return representation.getSpectacle() + '\n' + new java.sql.Date(representation.getDate().getTime()) + '\n'
+                + representation.getSalle();
+    }
+
+}
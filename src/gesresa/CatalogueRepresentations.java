@@ -0,0 +1,252 @@
+package gesresa;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Catalogue en mmoire des reprsentations et de leurs tarifs, index par
+ * spectacle puis par date de dbut : une recherche sur une priode se fait en
+ * temps logarithmique, sans accs  la base.
+ * <p>
+ * Le catalogue est charg spectacle par spectacle,  la premire recherche
+ * portant sur un spectacle, par une seule requte. Les reprsentations d'un
+ * spectacle sont relues lorsque leur chargement est plus ancien que la
+ * priode de rafrachissement, ou immdiatement aprs une invalidation (par
+ * exemple la suppression d'une reprsentation ou un changement de tarif
+ * connu de ce processus). Les autres spectacles ne sont pas relus.
+ * <p>
+ * Chaque invalidation fait avancer la gnration du spectacle : un
+ * chargement pendant lequel le spectacle a t invalid n'est pas gard, ses
+ * lignes ayant pu tre lues avant la modification.
+ *
+ * @author Aurel
+ *
+ */
+public class CatalogueRepresentations {
+
+    private static final String SQL_SPECTACLE = "select RID, RNAME, STARTDATE, BNAME, PRICE from REPRESENTATIONS "
+            + "natural join BOOKINGCLASSES natural join COST where SNAME = ? order by RID";
+
+    private static final Comparator<Representation> PAR_RID = new Comparator<Representation>() {
+        @Override
+        public int compare(Representation r1, Representation r2) {
+            return Integer.compare(r1.getRid(), r2.getRid());
+        }
+    };
+
+    /**
+     * Reprsentations d'un spectacle, par date de dbut. Un objet Spectacle
+     * n'est plus modifi une fois publi : un rafrachissement le remplace.
+     */
+    private static class Spectacle {
+        final NavigableMap<Long, List<Representation>> parDate;
+        final long chargement;
+
+        Spectacle(NavigableMap<Long, List<Representation>> parDate, long chargement) {
+            this.parDate = parDate;
+            this.chargement = chargement;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Spectacle> spectacles;
+    private final ConcurrentHashMap<Integer, String> rids; // spectacle de chaque reprsentation charge
+    private final ConcurrentHashMap<String, AtomicLong> generations; // invalidations de chaque spectacle
+    private final long periode;
+
+    /**
+     * @param periode
+     *            priode de rafrachissement d'un spectacle, en millisecondes
+     */
+    public CatalogueRepresentations(long periode) {
+        this.spectacles = new ConcurrentHashMap<String, Spectacle>();
+        this.rids = new ConcurrentHashMap<Integer, String>();
+        this.generations = new ConcurrentHashMap<String, AtomicLong>();
+        this.periode = periode;
+    }
+
+    /**
+     * Liste les reprsentations d'un spectacle dont la date de dbut est
+     * comprise, au jour prs, entre deux dates.
+     *
+     * @param c
+     *            connexion  utiliser si le spectacle doit tre (re)charg,
+     *            <code>null</code> pour n'utiliser que la mmoire
+     * @return les reprsentations par RID croissant, <code>null</code> si le
+     *         spectacle doit tre charg et qu'aucune connexion n'est fournie
+     * @throws SQLException
+     *             si le chargement choue
+     */
+    public List<Representation> chercher(ConnexionPoolee c, String spectacle, Date de, Date a) throws SQLException {
+        Spectacle s = spectacles.get(spectacle);
+        if (s == null || System.currentTimeMillis() - s.chargement > periode) {
+            if (c == null) return null;
+            s = charger(c, spectacle);
+        }
+        List<Representation> l = new ArrayList<Representation>();
+        long debut = jour(de);
+        long fin = jour(a);
+        if (debut > fin) return l;
+        for (List<Representation> memeDate : s.parDate.subMap(debut, true, fin, true).values()) {
+            l.addAll(memeDate);
+        }
+        Collections.sort(l, PAR_RID);
+        return l;
+    }
+
+    /**
+     * @return le temps coul depuis le chargement d'un spectacle, en
+     *         millisecondes, 0 s'il n'est pas charg
+     */
+    public long age(String spectacle) {
+        Spectacle s = spectacles.get(spectacle);
+        return s == null ? 0 : System.currentTimeMillis() - s.chargement;
+    }
+
+    /**
+     * Oublie les reprsentations d'un spectacle ; elles seront relues  la
+     * prochaine recherche.
+     */
+    public void invalider(String spectacle) {
+        generation(spectacle).incrementAndGet(); // avant le retrait : voir charger
+        spectacles.remove(spectacle);
+    }
+
+    /**
+     * Oublie le spectacle d'une reprsentation supprime ou modifie.
+     */
+    public void invaliderRepresentation(int rid) {
+        String spectacle = rids.remove(rid);
+        if (spectacle != null) invalider(spectacle);
+    }
+
+    public void vider() {
+        for (AtomicLong g : generations.values()) {
+            g.incrementAndGet();
+        }
+        spectacles.clear();
+        rids.clear();
+    }
+
+    private AtomicLong generation(String spectacle) {
+        AtomicLong g = generations.get(spectacle);
+        if (g == null) {
+            g = new AtomicLong();
+            AtomicLong concurrente = generations.putIfAbsent(spectacle, g);
+            if (concurrente != null) g = concurrente;
+        }
+        return g;
+    }
+
+    /**
+     * Lit les reprsentations d'un spectacle et les publie, sauf si le
+     * spectacle a t invalid pendant la lecture : le rsultat ne sert
+     * alors qu' l'appel en cours.
+     */
+    private Spectacle charger(ConnexionPoolee c, String spectacle) throws SQLException {
+        AtomicLong generation = generation(spectacle);
+        long avant = generation.get();
+        long date = System.currentTimeMillis();
+        PreparedStatement ps = c.preparer(SQL_SPECTACLE);
+        ps.setString(1, spectacle);
+        NavigableMap<Long, List<Representation>> parDate = new TreeMap<Long, List<Representation>>();
+        try (ResultSet rs = ps.executeQuery()) {
+            int rid = Representation.RID_INCONNU;
+            String salle = null;
+            Date debut = null;
+            List<Tarif> tarifs = null;
+            while (rs.next()) {
+                int r = rs.getInt(1);
+                if (r != rid) { // nouvelle reprsentation : la prcdente est complte
+                    if (tarifs != null) ajouter(parDate, rid, spectacle, salle, debut, tarifs);
+                    rid = r;
+                    salle = rs.getString(2);
+                    debut = rs.getDate(3);
+                    tarifs = new ArrayList<Tarif>(4);
+                }
+                tarifs.add(new Tarif(rs.getString(4), rs.getFloat(5)));
+            }
+            if (tarifs != null) ajouter(parDate, rid, spectacle, salle, debut, tarifs);
+        }
+        Spectacle s = new Spectacle(parDate, date);
+        // publi puis vrifi : une invalidation postrieure  la vrification retire ce chargement elle-mme
+        spectacles.put(spectacle, s);
+        if (generation.get() != avant) {
+            spectacles.remove(spectacle, s);
+            return s;
+        }
+        Set<Integer> chargees = new HashSet<Integer>();
+        for (List<Representation> memeDate : parDate.values()) {
+            for (Representation r : memeDate) {
+                chargees.add(r.getRid());
+                rids.put(r.getRid(), spectacle);
+            }
+        }
+        // reprsentations disparues du spectacle depuis le chargement prcdent
+        for (Iterator<Map.Entry<Integer, String>> it = rids.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Integer, String> e = it.next();
+            if (e.getValue().equals(spectacle) && !chargees.contains(e.getKey())) it.remove();
+        }
+        return s;
+    }
+
+    private static void ajouter(NavigableMap<Long, List<Representation>> parDate, int rid, String spectacle,
+            String salle, Date debut, List<Tarif> tarifs) {
+        // partage par tous les clients : ses tarifs ne doivent pas tre modifis
+        Representation r = new Representation(rid, spectacle, salle, debut, Collections.unmodifiableList(tarifs));
+        Long cle = jour(r.getDate());
+        List<Representation> memeDate = parDate.get(cle);
+        if (memeDate == null) {
+            memeDate = new ArrayList<Representation>(1);
+            parDate.put(cle, memeDate);
+        }
+        memeDate.add(r);
+    }
+
+    /**
+     * @return la date  minuit, heure locale, comme le fait la conversion en
+     *         <code>java.sql.Date</code>
+     */
+    private static long jour(Date d) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(d);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * @return le nombre de spectacles chargs
+     */
+    public int taille() {
+        return spectacles.size();
+    }
+
+    /**
+     * @return les spectacles chargs et leur nombre de dates
+     */
+    public Map<String, Integer> getSpectacles() {
+        Map<String, Integer> m = new TreeMap<String, Integer>();
+        for (Map.Entry<String, Spectacle> e : spectacles.entrySet()) {
+            m.put(e.getKey(), e.getValue().parDate.size());
+        }
+        return m;
+    }
+
+}
@@ -0,0 +1,65 @@
+package gesresa;
+
+import java.util.List;
+
+/**
+ * Rponse de
+ * {@link GestionReservation#listerChangements(Representation, long)} : les
+ * places d'une reprsentation dont le statut a chang depuis une version, ou
+ * toutes ses places si ces changements ne sont plus connus. Dans les deux
+ * cas, le statut donn est celui de la version retourne,  prsenter lors de
+ * la demande suivante.
+ *
+ * @author Aurel
+ *
+ */
+public class ChangementsPlaces {
+
+    /** version  prsenter pour obtenir toutes les places */
+    public static final long AUCUNE_VERSION = -1;
+
+    private final Representation representation;
+    private final long version;
+    private final boolean complet;
+    private final List<Place> places;
+
+    public ChangementsPlaces(Representation representation, long version, boolean complet, List<Place> places) {
+        this.representation = representation;
+        this.version = version;
+        this.complet = complet;
+        this.places = places;
+    }
+
+    public Representation getRepresentation() {
+        return representation;
+    }
+
+    /**
+     * @return la version de la reprsentation dcrite par cette rponse
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return vrai si la rponse liste toutes les places de la reprsentation
+     *         (version demande trop ancienne ou inconnue), faux si elle ne
+     *         liste que les places changes
+     */
+    public boolean isComplet() {
+        return complet;
+    }
+
+    /**
+     * @return les places, par numro croissant, avec leur statut actuel
+     */
+    public List<Place> getPlaces() {
+        return places;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangementsPlaces [version=" + version + ", complet=" + complet + ", places=" + places.size() + "]";
+    }
+
+}
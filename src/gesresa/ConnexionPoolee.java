@@ -0,0 +1,171 @@
+package gesresa;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Connexion physique emprunte  un {@link PoolConnexions}. Chaque connexion
+ * garde un cache born de requtes prpares, index par le texte SQL : une
+ * mme requte n'est donc prpare qu'une fois par connexion physique, quel
+ * que soit le client qui l'utilise.
+ * <p>
+ * Les requtes prpares appartiennent  la connexion : l'appelant ne doit
+ * pas les fermer, mais il doit fermer les <code>ResultSet</code> obtenus et
+ * terminer sa transaction (commit ou rollback) avant d'appeler
+ * {@link #close()}, qui rend la connexion au pool. Une transaction laisse
+ * ouverte malgr tout (exception imprvue) est annule  la restitution, ds
+ * qu'une requte autre qu'une simple lecture a t prpare depuis la
+ * dernire validation ou annulation : ni ses verrous ni ses lignes ne passent
+ *  l'emprunteur suivant.
+ *
+ * @author Aurel
+ *
+ */
+public class ConnexionPoolee implements AutoCloseable {
+
+    private final PoolConnexions pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> requetes;
+    private boolean ecritures; // transaction peut-tre ouverte : mise  jour ou verrouillage prpars
+    private long rendue; // date de la dernire restitution (ms)
+
+    ConnexionPoolee(PoolConnexions pool, Connection connection, final int tailleCache) {
+        this.pool = pool;
+        this.connection = connection;
+        // ordre d'accs : l'entre la plus ancienne est la moins rcemment utilise
+        this.requetes = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= tailleCache) return false;
+                fermerSilencieusement(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Retourne la requte prpare correspondant au texte SQL donn, en la
+     * prparant si elle n'est pas dj dans le cache de cette connexion.
+     *
+     * @param sql
+     *            texte de la requte
+     * @return la requte prpare,  ne pas fermer
+     * @throws SQLException
+     *             si la requte ne peut pas tre prpare
+     */
+    public PreparedStatement preparer(String sql) throws SQLException {
+        if (!ecritures) ecritures = !lecture(sql);
+        PreparedStatement ps = requetes.get(sql);
+        if (ps == null) {
+            ps = connection.prepareStatement(sql);
+            requetes.put(sql, ps);
+        }
+        return ps;
+    }
+
+    /**
+     * @return la connexion physique ; la transaction est alors suppose
+     *         ouverte jusqu' sa validation ou son annulation
+     */
+    public Connection getConnection() {
+        ecritures = true;
+        return connection;
+    }
+
+    public void commit() throws SQLException {
+        connection.commit();
+        ecritures = false;
+    }
+
+    public void rollback() throws SQLException {
+        pool.annulation();
+        connection.rollback();
+        ecritures = false;
+    }
+
+    /**
+     * Rend la connexion au pool.
+     */
+    @Override
+    public void close() {
+        pool.rendre(this);
+    }
+
+    /**
+     * Annule la transaction laisse ouverte par l'emprunteur, en vidant les
+     * lots en attente des requtes, avant la restitution au pool.
+     *
+     * @return faux si la connexion est inutilisable et doit tre ferme
+     */
+    boolean terminer() {
+        rendue = System.currentTimeMillis();
+        try {
+            if (connection.isClosed()) return false;
+            if (!ecritures || connection.getAutoCommit()) return true;
+            for (PreparedStatement ps : requetes.values()) {
+                ps.clearBatch();
+            }
+            rollback();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Vrifie une connexion libre avant de la prter : une connexion reste
+     * libre plus longtemps que le dlai donn est prouve auprs de la base
+     * (une connexion coupe par le serveur n'est pas vue ferme).
+     *
+     * @param inactiviteMax
+     *            dure d'inactivit (ms) en de de laquelle la connexion est
+     *            suppose valide
+     * @param attente
+     *            dlai maximal de la vrification, en secondes
+     */
+    boolean estValide(long inactiviteMax, int attente) {
+        try {
+            if (connection.isClosed()) return false;
+            return System.currentTimeMillis() - rendue < inactiviteMax || connection.isValid(attente);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return vrai pour une requte qui ne modifie ni ne verrouille rien
+     */
+    private static boolean lecture(String sql) {
+        return sql.regionMatches(true, 0, "select", 0, 6) && !sql.toLowerCase(Locale.ROOT).contains("for update");
+    }
+
+    /**
+     * Ferme les requtes prpares puis la connexion physique.
+     */
+    void fermer() {
+        for (PreparedStatement ps : requetes.values()) {
+            fermerSilencieusement(ps);
+        }
+        requetes.clear();
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.out.println("fermeture de connexion impossible : " + e.getMessage());
+        }
+    }
+
+    private static void fermerSilencieusement(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            // la requte est abandonne de toute faon
+        }
+    }
+
+}
@@ -0,0 +1,326 @@
+package gesresa;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * crivain unique par reprsentation : les demandes de rservation sont
+ * rparties entre plusieurs threads crivains selon le spectacle et la salle
+ * de leur reprsentation, si bien que toutes les demandes visant une mme
+ * reprsentation passent par le mme crivain.
+ * <p>
+ * Un crivain prend d'un coup toutes les demandes en attente (jusqu' une
+ * taille de lot), les dpartage dans le plan de salle en mmoire, dans leur
+ * ordre d'arrive, puis insre les rservations acceptes de tous les
+ * acheteurs en une seule transaction. Chaque demande reoit sa propre rponse
+ * : ses places, ou <code>null</code> si elles n'ont pu tre toutes
+ * attribues.
+ * <p>
+ * Si la base refuse le lot (place prise par un autre processus), le lot est
+ * annul et ses demandes sont rejoues une  une, chacune dans sa propre
+ * transaction, aprs relecture du plan.
+ *
+ * @author Aurel
+ *
+ */
+public class EcrivainReservations implements AutoCloseable {
+
+    /**
+     * Demande de rservation d'un acheteur : une liste de places, ou un
+     * nombre de places  un tarif.
+     */
+    static final class Demande {
+        final Representation representation;
+        final String client;
+        final int[] sids;
+        final int nombre;
+        final Tarif tarif;
+        final CompletableFuture<List<Place>> resultat = new CompletableFuture<List<Place>>();
+        int rid;
+        int[] attribuees;
+        PlanSalle plan;
+
+        Demande(Representation representation, String client, int[] sids, int nombre, Tarif tarif) {
+            this.representation = representation;
+            this.client = client;
+            this.sids = sids;
+            this.nombre = nombre;
+            this.tarif = tarif;
+        }
+    }
+
+    private final BaseReservation base;
+    private final List<BlockingQueue<Demande>> files;
+    private final List<Thread> ecrivains;
+    private final int lot; // demandes par transaction au plus
+    private volatile boolean ferme;
+    private long transactions;
+    private long demandes;
+
+    /**
+     * Dmarre les crivains.
+     *
+     * @param base
+     *            base dans laquelle crire
+     * @param nombre
+     *            nombre de threads crivains
+     * @param lot
+     *            nombre maximal de demandes valides par transaction
+     */
+    public EcrivainReservations(BaseReservation base, int nombre, int lot) {
+        this.base = base;
+        this.lot = lot;
+        this.files = new ArrayList<BlockingQueue<Demande>>(nombre);
+        this.ecrivains = new ArrayList<Thread>(nombre);
+        for (int i = 0; i < nombre; i++) {
+            final BlockingQueue<Demande> file = new LinkedBlockingQueue<Demande>();
+            files.add(file);
+            Thread t = new Thread("ecrivain-" + i) {
+                @Override
+                public void run() {
+                    ecrire(file);
+                }
+            };
+            t.setDaemon(true);
+            ecrivains.add(t);
+            t.start();
+        }
+    }
+
+    /**
+     * Confie une demande  l'crivain de sa reprsentation.
+     *
+     * @return la rponse  venir
+     */
+    CompletableFuture<List<Place>> soumettre(Demande d) throws SQLException {
+        if (ferme) throw new SQLException("crivain de rservations arrt");
+        file(d).add(d);
+        return d.resultat;
+    }
+
+    /**
+     * Retire une demande que son crivain n'a pas encore prise.
+     *
+     * @return faux si la demande est dj en cours de traitement ou traite :
+     *         sa rponse viendra
+     */
+    boolean retirer(Demande d) {
+        return file(d).remove(d);
+    }
+
+    private BlockingQueue<Demande> file(Demande d) {
+        // rpartition par spectacle et salle, connus mme si le RID ne l'est pas
+        int cle = 31 * d.representation.getSpectacle().hashCode() + d.representation.getSalle().hashCode();
+        return files.get(Math.abs(cle % files.size()));
+    }
+
+    private void ecrire(BlockingQueue<Demande> file) {
+        List<Demande> demandesLot = new ArrayList<Demande>(lot);
+        while (!ferme || !file.isEmpty()) {
+            try {
+                Demande d = file.poll(100, TimeUnit.MILLISECONDS);
+                if (d == null) continue;
+                demandesLot.add(d);
+                file.drainTo(demandesLot, lot - 1);
+                traiter(demandesLot);
+            } catch (InterruptedException e) {
+                ferme = true;
+            } catch (RuntimeException e) {
+                echouer(demandesLot, e); // l'crivain ne doit pas s'arrter
+            } finally {
+                demandesLot.clear();
+            }
+        }
+    }
+
+    /**
+     * Dpartage un lot en mmoire puis valide les demandes acceptes en une
+     * transaction.
+     */
+    private void traiter(List<Demande> demandesLot) {
+        try (ConnexionPoolee c = base.getPool().obtenir()) {
+            PreparedStatement inserer = c.preparer(GestionReservationImpl.SQL_RESERVER);
+            List<Demande> acceptees = new ArrayList<Demande>(demandesLot.size());
+            for (Demande d : demandesLot) {
+                try {
+                    if (!attribuer(c, d)) {
+                        d.resultat.complete(null);
+                        continue;
+                    }
+                } catch (SQLException e) {
+                    d.resultat.completeExceptionally(e);
+                    continue;
+                }
+                acceptees.add(d);
+                try {
+                    ajouter(inserer, d);
+                } catch (SQLException e) { // lot inutilisable : aucune demande n'est crite
+                    annuler(c, acceptees);
+                    echouer(demandesLot, e);
+                    return;
+                }
+            }
+            if (acceptees.isEmpty()) return;
+            try {
+                inserer.executeBatch(); // les places de tous les acheteurs en un aller-retour
+                c.commit();
+            } catch (BatchUpdateException e) { // un autre processus a crit : chacun pour soi
+                annuler(c, acceptees);
+                for (Demande d : acceptees) {
+                    individuellement(c, d);
+                }
+                return;
+            } catch (SQLException e) {
+                annuler(c, acceptees);
+                echouer(acceptees, e);
+                return;
+            }
+            synchronized (this) {
+                transactions++;
+                demandes += acceptees.size();
+            }
+            for (Demande d : acceptees) {
+                d.plan.reserver(d.attribuees, d.attribuees.length); // places confirmes dans le plan
+                d.resultat.complete(places(d));
+            }
+        } catch (SQLException e) { // aucune connexion disponible
+            echouer(demandesLot, e);
+        }
+    }
+
+    /**
+     * Rejoue une demande dans sa propre transaction.
+     */
+    private void individuellement(ConnexionPoolee c, Demande d) {
+        try {
+            if (!attribuer(c, d)) {
+                d.resultat.complete(null);
+                return;
+            }
+            PreparedStatement inserer = c.preparer(GestionReservationImpl.SQL_RESERVER);
+            ajouter(inserer, d);
+            inserer.executeBatch();
+            c.commit();
+            d.plan.reserver(d.attribuees, d.attribuees.length);
+            d.resultat.complete(places(d));
+        } catch (BatchUpdateException e) {
+            annuler(c, d);
+            d.resultat.complete(null);
+        } catch (SQLException e) {
+            annuler(c, d);
+            d.resultat.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Attribue dans le plan en mmoire les places d'une demande.
+     *
+     * @return faux si la demande ne peut tre satisfaite
+     */
+    private boolean attribuer(ConnexionPoolee c, Demande d) throws SQLException {
+        d.rid = base.getRepresentations().resoudre(c, d.representation);
+        d.plan = base.getPlans().plan(c, d.rid);
+        d.attribuees = null;
+        if (d.sids != null) {
+            if (!d.plan.reserverTout(d.sids, d.sids.length)) return false;
+            d.attribuees = d.sids;
+        } else {
+            int[] sids = new int[d.nombre];
+            int depart = ThreadLocalRandom.current().nextInt(Math.max(d.plan.taille(), 1));
+            if (d.plan.prendre(d.tarif, d.nombre, depart, sids) == 0) return false;
+            d.attribuees = sids;
+        }
+        return true;
+    }
+
+    private static void ajouter(PreparedStatement inserer, Demande d) throws SQLException {
+        for (int sid : d.attribuees) {
+            inserer.setInt(1, sid);
+            inserer.setString(2, d.representation.getSalle());
+            inserer.setInt(3, d.rid);
+            inserer.setString(4, d.client);
+            inserer.addBatch();
+        }
+    }
+
+    /**
+     * Annule la transaction en cours et rend dans les plans les places des
+     * demandes concernes ; les plans sont relus avant leur prochain usage.
+     */
+    private void annuler(ConnexionPoolee c, List<Demande> demandesLot) {
+        try {
+            c.preparer(GestionReservationImpl.SQL_RESERVER).clearBatch();
+            c.rollback();
+        } catch (SQLException e) {
+            // connexion perdue : la transaction est annule par la base
+        }
+        for (Demande d : demandesLot) {
+            liberer(d);
+        }
+    }
+
+    private void annuler(ConnexionPoolee c, Demande d) {
+        List<Demande> l = new ArrayList<Demande>(1);
+        l.add(d);
+        annuler(c, l);
+    }
+
+    private void liberer(Demande d) {
+        if (d.attribuees == null) return;
+        base.getPlans().liberer(d.rid, d.attribuees, d.attribuees.length);
+        base.getPlans().marquerPerime(d.rid);
+        d.attribuees = null;
+    }
+
+    private static List<Place> places(Demande d) {
+        List<Place> l = new LinkedList<Place>();
+        for (int sid : d.attribuees) {
+            l.add(new Place(d.representation, sid, d.plan.tarif(d.plan.indice(sid)), false));
+        }
+        return l;
+    }
+
+    private static void echouer(List<Demande> demandesLot, Throwable e) {
+        for (Demande d : demandesLot) {
+            d.resultat.completeExceptionally(e); // sans effet sur une demande dj servie
+        }
+    }
+
+    /**
+     * @return le nombre moyen de demandes valides par transaction
+     */
+    public synchronized double getDemandesParTransaction() {
+        return transactions == 0 ? 0 : (double) demandes / transactions;
+    }
+
+    /**
+     * Arrte les crivains aprs le traitement des demandes en attente.
+     */
+    @Override
+    public void close() {
+        ferme = true;
+        for (Thread t : ecrivains) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        List<Demande> restantes = new ArrayList<Demande>();
+        for (BlockingQueue<Demande> file : files) {
+            file.drainTo(restantes); // soumises pendant l'arrt
+        }
+        echouer(restantes, new SQLException("crivain de rservations arrt"));
+    }
+
+}
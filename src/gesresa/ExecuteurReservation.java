@@ -0,0 +1,138 @@
+package gesresa;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Excuteur des appels bloquants  la base pour le compte des sessions
+ * asynchrones. Chaque appel occupe un thread virtuel lorsque la JVM en
+ * propose (Java 21 et plus) : un appel en attente ne cote alors qu'un objet,
+ * et le nombre de sessions servies n'est plus limit par le nombre de threads.
+ * Le nombre d'appels en cours sur la base est born par un smaphore,
+ * normalement  la taille du pool de connexions, afin que les appels en
+ * surnombre attendent sans consommer de connexion ni de thread systme.
+ * <p>
+ * Sans threads virtuels, les appels sont servis par un pool fixe de threads
+ * systme de la taille de la borne.
+ *
+ * @author Aurel
+ *
+ */
+public class ExecuteurReservation implements AutoCloseable {
+
+    /**
+     * Appel bloquant  excuter.
+     *
+     * @param <T>
+     *            type du rsultat
+     */
+    public interface Appel<T> {
+        T executer() throws SQLException;
+    }
+
+    private final ExecutorService executeur;
+    private final Semaphore permis;
+    private final int borne;
+    private final boolean virtuels;
+
+    /**
+     * @param borne
+     *            nombre maximal d'appels excuts simultanment
+     */
+    public ExecuteurReservation(int borne) {
+        if (borne <= 0) throw new IllegalArgumentException("borne invalide : " + borne);
+        this.borne = borne;
+        this.permis = new Semaphore(borne, true);
+        ExecutorService e = threadsVirtuels();
+        this.virtuels = e != null;
+        this.executeur = e != null ? e : Executors.newFixedThreadPool(borne, new ThreadFactory() {
+            private final AtomicInteger numero = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "reservation-" + numero.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Cre un excuteur lanant un thread virtuel par tche, par rflexion
+     * pour rester compilable avec un JDK plus ancien.
+     *
+     * @return l'excuteur, <code>null</code> si la JVM ne propose pas les
+     *         threads virtuels
+     */
+    public static ExecutorService threadsVirtuels() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Excute un appel bloquant ds qu'une place se libre sous la borne.
+     *
+     * @return le rsultat  venir de l'appel ; une
+     *         <code>SQLException</code> est transmise comme cause de
+     *         l'chec
+     */
+    public <T> CompletableFuture<T> soumettre(final Appel<T> appel) {
+        final CompletableFuture<T> resultat = new CompletableFuture<T>();
+        try {
+            executeur.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        permis.acquire();
+                    } catch (InterruptedException e) {
+                        resultat.completeExceptionally(e);
+                        return;
+                    }
+                    try {
+                        resultat.complete(appel.executer());
+                    } catch (Throwable e) {
+                        resultat.completeExceptionally(e);
+                    } finally {
+                        permis.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            resultat.completeExceptionally(e);
+        }
+        return resultat;
+    }
+
+    public int getBorne() {
+        return borne;
+    }
+
+    /**
+     * @return le nombre d'appels en attente ou en cours
+     */
+    public int getOccupation() {
+        return borne - permis.availablePermits() + permis.getQueueLength();
+    }
+
+    public boolean isVirtuels() {
+        return virtuels;
+    }
+
+    /**
+     * Refuse les nouveaux appels ; les appels soumis vont  leur terme.
+     */
+    @Override
+    public void close() {
+        executeur.shutdown();
+    }
+
+}
@@ -3,6 +3,7 @@ package gesresa;
 import java.sql.SQLException;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface de rservation de places de spectacle.
@@ -13,7 +14,7 @@ import java.util.List;
  * @author Busca
  * 
  */
-public interface GestionReservation {
+public interface GestionReservation extends AutoCloseable {
 
     /**
      * Liste les reprsentations d'un spectacle situes entre deux dates.
@@ -31,16 +32,35 @@ public interface GestionReservation {
      */
     List<Representation> listerRepresentations(String spectacle, Date de, Date a) throws SQLException;
 
+    /**
+     * Donne le nombre de places libres de chaque tarif d'une reprsentation,
+     * par exemple pour afficher la disponibilit des reprsentations
+     * retournes par <code>listerRepresentations</code>. Les places ne sont ni
+     * lues ni listes : le dcompte vient des compteurs tenus  jour  chaque
+     * rservation.
+     * 
+     * @param representation
+     *            reprsentation  considrer
+     * @return le nombre de places libres par tarif
+     * @throws SQLException
+     *             si une erreur survient lors de la manipulation des donnes
+     */
+    Map<Tarif, Integer> listerDisponibilites(Representation representation) throws SQLException;
+
     /**
      * Liste les places d'une reprsentation. Deux stratgies sont proposes :
      * <ul>
-     * <li>stable : l'application garantit que le statut libre/rserv des
-     * places n'est pas modifi jusqu' l'appel d'une des mthodes
-     * <code>reserverPlaces</code> pour la mme reprsentation,
+     * <li>stable : les places sur lesquelles le client a pos une option
+     * (voir <code>retenirPlaces</code>) lui sont prsentes comme libres ; leur
+     * statut ne change pas jusqu' l'appel d'une des mthodes
+     * <code>reserverPlaces</code> pour la mme reprsentation ou jusqu'
+     * l'expiration de l'option,
      * <li>instable : le statut des places peut changer aprs l'appel de cette
      * mthode ; en particulier, une place initialement dclare libre peut ne
      * plus l'tre au moment d'appeler <code>reserverPlaces</code>
      * </ul>
+     * Une consultation ne retient jamais de place par elle-mme : seules les
+     * places choisies par le client sont protges.
      * 
      * @param representation
      *            reprsentation  considrer
@@ -53,6 +73,63 @@ public interface GestionReservation {
      */
     List<Place> listerPlaces(Representation representation, boolean stable) throws SQLException;
 
+    /**
+     * Liste les places d'une reprsentation dont le statut a chang depuis
+     * une version, obtenue d'un appel prcdent. Un client qui affiche le plan
+     * de la salle le tient ainsi  jour sans relire toutes les places. Si la
+     * version est trop ancienne, ou inconnue, toutes les places sont listes.
+     * Le statut est celui que donnerait <code>listerPlaces</code> en mode
+     * instable.
+     * 
+     * @param representation
+     *            reprsentation  considrer
+     * @param version
+     *            version retourne par l'appel prcdent, ou
+     *            {@link ChangementsPlaces#AUCUNE_VERSION}
+     * @return les places changes ou toutes les places, et la nouvelle
+     *         version
+     * @throws SQLException
+     *             si une erreur survient lors de la manipulation des donnes
+     */
+    ChangementsPlaces listerChangements(Representation representation, long version) throws SQLException;
+
+    /**
+     * Parcourt les places d'une reprsentation sans construire de liste :
+     * chaque place est prsente au visiteur, par numro croissant, avec le
+     * mme statut que celui que donnerait <code>listerPlaces</code>. Adapt
+     * aux grandes salles, pour compter, filtrer ou afficher les places au fil
+     * de l'eau.
+     * 
+     * @param representation
+     *            reprsentation  considrer
+     * @param stable
+     *            vrai si le statut des places doit rester stable et faux sinon
+     * @param visiteur
+     *            traitement appliqu  chaque place
+     * @throws SQLException
+     *             si une erreur survient lors de la manipulation des donnes
+     */
+    void parcourirPlaces(Representation representation, boolean stable, VisiteurPlaces visiteur) throws SQLException;
+
+    /**
+     * Pose une option sur une liste de places choisies : jusqu' son
+     * expiration, aucune autre session ne peut rserver ces places. L'option
+     * est transforme en rservation par <code>reserverPlaces</code> ; les
+     * options non confirmes sont leves  l'expiration,  la rservation
+     * suivante sur la mme reprsentation ou  la fermeture de la session. Si
+     * une des places demandes n'est pas libre, aucune option n'est pose.
+     * 
+     * @param representation
+     *            reprsentation  considrer
+     * @param places
+     *            liste des places  retenir
+     * @return la liste des places retenues, <code>null</code> si toutes les
+     *         places demandes n'ont pu tre retenues
+     * @throws SQLException
+     *             si une erreur survient lors de la manipulation des donnes
+     */
+    List<Place> retenirPlaces(Representation representation, List<Place> places) throws SQLException;
+
     /**
      * Rserve une ou plusieurs places  un tarif donn pour une reprsentation.
      * S'il reste moins de places libres que demand au tarif spcifi, aucune
@@ -72,8 +149,10 @@ public interface GestionReservation {
     List<Place> reserverPlaces(Representation representation, int nombre, Tarif tarif) throws SQLException;
 
     /**
-     * Rserve une liste de places donne. Si une des places demandes n'est pas
-     * libre, aucune place n'est rserve.
+     * Rserve une liste de places donne. Les options poses par le client sur
+     * ces places sont confirmes ; ses autres options sur la reprsentation
+     * sont leves. Si une des places demandes n'est pas libre, aucune place
+     * n'est rserve.
      * 
      * @param representation
      *            reprsentation  considrer
@@ -85,4 +164,68 @@ public interface GestionReservation {
      *             si une erreur survient lors de la manipulation des donnes
      */
     List<Place> reserverPlaces(Representation representation, List<Place> places) throws SQLException;
+
+    /**
+     * Rserve une liste de places donne comme <code>reserverPlaces</code>,
+     * mais remplace, dans la mme transaction, chaque place prise entre-temps
+     * par une autre place libre choisie selon une politique de substitution.
+     * Le client n'a pas  consulter  nouveau les places aprs un conflit.
+     * 
+     * @param representation
+     *            reprsentation  considrer
+     * @param places
+     *            liste des places  rserver
+     * @param substitution
+     *            politique de remplacement des places perdues
+     * @return les places rserves et les remplacements effectus,
+     *         <code>null</code> si une place perdue n'a pu tre remplace
+     *         (aucune place n'est alors rserve)
+     * @throws SQLException
+     *             si une erreur survient lors de la manipulation des donnes
+     */
+    ResultatReservation reserverPlaces(Representation representation, List<Place> places,
+            Substitution substitution) throws SQLException;
+
+    /**
+     * Annule des rservations ou des options du client sur une
+     * reprsentation, en une seule transaction. Les places que le client ne
+     * dtient pas sont ignores.
+     * 
+     * @param representation
+     *            reprsentation  considrer
+     * @param places
+     *            liste des places  librer
+     * @return la liste des places effectivement libres, vide si aucune
+     * @throws SQLException
+     *             si une erreur survient lors de la manipulation des donnes
+     */
+    List<Place> annulerReservation(Representation representation, List<Place> places) throws SQLException;
+
+    /**
+     * Rserve en une seule transaction toutes les lignes d'un panier, qui
+     * peut porter sur plusieurs reprsentations et plusieurs tarifs. Pour
+     * chaque reprsentation du panier, les options poses par le client sur
+     * les places choisies sont confirmes et ses autres options leves, comme
+     * par <code>reserverPlaces</code>. Si une ligne ne peut tre satisfaite,
+     * aucune place n'est rserve.
+     * 
+     * @param panier
+     *            places et nombres de places  rserver
+     * @return la liste des places rserves, par reprsentation puis par
+     *         numro, <code>null</code> si le panier n'a pu tre rserv
+     * @throws SQLException
+     *             si une erreur survient lors de la manipulation des donnes
+     */
+    List<Place> reserverPanier(Panier panier) throws SQLException;
+
+    /**
+     * Termine la session : les ressources ventuellement retenues pour le
+     * compte du client sont libres. L'objet ne doit plus tre utilis
+     * ensuite.
+     * 
+     * @throws SQLException
+     *             si une erreur survient lors de la manipulation des donnes
+     */
+    @Override
+    void close() throws SQLException;
 }
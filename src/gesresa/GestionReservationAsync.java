@@ -0,0 +1,91 @@
+package gesresa;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Variante asynchrone de {@link GestionReservation} : chaque mthode rend la
+ * main immdiatement et retourne le rsultat  venir de l'opration. Une
+ * erreur d'accs aux donnes termine le rsultat en chec, avec la
+ * <code>SQLException</code> pour cause.
+ * <p>
+ * Les oprations d'une mme session sont excutes dans l'ordre de leur
+ * appel, l'une aprs l'autre ; celles de sessions diffrentes s'excutent en
+ * parallle, dans la limite fixe par l'excuteur.
+ *
+ * @author Aurel
+ *
+ */
+public interface GestionReservationAsync {
+
+    /**
+     * @see GestionReservation#listerRepresentations(String, Date, Date)
+     */
+    CompletableFuture<List<Representation>> listerRepresentations(String spectacle, Date de, Date a);
+
+    /**
+     * @see GestionReservation#listerDisponibilites(Representation)
+     */
+    CompletableFuture<Map<Tarif, Integer>> listerDisponibilites(Representation representation);
+
+    /**
+     * @see GestionReservation#listerPlaces(Representation, boolean)
+     */
+    CompletableFuture<List<Place>> listerPlaces(Representation representation, boolean stable);
+
+    /**
+     * @see GestionReservation#listerChangements(Representation, long)
+     */
+    CompletableFuture<ChangementsPlaces> listerChangements(Representation representation, long version);
+
+    /**
+     * Le visiteur est appel par le thread de l'excuteur qui fait le
+     * parcours.
+     *
+     * @see GestionReservation#parcourirPlaces(Representation, boolean,
+     *      VisiteurPlaces)
+     */
+    CompletableFuture<Void> parcourirPlaces(Representation representation, boolean stable, VisiteurPlaces visiteur);
+
+    /**
+     * @see GestionReservation#retenirPlaces(Representation, List)
+     */
+    CompletableFuture<List<Place>> retenirPlaces(Representation representation, List<Place> places);
+
+    /**
+     * @see GestionReservation#reserverPlaces(Representation, int, Tarif)
+     */
+    CompletableFuture<List<Place>> reserverPlaces(Representation representation, int nombre, Tarif tarif);
+
+    /**
+     * @see GestionReservation#reserverPlaces(Representation, List)
+     */
+    CompletableFuture<List<Place>> reserverPlaces(Representation representation, List<Place> places);
+
+    /**
+     * @see GestionReservation#reserverPlaces(Representation, List,
+     *      Substitution)
+     */
+    CompletableFuture<ResultatReservation> reserverPlaces(Representation representation, List<Place> places,
+            Substitution substitution);
+
+    /**
+     * @see GestionReservation#annulerReservation(Representation, List)
+     */
+    CompletableFuture<List<Place>> annulerReservation(Representation representation, List<Place> places);
+
+    /**
+     * @see GestionReservation#reserverPanier(Panier)
+     */
+    CompletableFuture<List<Place>> reserverPanier(Panier panier);
+
+    /**
+     * Termine la session aprs les oprations dj demandes. Les oprations
+     * demandes ensuite chouent.
+     *
+     * @see GestionReservation#close()
+     */
+    CompletableFuture<Void> fermer();
+}
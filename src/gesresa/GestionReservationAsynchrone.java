@@ -0,0 +1,197 @@
+package gesresa;
+
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Adaptation d'une session synchrone  l'interface asynchrone. Les appels
+ * sont chans : un appel n'est confi  l'excuteur qu' la fin du prcdent,
+ * si bien qu'aucun thread n'est bloqu par une session qui attend son tour.
+ *
+ * @author Aurel
+ *
+ */
+public class GestionReservationAsynchrone implements GestionReservationAsync {
+
+    private final GestionReservation session;
+    private final ExecuteurReservation executeur;
+    private CompletableFuture<?> precedent = CompletableFuture.completedFuture(null);
+    private boolean ferme;
+
+    /**
+     * @param session
+     *            session synchrone  adapter, qui ne doit plus tre utilise
+     *            directement
+     * @param executeur
+     *            excuteur des appels bloquants
+     */
+    public GestionReservationAsynchrone(GestionReservation session, ExecuteurReservation executeur) {
+        this.session = session;
+        this.executeur = executeur;
+    }
+
+    @Override
+    public CompletableFuture<List<Representation>> listerRepresentations(final String spectacle, final Date de,
+            final Date a) {
+        return enchainer(new ExecuteurReservation.Appel<List<Representation>>() {
+            @Override
+            public List<Representation> executer() throws SQLException {
+                return session.listerRepresentations(spectacle, de, a);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<Tarif, Integer>> listerDisponibilites(final Representation representation) {
+        return enchainer(new ExecuteurReservation.Appel<Map<Tarif, Integer>>() {
+            @Override
+            public Map<Tarif, Integer> executer() throws SQLException {
+                return session.listerDisponibilites(representation);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Place>> listerPlaces(final Representation representation, final boolean stable) {
+        return enchainer(new ExecuteurReservation.Appel<List<Place>>() {
+            @Override
+            public List<Place> executer() throws SQLException {
+                return session.listerPlaces(representation, stable);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<ChangementsPlaces> listerChangements(final Representation representation,
+            final long version) {
+        return enchainer(new ExecuteurReservation.Appel<ChangementsPlaces>() {
+            @Override
+            public ChangementsPlaces executer() throws SQLException {
+                return session.listerChangements(representation, version);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> parcourirPlaces(final Representation representation, final boolean stable,
+            final VisiteurPlaces visiteur) {
+        return enchainer(new ExecuteurReservation.Appel<Void>() {
+            @Override
+            public Void executer() throws SQLException {
+                session.parcourirPlaces(representation, stable, visiteur);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Place>> retenirPlaces(final Representation representation,
+            final List<Place> places) {
+        return enchainer(new ExecuteurReservation.Appel<List<Place>>() {
+            @Override
+            public List<Place> executer() throws SQLException {
+                return session.retenirPlaces(representation, places);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Place>> reserverPlaces(final Representation representation, final int nombre,
+            final Tarif tarif) {
+        return enchainer(new ExecuteurReservation.Appel<List<Place>>() {
+            @Override
+            public List<Place> executer() throws SQLException {
+                return session.reserverPlaces(representation, nombre, tarif);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Place>> reserverPlaces(final Representation representation,
+            final List<Place> places) {
+        return enchainer(new ExecuteurReservation.Appel<List<Place>>() {
+            @Override
+            public List<Place> executer() throws SQLException {
+                return session.reserverPlaces(representation, places);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<ResultatReservation> reserverPlaces(final Representation representation,
+            final List<Place> places, final Substitution substitution) {
+        return enchainer(new ExecuteurReservation.Appel<ResultatReservation>() {
+            @Override
+            public ResultatReservation executer() throws SQLException {
+                return session.reserverPlaces(representation, places, substitution);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Place>> annulerReservation(final Representation representation,
+            final List<Place> places) {
+        return enchainer(new ExecuteurReservation.Appel<List<Place>>() {
+            @Override
+            public List<Place> executer() throws SQLException {
+                return session.annulerReservation(representation, places);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<Place>> reserverPanier(final Panier panier) {
+        return enchainer(new ExecuteurReservation.Appel<List<Place>>() {
+            @Override
+            public List<Place> executer() throws SQLException {
+                return session.reserverPanier(panier);
+            }
+        });
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> fermer() {
+        // enchane et marque ferme sous le mme verrou : aucun appel ne peut s'intercaler aprs la fermeture
+        CompletableFuture<Void> f = enchainer(new ExecuteurReservation.Appel<Void>() {
+            @Override
+            public Void executer() throws SQLException {
+                session.close();
+                return null;
+            }
+        });
+        ferme = true;
+        return f;
+    }
+
+    /**
+     * Confie un appel  l'excuteur aprs la fin, russie ou non, de l'appel
+     * prcdent de la session.
+     */
+    private synchronized <T> CompletableFuture<T> enchainer(final ExecuteurReservation.Appel<T> appel) {
+        if (ferme) {
+            CompletableFuture<T> f = new CompletableFuture<T>();
+            f.completeExceptionally(new IllegalStateException("session ferme"));
+            return f;
+        }
+        CompletableFuture<T> f = precedent.handle(new BiFunction<Object, Throwable, Void>() {
+            @Override
+            public Void apply(Object resultat, Throwable erreur) {
+                return null; // l'chec de l'appel prcdent ne concerne que son appelant
+            }
+        }).thenCompose(new Function<Void, CompletionStage<T>>() {
+            @Override
+            public CompletionStage<T> apply(Void rien) {
+                return executeur.soumettre(appel);
+            }
+        });
+        precedent = f;
+        return f;
+    }
+
+}
@@ -1,33 +1,163 @@
 package gesresa;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.BatchUpdateException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Implmentation simple de la gestion de rservation de places de spectacle.
+ * <p>
+ * Un objet GestionReservationImpl est une session : il agit pour le compte
+ * d'un client, mais n'emprunte une connexion au pool de la
+ * {@link BaseReservation} que le temps de chaque appel. Les requtes
+ * prpares sont partages par toutes les sessions utilisant la mme
+ * connexion physique.
  *
  * @author Busca, Aurel
  *
  */
 public class GestionReservationImpl implements GestionReservation {
 
-    private String client;
-    private Connection connection;
-    private PreparedStatement getRepresentation;
-    private PreparedStatement getPlace;
-    private PreparedStatement getAvailablePlace;
-    private PreparedStatement getAvailablePlaceByTarif;
-    private PreparedStatement addBooking;
-    private PreparedStatement delBooking;
-    private PreparedStatement getRID;
-    List<Place> tmp;
+    /** nombre de tentatives d'une rservation par nombre de places face aux conflits */
+    private static final int ESSAIS = 5;
+    /** places libres inconnues : la reprsentation n'a pas de compteur dans la base */
+    private static final int LIBRES_INCONNU = -1;
+
+    static final String SQL_RESERVER = "insert into RESERVATIONS (SID, RNAME, RID, CNAME) values(?,?,?,?)";
+    // compteurs de places libres : ligne du compteur et carts pas encore reports (voir contraintes.sql)
+    private static final String SQL_LIBRES = "select (select sum(LIBRES) from DISPONIBILITES where RID = ?) "
+            + "+ (select nvl(sum(ECART), 0) from DISPONIBILITES_ECARTS where RID = ?) from dual";
+    private static final String SQL_LIBRES_TARIF = "select (select sum(LIBRES) from DISPONIBILITES "
+            + "where RID = ? and BNAME = ?) + (select nvl(sum(ECART), 0) from DISPONIBILITES_ECARTS "
+            + "where RID = ? and BNAME = ?) from dual";
+    private static final String SQL_DISPONIBILITES = "select d.BNAME, c.PRICE, d.LIBRES + (select nvl(sum(e.ECART), 0) "
+            + "from DISPONIBILITES_ECARTS e where e.RID = d.RID and e.BNAME = d.BNAME) from DISPONIBILITES d "
+            + "join REPRESENTATIONS r on r.RID = d.RID "
+            + "join COST c on c.RNAME = r.RNAME and c.SNAME = r.SNAME and c.BNAME = d.BNAME "
+            + "where d.RID = ? order by d.BNAME";
+    static final String SQL_RETENIR = "insert into RESERVATIONS (SID, RNAME, RID, CNAME, EXPIRY) values(?,?,?,?,?)";
+    private static final String SQL_CONFIRMER = "update RESERVATIONS set EXPIRY = null "
+            + "where SID = ? and RNAME = ? and RID = ? and CNAME = ? and EXPIRY is not null";
+    private static final String SQL_CONFIRMEE = "select 1 from RESERVATIONS "
+            + "where SID = ? and RNAME = ? and RID = ? and CNAME = ? and EXPIRY is null";
+    private static final String SQL_DETENUES = "select SID from RESERVATIONS where RID = ? and CNAME = ? for update";
+    private static final String SQL_ANNULER = "delete from RESERVATIONS "
+            + "where SID = ? and RNAME = ? and RID = ? and CNAME = ?";
+    private static final String SQL_LEVER = "delete from RESERVATIONS "
+            + "where SID = ? and RNAME = ? and RID = ? and CNAME = ? and EXPIRY is not null";
+
+    /**
+     * Options poses par la session sur une reprsentation.
+     */
+    private static class Options {
+        final String salle;
+        final Map<Integer, Long> echeances = new HashMap<Integer, Long>(); // SID -> chance
+
+        Options(String salle) {
+            this.salle = salle;
+        }
+    }
+
+    /**
+     * Places d'un panier sur une reprsentation, au cours d'une tentative de
+     * rservation.
+     */
+    private static class Lot {
+        final int rid;
+        final String salle;
+        final Representation representation;
+        PlanSalle plan;
+        int[] prises; // places marques rserves dans le plan par cette tentative
+        int np;
+        int[] confirmees; // options du client  confirmer
+        int nc;
+        int[] inserees; // places  insrer, par numro croissant
+        int ni;
+        int[] levees;
+
+        Lot(int rid, Representation representation) {
+            this.rid = rid;
+            this.salle = representation.getSalle();
+            this.representation = representation;
+        }
+    }
+
+    /**
+     * Places choisies perdues au cours d'une rservation avec substitution,
+     * et leurs remplaantes, marques rserves dans le plan.
+     */
+    private static class Remplacements {
+        final int[] perdues;
+        final int[] remplacantes;
+        int n;
+
+        Remplacements(int taille) {
+            this.perdues = new int[taille];
+            this.remplacantes = new int[taille];
+        }
+
+        /**
+         * Remplace les places dont l'insertion a chou : elles sont marques
+         * rserves dans le plan (un autre client les dtient) et une
+         * remplaante est prise pour chacune.
+         *
+         * @param sids
+         *            places insres, o les remplaantes prennent la place
+         *            des places perdues
+         * @return faux si une place perdue n'a pu tre remplace, ou si
+         *         l'chec n'a pu tre attribu  aucune place
+         */
+        boolean remplacer(PlanSalle plan, Substitution substitution, int[] exclues, int[] resultats, int[] sids,
+                int nombre) {
+            boolean echecs = false;
+            for (int i = 0; i < nombre; i++) {
+                // pilote s'arrtant  la premire erreur : la place suivant les succs est en chec
+                boolean echec = i < resultats.length ? resultats[i] == Statement.EXECUTE_FAILED : i == resultats.length;
+                if (!echec) continue;
+                echecs = true;
+                int[] prise = { sids[i] };
+                plan.reserver(prise, 1);
+                int k = 0;
+                while (k < n && remplacantes[k] != sids[i]) {
+                    k++;
+                }
+                if (k == n) perdues[n++] = sids[i]; // place choisie ; sinon remplaante perdue  son tour
+                int r = plan.substituer(perdues[k], substitution, exclues);
+                if (r < 0) {
+                    n--; // la place perdue, dtenue par un autre, ne doit pas tre rendue
+                    perdues[k] = perdues[n];
+                    remplacantes[k] = remplacantes[n];
+                    return false;
+                }
+                remplacantes[k] = r;
+                sids[i] = r;
+            }
+            return echecs;
+        }
+    }
+
+    private final BaseReservation base;
+    private final boolean proprietaire; // vrai si la base a t ouverte pour cette seule session
+    private final String client;
+    private final Map<Integer, Options> options; // par RID
+    private long ageLecture; // ge des donnes servies par la dernire consultation (ms)
 
     public static void init() {
         System.setProperty("jdbc.drivers", "oracle.jdbc.driver.OracleDriver");
@@ -38,6 +168,10 @@ public class GestionReservationImpl implements GestionReservation {
      * tablit une connexion  la base de donnes sous le nom d'utilisateur SQL
      * spcifi. Il agit pour le compte du client spcifi,  qui seront
      * attribues les rservations faites via cet objet.
+     * <p>
+     * La connexion n'est pas partage : pour servir de nombreux clients, il
+     * est prfrable d'ouvrir leurs sessions sur une mme
+     * {@link BaseReservation}.
      *
      * @param url
      *            url de la base de donnes  laquelle se connecter
@@ -51,295 +185,852 @@ public class GestionReservationImpl implements GestionReservation {
      *             si une erreur survient lors de la manipulation des donnes
      */
     public GestionReservationImpl(String url, String user, String password, String client) throws SQLException {
-        System.out.println("connexion de: " + client);
+        this(new BaseReservation(url, user, password, 1), client, true);
+        base.getPool().obtenir().close(); // vrifie la connexion ds la construction
+    }
 
+    /**
+     * Construit une session de rservation pour le compte d'un client, sur une
+     * base partage avec d'autres sessions.
+     *
+     * @param base
+     *            accs partag  la base de rservation
+     * @param client
+     *            nom du client effectuant les rservations.
+     */
+    public GestionReservationImpl(BaseReservation base, String client) {
+        this(base, client, false);
+    }
 
+    private GestionReservationImpl(BaseReservation base, String client, boolean proprietaire) {
+        this.base = base;
+        this.client = client;
+        this.proprietaire = proprietaire;
+        options = new HashMap<Integer, Options>();
+    }
 
-        try {
-            Class.forName("oracle.jdbc.driver.OracleDriver");
-        } catch (Exception e) {
-            e.printStackTrace();
-            return;
-        }
+    public String getClient() {
+        return client;
+    }
 
+    /**
+     * @return l'ge, en millisecondes, des donnes servies par la dernire
+     *         consultation : temps coul depuis leur lecture dans la base
+     *         (ou la rplique de lecture), 0 si elles viennent d'tre lues
+     */
+    public long getAgeLecture() {
+        return ageLecture;
+    }
 
-        connection = DriverManager.getConnection(url, user, password);
-        connection.setAutoCommit(false);
-        this.client = client;
-        tmp = new LinkedList<Place>();
+    /**
+     * @return vrai si la session a pos des options non encore confirmes ni
+     *         leves
+     */
+    boolean retientPlaces() {
+        reprendreOffres();
+        return !options.isEmpty();
+    }
 
+    /**
+     * Reprend parmi les options de la session les places retenues pour le
+     * client par la liste d'attente.
+     */
+    private void reprendreOffres() {
+        ListeAttente attente = base.listeAttente();
+        List<ListeAttente.Offre> offres = attente == null ? null : attente.reprendre(client);
+        if (offres == null) return;
+        for (ListeAttente.Offre o : offres) {
+            Options retenues = options.get(o.rid);
+            if (retenues == null) {
+                retenues = new Options(o.salle);
+                options.put(o.rid, retenues);
+            }
+            for (int sid : o.sids) {
+                retenues.echeances.put(sid, o.echeance);
+            }
+        }
     }
 
     @Override
     public List<Representation> listerRepresentations(String spectacle, Date de, Date a) throws SQLException {
 
-        if (getRepresentation == null) {
-            getRepresentation = connection
-                    .prepareStatement("select * from REPRESENTATIONS natural join "
-                            + "BOOKINGCLASSES natural join COST "
-                            + "where SNAME = ? and STARTDATE >= ? and STARTDATE <= ? order by RID");
+        // servi par le catalogue en mmoire ; le spectacle n'est lu qu'au chargement ou au rafrachissement
+        List<Representation> l = base.getCatalogue().chercher(null, spectacle, de, a);
+        if (l != null) {
+            ageLecture = base.getCatalogue().age(spectacle);
+            return l;
         }
-        getRepresentation.setString(1, spectacle);
-        getRepresentation.setDate(2, new java.sql.Date(de.getTime()));
-        getRepresentation.setDate(3, new java.sql.Date(a.getTime()));
-
-        ResultSet rs = getRepresentation.executeQuery();
-        List<Representation> l = new LinkedList<Representation>();
-        Representation tmp = null;
-        int rid = -1;
-
-        while (rs.next()) {
-            if (rid == -1) { // premire itration uniquement
-                List<Tarif> tarif = new LinkedList<Tarif>();
-                tarif.add(new Tarif(rs.getString("BNAME"), rs.getFloat("PRICE")));
-                tmp = new Representation(rs.getString("SNAME"), rs.getString("RNAME"), rs.getDate("STARTDATE"), tarif);
-                rid = rs.getInt("RID");
-            } else {
-                if (rs.getInt("RID") == rid) {// si rid actuel gal au
-                                              // prcdent j'ajoute le
-                                              // nouveau tarif  la
-                                              // reprsentation
-                    List<Tarif> tarif = tmp.getTarifs();
-                    tarif.add(new Tarif(rs.getString("BNAME"), rs.getFloat("PRICE")));
-                    tmp = new Representation(tmp.getSpectacle(), tmp.getSalle(), tmp.getDate(), tarif);
-                } else { // sinon on a une nouvelle reprsentation
-
-                    if (tmp != null) {
-                        l.add(tmp);
-                        tmp = null;
-                    }
-
-                    List<Tarif> tarif = new LinkedList<Tarif>();
-                    tarif.add(new Tarif(rs.getString("BNAME"), rs.getFloat("PRICE")));
-                    tmp = new Representation(rs.getString("SNAME"), rs.getString("RNAME"), rs.getDate("STARTDATE"),
-                            tarif);
-                    rid = rs.getInt("RID");
-                }
-            }
+        try (ConnexionPoolee c = base.getPoolLecture().obtenir()) {
+            l = base.getCatalogue().chercher(c, spectacle, de, a);
+        }
+        ageLecture = 0;
+        for (Representation r : l) {
+            base.getRepresentations().enregistrer(r); // les clients rutilisent ces triplets
         }
-        if (tmp != null) l.add(tmp);
         return l;
     }
 
     @Override
-    public List<Place> listerPlaces(Representation representation, boolean stable) throws SQLException {
+    public Map<Tarif, Integer> listerDisponibilites(Representation representation) throws SQLException {
 
-        connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        if (representation == null) return null;
 
+        // servi par le plan s'il est en mmoire et  jour, sinon par les compteurs de la base
+        int rid = base.getRepresentations().chercher(representation);
+        if (rid != Representation.RID_INCONNU) {
+            PlanSalle plan = base.getPlans().planFrais(rid);
+            if (plan != null) {
+                ageLecture = System.currentTimeMillis() - plan.getReconciliation();
+                return plan.libresParTarif();
+            }
+        }
+        ageLecture = 0;
+        try (ConnexionPoolee c = base.getPoolLecture().obtenir()) {
+            PreparedStatement ps = c.preparer(SQL_DISPONIBILITES);
+            ps.setInt(1, base.getRepresentations().resoudre(c, representation));
+            Map<Tarif, Integer> m = new LinkedHashMap<Tarif, Integer>();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    m.put(new Tarif(rs.getString(1), rs.getFloat(2)), rs.getInt(3));
+                }
+            }
+            return m;
+        }
+    }
 
-        if (getPlace == null) {
-            getPlace = connection
-                    .prepareStatement("select distinct SEATS.SID, BNAME, PRICE, CNAME from REPRESENTATIONS "
-                            + "natural join BOOKINGCLASSES natural join COST natural join SEATS "
-                            + "left outer join RESERVATIONS "
-                            + "T on (SEATS.SID = T.SID "
-                            + "and REPRESENTATIONS.RID = T.RID and T.RNAME = RNAME) "
-                            + "where SNAME = ? and "
-                            + "REPRESENTATIONS.STARTDATE = ? and RNAME = ? order by SEATS.SID");
+    /**
+     * @return le nombre de places libres d'une reprsentation  un tarif
+     *         (tous tarifs si <code>null</code>) d'aprs les compteurs de la
+     *         base, {@link #LIBRES_INCONNU} si la base n'en tient pas pour
+     *         cette reprsentation (base antrieure aux compteurs)
+     */
+    private static int libres(ConnexionPoolee c, int rid, Tarif tarif) throws SQLException {
+        PreparedStatement ps = c.preparer(tarif == null ? SQL_LIBRES : SQL_LIBRES_TARIF);
+        int k = 1;
+        for (int i = 0; i < 2; i++) { // compteur puis carts
+            ps.setInt(k++, rid);
+            if (tarif != null) ps.setString(k++, tarif.getLibelle());
         }
-        getPlace.setString(1, representation.getSpectacle());
-        getPlace.setDate(2, new java.sql.Date(representation.getDate().getTime()));
-        getPlace.setString(3, representation.getSalle());
-
-        ResultSet rs = getPlace.executeQuery();
-
-        List<Place> l = new LinkedList<Place>();
-
-        while (rs.next()) {
-            rs.getString("CNAME"); // jointure externe avec rservation
-                                   // si le client existe : dj rserv
-                                   // si client = NULL : place libre
-            if (rs.wasNull())
-                l.add(new Place(representation, rs.getInt("SID"), new Tarif(rs.getString("BNAME"), rs.getFloat("PRICE")),
-                        true));
-            else
-                l.add(new Place(representation, rs.getInt("SID"), new Tarif(rs.getString("BNAME"), rs.getFloat("PRICE")),
-                        false));
+        try (ResultSet rs = ps.executeQuery()) {
+            if (!rs.next()) return LIBRES_INCONNU;
+            int n = rs.getInt(1);
+            return rs.wasNull() ? LIBRES_INCONNU : n; // somme sans ligne de compteur
         }
-        if(stable) return listerPlacesStable(representation, l);
-        return l;
     }
 
-    public List<Place> listerPlacesStable(Representation representation, List<Place> l) throws SQLException {
+    @Override
+    public List<Place> listerPlaces(final Representation representation, boolean stable) throws SQLException {
 
-        LinkedList<Place> available = new LinkedList<Place>();
-        for (Place p : l) {
-            if (p.isEstLibre()) available.add(p); // limine les places non libres
-        }
-        tmp = new LinkedList<Place>(); // reset de tmp
-        tmp = reserverPlaces(representation, available); // rserve temporairement les places libres
-        if (tmp == null || tmp.isEmpty())  tmp = new LinkedList<Place>();
+        final List<Place> l = new ArrayList<Place>();
+        parcourirPlaces(representation, stable, new VisiteurPlaces() {
+            @Override
+            public boolean visiter(int numero, Tarif tarif, boolean libre) {
+                l.add(new Place(representation, numero, tarif, libre));
+                return true;
+            }
+        });
         return l;
     }
 
-    public List<Place> cancelReservationStableExcept(List<Place> reservation) throws SQLException {
-            if (delBooking == null) {
-                delBooking = connection.prepareStatement("delete from RESERVATIONS where SID = ? and RNAME = ? and RID = ? and CNAME =?");
+    @Override
+    public void parcourirPlaces(Representation representation, boolean stable, VisiteurPlaces visiteur)
+            throws SQLException {
+
+        // servi par le plan en mmoire ; la base n'est lue qu'au chargement ou  la rconciliation
+        PlanSalle plan = plan(representation);
+        if (stable) reprendreOffres();
+        int[] retenues = null;
+        int n = 0;
+        Options o = stable ? options.get(plan.getRid()) : null;
+        if (o != null) { // les places retenues par le client lui restent disponibles
+            long maintenant = System.currentTimeMillis();
+            retenues = new int[o.echeances.size()];
+            for (Map.Entry<Integer, Long> e : o.echeances.entrySet()) {
+                if (e.getValue() > maintenant) retenues[n++] = e.getKey();
             }
-            HashSet<Integer> numeros = new HashSet<Integer>();
-            for (Place r : reservation) {
-                numeros.add(r.getNumero());
+        }
+        plan.parcourir(visiteur, retenues, n);
+    }
+
+    @Override
+    public ChangementsPlaces listerChangements(Representation representation, long version) throws SQLException {
+
+        // servi par le journal des changements du plan ; la liste complte s'il ne remonte pas assez loin
+        return plan(representation).changements(representation, version);
+    }
+
+    /**
+     * Retourne le plan de salle d'une reprsentation, pour une consultation.
+     * Une connexion de lecture n'est emprunte que si le RID ou le plan
+     * doivent tre lus dans la base.
+     */
+    private PlanSalle plan(Representation representation) throws SQLException {
+        int rid = base.getRepresentations().chercher(representation);
+        PlanSalle plan = rid == Representation.RID_INCONNU ? null : base.getPlans().planFrais(rid);
+        if (plan == null) {
+            try (ConnexionPoolee c = base.getPoolLecture().obtenir()) {
+                plan = base.getPlans().plan(c, base.getRepresentations().resoudre(c, representation));
             }
-            for (Place p : tmp) {
-                    if(!numeros.contains(p.getNumero())) { // on supprime la rservation temporaire si elle n'est pas officialise
-                        delBooking.setInt(1, p.getNumero());
-                        delBooking.setString(2, p.getRepresentation().getSalle());
-
-                        /**
-                         * la requte suivante est lie au fait que nous utilisons un RID
-                         * pour reprsenter l'identifiant d'une preprsentation. Celui-ci
-                         * n'est pas prsent dans le modle propos (la classe
-                         * Representation). Cependant nous considrons qu'un spectacle peut
-                         * avoir plusieurs reprsentations  la mme date. En changeant le
-                         * modle java propos on liminerait facilement cette requte peu
-                         * intressante. Amliorant ainsi le performances.
-                         */
-                         if (getRID == null) {
-                             getRID = connection.prepareStatement("select RID from REPRESENTATIONS where "
-                                     +"SNAME = ? and STARTDATE = ? and RNAME = ?");
-                         }
-
-                         getRID.setString(1, p.getRepresentation().getSpectacle());
-                         getRID.setDate(2, new java.sql.Date(p.getRepresentation().getDate().getTime()));
-                         getRID.setString(3, p.getRepresentation().getSalle());
-
-                        ResultSet rs = getRID.executeQuery();
-                        rs.next();
-                        delBooking.setInt(3, rs.getInt("RID"));
-
-                        /** fin de l'utilisation de la requte **/
-
-                        delBooking.setString(4, client);
-                        delBooking.executeQuery();
+        }
+        ageLecture = System.currentTimeMillis() - plan.getReconciliation();
+        return plan;
+    }
+
+    @Override
+    public List<Place> retenirPlaces(Representation representation, List<Place> places) throws SQLException {
+
+        if (representation == null || places == null) return null;
+
+        base.nettoyerOptions();
+        reprendreOffres();
+        long echeance = System.currentTimeMillis() + base.getDureeOption();
+        try (ConnexionPoolee c = base.getPool().obtenir()) {
+            int rid = base.getRepresentations().resoudre(c, representation);
+            Options retenues = options.get(rid);
+            PreparedStatement retenir = c.preparer(SQL_RETENIR);
+            List<Place> l = new LinkedList<Place>();
+            int[] sids = new int[places.size()];
+            int n = 0;
+            try {
+                for (Place p : places) {
+                    l.add(new Place(representation, p.getNumero(), p.getTarif(), false));
+                    if (retenues != null && retenues.echeances.containsKey(p.getNumero())) continue; // dj retenue
+                    retenir.setInt(1, p.getNumero());
+                    retenir.setString(2, representation.getSalle());
+                    retenir.setInt(3, rid);
+                    retenir.setString(4, client);
+                    retenir.setTimestamp(5, new Timestamp(echeance));
+                    retenir.addBatch();
+                    sids[n++] = p.getNumero();
+                }
+                if (n > 0) {
+                    try {
+                        retenir.executeBatch();
+                    } catch (BatchUpdateException e) { // une place n'est plus libre
+                        if (!representation.isRidConnu()) base.getRepresentations().invalider(representation);
+                        base.getPlans().marquerPerime(rid);
+                        retenir.clearBatch();
+                        c.rollback();
+                        return null;
                     }
+                }
+                c.commit();
+            } catch (SQLException e) {
+                retenir.clearBatch();
+                c.rollback();
+                throw e;
             }
-            connection.commit();
-            List<Place> l = new LinkedList<Place>();
-            for (Place p : reservation) {
-               l.add(new Place(p.getRepresentation(),p.getNumero(),p.getTarif(),false));
+            base.getPlans().reserver(rid, sids, n); // retenue, la place n'est plus libre pour les autres
+            if (retenues == null) {
+                retenues = new Options(representation.getSalle());
+                options.put(rid, retenues);
+            }
+            for (int i = 0; i < n; i++) {
+                retenues.echeances.put(sids[i], echeance);
             }
             return l;
+        }
     }
 
-
     @Override
     public List<Place> reserverPlaces(Representation representation, int nombre, Tarif tarif) throws SQLException {
 
         if (representation == null || nombre <= 0) return null;
 
-        try {
-            ResultSet rs;
-            if (tarif == null) // indifrent
-            {
-                if (getAvailablePlace == null) {
-                    getAvailablePlace = connection.prepareStatement("select SID, RID, RNAME "
-                            + "from REPRESENTATIONS "
-                            + "natural join BOOKINGCLASSES natural join COST natural join SEATS "
-                            + "where SNAME = ? and STARTDATE = ? and RNAME =  ? "
-                            + "and SID not in ( select SID from RESERVATIONS "
-                            + "where RESERVATIONS.RNAME = RNAME and RESERVATIONS.RID = RID) order by SID");
+        base.nettoyerOptions();
+        reprendreOffres();
+        try (ConnexionPoolee c = base.getPool().obtenir()) {
+            int rid = base.getRepresentations().resoudre(c, representation);
+            // chec immdiat, sans lire les places, si les compteurs n'en annoncent pas assez ; le compteur
+            // de la base n'est lu que si le plan n'est pas  jour ou n'a pas assez de places, et ignor s'il
+            // n'existe pas
+            PlanSalle frais = base.getPlans().planFrais(rid);
+            if (frais == null || frais.libres(tarif) < nombre) {
+                int libres = libres(c, rid, tarif);
+                if (libres != LIBRES_INCONNU && libres < nombre) return null;
+            }
+            int[] sids = new int[nombre];
+            for (int essai = 0; essai < ESSAIS; essai++) {
+                PlanSalle plan = base.getPlans().plan(c, rid);
+                // meilleur bloc  partir d'un dpart alatoire : les acheteurs simultans visent des blocs diffrents
+                int n = plan.prendre(tarif, nombre, ThreadLocalRandom.current().nextInt(Math.max(plan.taille(), 1)), sids);
+                if (n == 0 && essai == 0) { // le plan peut ignorer des annulations rcentes
+                    plan = base.getPlans().recharger(c, rid);
+                    n = plan.prendre(tarif, nombre, ThreadLocalRandom.current().nextInt(Math.max(plan.taille(), 1)), sids);
                 }
-                getAvailablePlace.setString(1, representation.getSpectacle());
-                getAvailablePlace.setDate(2, new java.sql.Date(representation.getDate().getTime()));
-                getAvailablePlace.setString(3, representation.getSalle());
-                rs = getAvailablePlace.executeQuery();
-
-            } else { // tarif prcis
-
-                if (getAvailablePlaceByTarif == null) {
-                    getAvailablePlaceByTarif = connection.prepareStatement("select SID, RID, RNAME "
-                            + "from REPRESENTATIONS "
-                            + "natural join BOOKINGCLASSES natural join COST natural join SEATS "
-                            + "where SNAME = ? and STARTDATE = ? and RNAME =  ? "
-                            + "and BNAME = ? and PRICE = ? and SID not in ( select SID "
-                            + "from RESERVATIONS where RESERVATIONS.RNAME = RNAME "
-                            + "and RESERVATIONS.RID = RID) order by SID");
+                if (n == 0) return null; // pas assez de places disponibles pour la demande
+
+                PreparedStatement addBooking = c.preparer(SQL_RESERVER);
+                int[] levees;
+                try {
+                    for (int i = 0; i < n; i++) {
+                        parametrer(addBooking, sids[i], representation.getSalle(), rid);
+                        addBooking.addBatch();
+                    }
+                    try {
+                        addBooking.executeBatch(); // les insertions sont envoyes en un seul lot
+                    } catch (BatchUpdateException e) { // place prise par un autre processus
+                        annuler(c);
+                        conflit(plan, sids, n, e.getUpdateCounts());
+                        continue; // nouvel essai sur d'autres places
+                    }
+                    levees = leverOptions(c, rid, null);
+                    // tout s'est bien pass : on valide la transaction
+                    c.commit();
+                } catch (SQLException e) {
+                    annuler(c);
+                    plan.liberer(sids, n);
+                    throw e;
                 }
-                getAvailablePlaceByTarif.setString(1, representation.getSpectacle());
-                getAvailablePlaceByTarif.setDate(2, new java.sql.Date(representation.getDate().getTime()));
-                getAvailablePlaceByTarif.setString(3, representation.getSalle());
-                getAvailablePlaceByTarif.setString(4, tarif.getLibelle());
-                getAvailablePlaceByTarif.setFloat(5, tarif.getPrix());
-                rs = getAvailablePlaceByTarif.executeQuery();
+                plan.reserver(sids, n); // places confirmes, mme si une rconciliation les a effaces
+                optionsLevees(rid, levees);
+                List<Place> l = new LinkedList<Place>();
+                for (int i = 0; i < n; i++) {
+                    l.add(new Place(representation, sids[i], plan.tarif(plan.indice(sids[i])), false));
+                }
+                return l;
             }
+            return null; // conflits rpts : la salle est dispute
+        }
+    }
 
-            if (addBooking == null) {
-                addBooking = connection.prepareStatement("insert into RESERVATIONS values(?,?,?,?)");
+    /**
+     * Traite l'chec d'un lot d'insertions : les places en chec restent
+     * marques rserves dans le plan (un autre processus les dtient) mais
+     * ne sont plus tenues pour prises par la session, les autres sont
+     * rendues.
+     */
+    private static void conflit(PlanSalle plan, int[] sids, int n, int[] resultats) {
+        int[] rendues = new int[n];
+        int[] detenues = new int[n];
+        int k = 0;
+        int d = 0;
+        for (int i = 0; i < n; i++) {
+            // pilote s'arrtant  la premire erreur : la place suivant les succs est en chec
+            boolean echec = i < resultats.length ? resultats[i] == Statement.EXECUTE_FAILED : i == resultats.length;
+            if (echec) detenues[d++] = sids[i];
+            else rendues[k++] = sids[i];
+        }
+        plan.reserver(detenues, d);
+        plan.liberer(rendues, k);
+    }
+
+    @Override
+    public List<Place> reserverPlaces(Representation representation, List<Place> places) throws SQLException {
+        base.nettoyerOptions();
+        reprendreOffres();
+        try (ConnexionPoolee c = base.getPool().obtenir()) {
+            try {
+                int rid = base.getRepresentations().resoudre(c, representation); // une seule fois par appel
+                Options retenues = options.get(rid);
+                long maintenant = System.currentTimeMillis();
+
+                // options encore valides : confirmes ; autres places : insres
+                PreparedStatement confirmer = c.preparer(SQL_CONFIRMER);
+                PreparedStatement addBooking = c.preparer(SQL_RESERVER);
+                List<Place> l = new LinkedList<Place>();
+                Set<Integer> conservees = new HashSet<Integer>();
+                int[] confirmees = new int[places.size()];
+                int[] sids = new int[places.size()];
+                int nc = 0;
+                int n = 0;
+                for (Place p : places) {
+                    Long echeance = retenues == null ? null : retenues.echeances.get(p.getNumero());
+                    if (echeance != null && echeance > maintenant) {
+                        parametrer(confirmer, p.getNumero(), representation.getSalle(), rid);
+                        confirmer.addBatch();
+                        confirmees[nc++] = p.getNumero();
+                    } else {
+                        sids[n++] = p.getNumero();
+                    }
+                    l.add(new Place(representation, p.getNumero(), p.getTarif(), false));
+                }
+                if (nc > 0) {
+                    boolean[] ok = confirmees(c, confirmer.executeBatch(), confirmees, nc, representation.getSalle(),
+                            rid);
+                    for (int i = 0; i < nc; i++) {
+                        if (!ok[i]) sids[n++] = confirmees[i]; // option leve entre-temps :  rserver
+                        else conservees.add(confirmees[i]);
+                    }
+                }
+                // options expires ou non choisies : leves avant l'insertion
+                int[] levees = leverOptions(c, rid, conservees);
+                for (int i = 0; i < n; i++) {
+                    parametrer(addBooking, sids[i], representation.getSalle(), rid);
+                    addBooking.addBatch();
+                }
+                try {
+                    if (n > 0) addBooking.executeBatch(); // un seul aller-retour pour toutes les places
+                } catch (BatchUpdateException e) { // une place n'a pas pu etre rserve
+                    base.getMesures().insertionRefusee();
+                    // le RID en cache peut dsigner une reprsentation supprime entre-temps
+                    if (!representation.isRidConnu()) base.getRepresentations().invalider(representation);
+                    base.getPlans().marquerPerime(rid);
+                    annuler(c);
+                    return null;
+                }
+                // tout s'est bien pass : on valide la transaction
+                c.commit();
+                optionsLevees(rid, levees); // avant : une option expire peut avoir t rinsre
+                base.getPlans().reserver(rid, sids, n);
+                return l; /* les places ne sont plus libres */
+            } catch (SQLException e) {
+                annuler(c);
+                throw e;
             }
+        }
+    }
+
+    @Override
+    public ResultatReservation reserverPlaces(Representation representation, List<Place> places,
+            Substitution substitution) throws SQLException {
 
+        if (substitution == null || substitution == Substitution.AUCUNE) {
+            List<Place> l = reserverPlaces(representation, places);
+            return l == null ? null : new ResultatReservation(l, new ArrayList<Place>(0), new ArrayList<Place>(0));
+        }
+        if (representation == null || places == null) return null;
+
+        base.nettoyerOptions();
+        reprendreOffres();
+        try (ConnexionPoolee c = base.getPool().obtenir()) {
+            int rid = base.getRepresentations().resoudre(c, representation);
+            PlanSalle plan = base.getPlans().plan(c, rid);
+            Options retenues = options.get(rid);
+            long maintenant = System.currentTimeMillis();
+            Map<Integer, Place> demandees = new LinkedHashMap<Integer, Place>(); // ordre de la demande, sans doublon
+            for (Place p : places) {
+                demandees.put(p.getNumero(), p);
+            }
+            int[] exclues = new int[demandees.size()]; // les remplaantes sont prises hors des places choisies
+            int[] sids = new int[demandees.size()];
+            int n = 0;
+            Remplacements remplacements = new Remplacements(demandees.size());
+            try {
+                // options encore valides : confirmes ; autres places : insres, comme reserverPlaces
+                PreparedStatement confirmer = c.preparer(SQL_CONFIRMER);
+                PreparedStatement addBooking = c.preparer(SQL_RESERVER);
+                Set<Integer> conservees = new HashSet<Integer>();
+                int[] confirmees = new int[demandees.size()];
+                int nc = 0;
+                int k = 0;
+                for (Integer sid : demandees.keySet()) {
+                    exclues[k++] = sid;
+                    Long echeance = retenues == null ? null : retenues.echeances.get(sid);
+                    if (echeance != null && echeance > maintenant) {
+                        parametrer(confirmer, sid, representation.getSalle(), rid);
+                        confirmer.addBatch();
+                        confirmees[nc++] = sid;
+                    } else {
+                        sids[n++] = sid;
+                    }
+                }
+                Arrays.sort(exclues);
+                if (nc > 0) {
+                    boolean[] ok = confirmees(c, confirmer.executeBatch(), confirmees, nc, representation.getSalle(),
+                            rid);
+                    for (int i = 0; i < nc; i++) {
+                        if (!ok[i]) sids[n++] = confirmees[i]; // option leve entre-temps :  rserver
+                        else conservees.add(confirmees[i]);
+                    }
+                }
+                int[] levees = leverOptions(c, rid, conservees);
+                // une insertion refuse est annule jusqu' ce point, puis rejoue avec les remplaantes
+                Savepoint avantInsertion = c.getConnection().setSavepoint();
+                boolean inserees = n == 0;
+                for (int essai = 0; essai < ESSAIS && !inserees; essai++) {
+                    for (int i = 0; i < n; i++) {
+                        parametrer(addBooking, sids[i], representation.getSalle(), rid);
+                        addBooking.addBatch();
+                    }
+                    try {
+                        addBooking.executeBatch();
+                        inserees = true;
+                    } catch (BatchUpdateException e) { // place prise par un autre client
+                        addBooking.clearBatch();
+                        c.getConnection().rollback(avantInsertion);
+                        if (!remplacements.remplacer(plan, substitution, exclues, e.getUpdateCounts(), sids, n)) break;
+                    }
+                }
+                if (!inserees) {
+                    annuler(c);
+                    plan.liberer(remplacements.remplacantes, remplacements.n);
+                    return null;
+                }
+                c.commit();
+                optionsLevees(rid, levees);
+            } catch (SQLException e) {
+                annuler(c);
+                plan.liberer(remplacements.remplacantes, remplacements.n);
+                throw e;
+            }
+            base.getPlans().reserver(rid, sids, n);
+
+            Map<Integer, Place> remplacantes = new HashMap<Integer, Place>();
+            List<Place> lPerdues = new ArrayList<Place>(remplacements.n);
+            List<Place> lRemplacantes = new ArrayList<Place>(remplacements.n);
+            for (int i = 0; i < remplacements.n; i++) {
+                int perdue = remplacements.perdues[i];
+                int sid = remplacements.remplacantes[i];
+                Place r = new Place(representation, sid, plan.tarif(plan.indice(sid)), false);
+                remplacantes.put(perdue, r);
+                lPerdues.add(new Place(representation, perdue, demandees.get(perdue).getTarif(), false));
+                lRemplacantes.add(r);
+            }
             List<Place> l = new LinkedList<Place>();
+            for (Place p : demandees.values()) {
+                Place r = remplacantes.get(p.getNumero());
+                l.add(r != null ? r : new Place(representation, p.getNumero(), p.getTarif(), false));
+            }
+            return new ResultatReservation(l, lPerdues, lRemplacantes);
+        }
+    }
+
+    @Override
+    public List<Place> annulerReservation(Representation representation, List<Place> places) throws SQLException {
 
-            while (nombre > 0 && rs.next()) {
-                addBooking.setInt(1, rs.getInt("SID"));
-                addBooking.setString(2, rs.getString("RNAME"));
-                addBooking.setInt(3, rs.getInt("RID"));
-                addBooking.setString(4, client);
-                addBooking.executeQuery();
-                l.add(new Place(representation, rs.getInt("SID"), tarif, false));
-                nombre--;
+        if (representation == null || places == null) return null;
+
+        reprendreOffres();
+        try (ConnexionPoolee c = base.getPool().obtenir()) {
+            int rid = base.getRepresentations().resoudre(c, representation);
+            Map<Integer, Place> demandees = new TreeMap<Integer, Place>(); // par numro, sans doublon
+            for (Place p : places) {
+                demandees.put(p.getNumero(), p);
+            }
+            int[] sids = new int[demandees.size()];
+            int n = 0;
+            try {
+                // places dtenues par le client, verrouilles : toutes celles demandes seront supprimes
+                PreparedStatement detenues = c.preparer(SQL_DETENUES);
+                detenues.setInt(1, rid);
+                detenues.setString(2, client);
+                try (ResultSet rs = detenues.executeQuery()) {
+                    while (rs.next()) {
+                        if (demandees.containsKey(rs.getInt(1))) sids[n++] = rs.getInt(1);
+                    }
+                }
+                Arrays.sort(sids, 0, n);
+                if (n > 0) {
+                    PreparedStatement annuler = c.preparer(SQL_ANNULER);
+                    for (int i = 0; i < n; i++) {
+                        parametrer(annuler, sids[i], representation.getSalle(), rid);
+                        annuler.addBatch();
+                    }
+                    annuler.executeBatch(); // un seul aller-retour pour toutes les places
+                }
+                c.commit();
+            } catch (SQLException e) {
+                annuler(c);
+                throw e;
             }
-            if (nombre > 0) { // pas assez de places disponibles pour la demande
-                connection.rollback(); // on annule les rservations
-                return null;
+            base.getPlans().liberer(rid, sids, n);
+            Options retenues = options.get(rid);
+            List<Place> l = new LinkedList<Place>();
+            for (int i = 0; i < n; i++) {
+                if (retenues != null) retenues.echeances.remove(sids[i]); // option annule
+                l.add(new Place(representation, sids[i], demandees.get(sids[i]).getTarif(), true));
             }
-            // tout s'est bien pass : on valide la transaction
-            connection.commit();
+            if (retenues != null && retenues.echeances.isEmpty()) options.remove(rid);
             return l;
-        } catch (SQLException e) {
-            connection.rollback();
-            throw e;
         }
     }
 
     @Override
-    public List<Place> reserverPlaces(Representation representation, List<Place> places) throws SQLException {
-        if(!tmp.isEmpty()) return cancelReservationStableExcept(places);
-        if (addBooking == null) {
-            addBooking = connection.prepareStatement("insert into RESERVATIONS values(?,?,?,?)");
+    public List<Place> reserverPanier(Panier panier) throws SQLException {
+
+        if (panier == null || panier.estVide()) return null;
+
+        base.nettoyerOptions();
+        reprendreOffres();
+        try (ConnexionPoolee c = base.getPool().obtenir()) {
+            // lignes regroupes par reprsentation ; les reprsentations sont traites par RID croissant
+            TreeMap<Integer, List<Panier.Ligne>> parRid = new TreeMap<Integer, List<Panier.Ligne>>();
+            for (Panier.Ligne ligne : panier.getLignes()) {
+                int rid = base.getRepresentations().resoudre(c, ligne.getRepresentation());
+                List<Panier.Ligne> lignes = parRid.get(rid);
+                if (lignes == null) {
+                    lignes = new ArrayList<Panier.Ligne>(2);
+                    parRid.put(rid, lignes);
+                }
+                lignes.add(ligne);
+            }
+            essais: for (int essai = 0; essai < ESSAIS; essai++) {
+                List<Lot> lots = new ArrayList<Lot>(parRid.size());
+                try {
+                    for (Map.Entry<Integer, List<Panier.Ligne>> e : parRid.entrySet()) {
+                        Lot lot = preparerLot(c, e.getKey(), e.getValue());
+                        if (lot == null) { // une ligne ne peut tre satisfaite
+                            rendre(lots);
+                            return null;
+                        }
+                        lots.add(lot);
+                    }
+                    // insertions par RID puis SID croissants : deux paniers concurrents verrouillent
+                    // leurs places communes dans le mme ordre et ne peuvent s'interbloquer ; les compteurs
+                    // de places libres ne sont pas verrouills (carts ajouts, voir contraintes.sql)
+                    PreparedStatement confirmer = c.preparer(SQL_CONFIRMER);
+                    PreparedStatement addBooking = c.preparer(SQL_RESERVER);
+                    for (Lot lot : lots) {
+                        Set<Integer> conservees = new HashSet<Integer>();
+                        if (lot.nc > 0) {
+                            for (int i = 0; i < lot.nc; i++) {
+                                parametrer(confirmer, lot.confirmees[i], lot.salle, lot.rid);
+                                confirmer.addBatch();
+                            }
+                            boolean[] ok = confirmees(c, confirmer.executeBatch(), lot.confirmees, lot.nc, lot.salle,
+                                    lot.rid);
+                            for (int i = 0; i < lot.nc; i++) {
+                                if (ok[i]) conservees.add(lot.confirmees[i]);
+                                else ajouterInsertion(lot, lot.confirmees[i]); // option leve entre-temps
+                            }
+                        }
+                        lot.levees = leverOptions(c, lot.rid, conservees);
+                        for (int i = 0; i < lot.ni; i++) {
+                            parametrer(addBooking, lot.inserees[i], lot.salle, lot.rid);
+                            addBooking.addBatch();
+                        }
+                        try {
+                            if (lot.ni > 0) addBooking.executeBatch(); // un lot par reprsentation
+                        } catch (BatchUpdateException e) { // place prise par un autre processus
+                            annuler(c);
+                            rendre(lots);
+                            base.getPlans().marquerPerime(lot.rid);
+                            if (!panier.contientNombres()) return null; // les places choisies ne sont plus libres
+                            continue essais; // nouvel essai sur d'autres places
+                        }
+                    }
+                    // tout le panier est insr : une seule validation
+                    c.commit();
+                } catch (SQLException e) {
+                    annuler(c);
+                    rendre(lots);
+                    throw e;
+                }
+                List<Place> l = new LinkedList<Place>();
+                for (Lot lot : lots) {
+                    optionsLevees(lot.rid, lot.levees);
+                    base.getPlans().reserver(lot.rid, lot.inserees, lot.ni);
+                    int[] sids = Arrays.copyOf(lot.inserees, lot.ni + lot.nc);
+                    System.arraycopy(lot.confirmees, 0, sids, lot.ni, lot.nc);
+                    Arrays.sort(sids);
+                    int precedent = -1;
+                    for (int sid : sids) {
+                        if (sid == precedent) continue; // option confirme puis rinsre
+                        l.add(new Place(lot.representation, sid, lot.plan.tarif(lot.plan.indice(sid)), false));
+                        precedent = sid;
+                    }
+                }
+                return l;
+            }
+            return null; // conflits rpts : les salles sont disputes
         }
-        List<Place> l = new LinkedList<Place>();
-        for (Place p : places) {
-            addBooking.setInt(1, p.getNumero());
-            addBooking.setString(2, representation.getSalle());
-
-            /**
-             * la requte suivante est lie au fait que nous utilisons un RID
-             * pour reprsenter l'identifiant d'une preprsentation. Celui-ci
-             * n'est pas prsent dans le modle propos (la classe
-             * Representation). Cependant nous considrons qu'un spectacle peut
-             * avoir plusieurs reprsentations  la mme date. En changeant le
-             * modle java propos on liminerait facilement cette requte peu
-             * intressante. Amliorant ainsi le performances.
-             */
-             if (getRID == null) {
-                 getRID = connection.prepareStatement("select RID from REPRESENTATIONS where "
-                         +"SNAME = ? and STARTDATE = ? and RNAME = ?");
-             }
-
-             getRID.setString(1, representation.getSpectacle());
-             getRID.setDate(2, new java.sql.Date(representation.getDate().getTime()));
-             getRID.setString(3, representation.getSalle());
-
-            ResultSet rs = getRID.executeQuery();
-            rs.next();
-            addBooking.setInt(3, rs.getInt("RID"));
-
-            /** fin de l'utilisation de la requte **/
-
-            addBooking.setString(4, client);
+    }
 
-            try {
-                addBooking.executeQuery();
-            } catch (SQLException e) { // une place n'a pas pu etre rserve
-                System.out.println("reservation de " + client + " n a pas pu etre reserve.");
-                connection.rollback();
-                return null;
+    /**
+     * Prpare les places d'un panier sur une reprsentation : les options
+     * encore valides du client sont  confirmer, les autres places choisies et
+     * les places attribues pour les lignes par nombre sont marques
+     * rserves dans le plan et seront insres. Une option expire du client,
+     * toujours rserve dans le plan, est leve et sa place rinsre dans la
+     * transaction, comme par {@link #reserverPlaces(Representation, List)}.
+     *
+     * @return le lot prpar, <code>null</code> si la reprsentation n'a pas
+     *         les places demandes (rien n'est alors marqu dans le plan)
+     */
+    private Lot preparerLot(ConnexionPoolee c, int rid, List<Panier.Ligne> lignes) throws SQLException {
+        Options retenues = options.get(rid);
+        long maintenant = System.currentTimeMillis();
+        TreeSet<Integer> choisies = new TreeSet<Integer>(); // sans doublon
+        int nombre = 0;
+        for (Panier.Ligne ligne : lignes) {
+            if (ligne.getPlaces() == null) {
+                nombre += ligne.getNombre();
+                continue;
+            }
+            for (Place p : ligne.getPlaces()) {
+                choisies.add(p.getNumero());
+            }
+        }
+        Lot lot = new Lot(rid, lignes.get(0).getRepresentation());
+        lot.confirmees = new int[choisies.size()];
+        lot.inserees = new int[choisies.size() + nombre];
+        int[] libres = new int[choisies.size()];
+        int[] expirees = new int[choisies.size()];
+        int nl = 0;
+        int ne = 0;
+        for (Integer sid : choisies) {
+            Long echeance = retenues == null ? null : retenues.echeances.get(sid);
+            if (echeance == null) libres[nl++] = sid;
+            else if (echeance > maintenant) lot.confirmees[lot.nc++] = sid;
+            else expirees[ne++] = sid; // leve par leverOptions avant l'insertion
+        }
+        for (int essai = 0; essai < 2; essai++) {
+            // le plan peut ignorer des annulations rcentes : un second essai le relit
+            lot.plan = essai == 0 ? base.getPlans().plan(c, rid) : base.getPlans().recharger(c, rid);
+            lot.prises = new int[nl + nombre];
+            lot.np = 0;
+            lot.ni = 0;
+            if (!lot.plan.reserverTout(libres, nl)) continue;
+            System.arraycopy(libres, 0, lot.prises, 0, nl);
+            lot.np = nl;
+            boolean servies = true;
+            for (Panier.Ligne ligne : lignes) {
+                if (ligne.getPlaces() != null) continue;
+                int[] sids = new int[ligne.getNombre()];
+                int depart = ThreadLocalRandom.current().nextInt(Math.max(lot.plan.taille(), 1));
+                if (lot.plan.prendre(ligne.getTarif(), sids.length, depart, sids) == 0) {
+                    servies = false;
+                    break;
+                }
+                System.arraycopy(sids, 0, lot.prises, lot.np, sids.length);
+                lot.np += sids.length;
+            }
+            if (!servies) {
+                lot.plan.liberer(lot.prises, lot.np);
+                continue;
+            }
+            System.arraycopy(lot.prises, 0, lot.inserees, 0, lot.np);
+            System.arraycopy(expirees, 0, lot.inserees, lot.np, ne);
+            lot.ni = lot.np + ne;
+            Arrays.sort(lot.inserees, 0, lot.ni);
+            return lot;
+        }
+        return null;
+    }
+
+    /**
+     * Ajoute  un lot une place  insrer, en gardant l'ordre des numros.
+     */
+    private static void ajouterInsertion(Lot lot, int sid) {
+        if (lot.ni == lot.inserees.length) lot.inserees = Arrays.copyOf(lot.inserees, lot.ni + 1);
+        int i = lot.ni++;
+        while (i > 0 && lot.inserees[i - 1] > sid) {
+            lot.inserees[i] = lot.inserees[i - 1];
+            i--;
+        }
+        lot.inserees[i] = sid;
+    }
+
+    /**
+     * Rend dans les plans les places marques par une tentative abandonne.
+     */
+    private static void rendre(List<Lot> lots) {
+        for (Lot lot : lots) {
+            lot.plan.liberer(lot.prises, lot.np);
+            lot.np = 0;
+        }
+    }
+
+    /**
+     * Lve, dans la transaction en cours, les options de la session sur une
+     * reprsentation, sauf celles des places  conserver.
+     *
+     * @return les numros des places libres par la leve,  reporter aprs
+     *         validation par {@link #optionsLevees(int, int[])}
+     */
+    private int[] leverOptions(ConnexionPoolee c, int rid, Set<Integer> conserver) throws SQLException {
+        Options retenues = options.get(rid);
+        if (retenues == null) return new int[0];
+        PreparedStatement lever = c.preparer(SQL_LEVER);
+        int[] sids = new int[retenues.echeances.size()];
+        int n = 0;
+        for (Integer sid : retenues.echeances.keySet()) {
+            if (conserver != null && conserver.contains(sid)) continue;
+            parametrer(lever, sid, retenues.salle, rid);
+            lever.addBatch();
+            sids[n++] = sid;
+        }
+        if (n == 0) return new int[0];
+        int[] supprimees = lever.executeBatch();
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            // une option dj expire a pu tre leve par le nettoyeur
+            if (supprimees[i] != 0) sids[k++] = sids[i];
+        }
+        return Arrays.copyOf(sids, k);
+    }
+
+    /**
+     * Interprte le rsultat d'un lot de confirmations d'options : une option
+     * leve entre-temps par le nettoyeur n'a plus de ligne  modifier. Les
+     * pilotes qui ne donnent pas le dtail par ligne
+     * (<code>SUCCESS_NO_INFO</code>) obligent  relire les options concernes.
+     *
+     * @return pour chacune des n places, vrai si son option est confirme
+     */
+    private boolean[] confirmees(ConnexionPoolee c, int[] maj, int[] sids, int n, String salle, int rid)
+            throws SQLException {
+        boolean[] ok = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (maj[i] != Statement.SUCCESS_NO_INFO) {
+                ok[i] = maj[i] > 0;
+                continue;
+            }
+            PreparedStatement relire = c.preparer(SQL_CONFIRMEE);
+            parametrer(relire, sids[i], salle, rid);
+            try (ResultSet rs = relire.executeQuery()) {
+                ok[i] = rs.next();
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Oublie les options de la session sur une reprsentation, une fois la
+     * transaction qui les a confirmes ou leves valide.
+     */
+    private void optionsLevees(int rid, int[] levees) {
+        options.remove(rid);
+        if (levees.length > 0) base.getPlans().liberer(rid, levees, levees.length);
+    }
+
+    private void parametrer(PreparedStatement ps, int sid, String salle, int rid) throws SQLException {
+        ps.setInt(1, sid);
+        ps.setString(2, salle);
+        ps.setInt(3, rid);
+        ps.setString(4, client);
+    }
+
+    /**
+     * Annule la transaction en cours. Les requtes tant partages par les
+     * sessions, aucun lot ne doit leur survivre.
+     */
+    private static void annuler(ConnexionPoolee c) throws SQLException {
+        c.preparer(SQL_RESERVER).clearBatch();
+        c.preparer(SQL_CONFIRMER).clearBatch();
+        c.preparer(SQL_LEVER).clearBatch();
+        c.preparer(SQL_ANNULER).clearBatch();
+        c.rollback();
+    }
+
+    /**
+     * Lve les options encore poses par la session, puis ferme la base si
+     * elle a t ouverte pour cette seule session.
+     */
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (!options.isEmpty()) {
+                try (ConnexionPoolee c = base.getPool().obtenir()) {
+                    Map<Integer, int[]> levees = new HashMap<Integer, int[]>();
+                    try {
+                        for (Integer rid : options.keySet()) {
+                            levees.put(rid, leverOptions(c, rid, null));
+                        }
+                        c.commit();
+                    } catch (SQLException e) {
+                        annuler(c);
+                        throw e;
+                    }
+                    for (Map.Entry<Integer, int[]> e : levees.entrySet()) {
+                        optionsLevees(e.getKey(), e.getValue());
+                    }
+                }
             }
-            l.add(new Place(representation, p.getNumero(), p.getTarif(), false));
+        } finally {
+            if (proprietaire) base.close();
         }
-        // tout s'est bien pass : on valide la transaction
-        connection.commit();
-        return l; /* les places ne sont plus libres */
     }
 
 }
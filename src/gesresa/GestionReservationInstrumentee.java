@@ -0,0 +1,236 @@
+package gesresa;
+
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session instrumente : dlgue chaque appel  une autre session et en
+ * enregistre la dure et l'issue dans des {@link MesuresReservation}, qui
+ * peuvent tre partages par toutes les sessions d'une base. Pour une session
+ * {@link GestionReservationImpl}, l'ge des donnes servies par chaque
+ * consultation est aussi enregistr.
+ * <p>
+ * Seuls les refus d'une demande valide sont compts comme conflits : un
+ * appel refus pour ses arguments (reprsentation absente, aucune place
+ * demande) ne manque pas de places.
+ *
+ * @author Aurel
+ *
+ */
+public class GestionReservationInstrumentee implements GestionReservation {
+
+    private final GestionReservation session;
+    private final MesuresReservation mesures;
+    private final GestionReservationImpl lecture; // session dont l'ge des consultations est connu, ou null
+
+    public GestionReservationInstrumentee(GestionReservation session, MesuresReservation mesures) {
+        this.session = session;
+        this.mesures = mesures;
+        this.lecture = session instanceof GestionReservationImpl ? (GestionReservationImpl) session : null;
+    }
+
+    @Override
+    public List<Representation> listerRepresentations(String spectacle, Date de, Date a) throws SQLException {
+        long debut = System.nanoTime();
+        boolean erreur = true;
+        try {
+            List<Representation> l = session.listerRepresentations(spectacle, de, a);
+            erreur = false;
+            if (lecture != null) mesures.age(MesuresReservation.REPRESENTATIONS, lecture.getAgeLecture());
+            return l;
+        } finally {
+            mesures.appel(MesuresReservation.REPRESENTATIONS, System.nanoTime() - debut, erreur);
+        }
+    }
+
+    @Override
+    public Map<Tarif, Integer> listerDisponibilites(Representation representation) throws SQLException {
+        long debut = System.nanoTime();
+        boolean erreur = true;
+        try {
+            Map<Tarif, Integer> m = session.listerDisponibilites(representation);
+            erreur = false;
+            if (lecture != null) mesures.age(MesuresReservation.DISPONIBILITES, lecture.getAgeLecture());
+            return m;
+        } finally {
+            mesures.appel(MesuresReservation.DISPONIBILITES, System.nanoTime() - debut, erreur);
+        }
+    }
+
+    @Override
+    public List<Place> listerPlaces(Representation representation, boolean stable) throws SQLException {
+        long debut = System.nanoTime();
+        boolean erreur = true;
+        try {
+            List<Place> l = session.listerPlaces(representation, stable);
+            erreur = false;
+            if (lecture != null) mesures.age(MesuresReservation.PLACES, lecture.getAgeLecture());
+            int libres = 0;
+            for (int i = 0; i < l.size(); i++) {
+                if (l.get(i).isEstLibre()) libres++;
+            }
+            mesures.places(l.size(), libres);
+            return l;
+        } finally {
+            mesures.appel(MesuresReservation.PLACES, System.nanoTime() - debut, erreur);
+        }
+    }
+
+    @Override
+    public ChangementsPlaces listerChangements(Representation representation, long version) throws SQLException {
+        long debut = System.nanoTime();
+        boolean erreur = true;
+        try {
+            ChangementsPlaces c = session.listerChangements(representation, version);
+            erreur = false;
+            if (lecture != null) mesures.age(MesuresReservation.CHANGEMENTS, lecture.getAgeLecture());
+            return c;
+        } finally {
+            mesures.appel(MesuresReservation.CHANGEMENTS, System.nanoTime() - debut, erreur);
+        }
+    }
+
+    @Override
+    public void parcourirPlaces(Representation representation, boolean stable, VisiteurPlaces visiteur)
+            throws SQLException {
+        long debut = System.nanoTime();
+        boolean erreur = true;
+        try {
+            Compteur compteur = new Compteur(visiteur);
+            session.parcourirPlaces(representation, stable, compteur);
+            erreur = false;
+            if (lecture != null) mesures.age(MesuresReservation.PLACES, lecture.getAgeLecture());
+            mesures.places(compteur.retournees, compteur.libres);
+        } finally {
+            mesures.appel(MesuresReservation.PLACES, System.nanoTime() - debut, erreur);
+        }
+    }
+
+    @Override
+    public List<Place> retenirPlaces(Representation representation, List<Place> places) throws SQLException {
+        return reservation(MesuresReservation.RETENIR, representation, places, 0, null);
+    }
+
+    @Override
+    public List<Place> reserverPlaces(Representation representation, int nombre, Tarif tarif) throws SQLException {
+        return reservation(MesuresReservation.RESERVER_NOMBRE, representation, null, nombre, tarif);
+    }
+
+    @Override
+    public List<Place> reserverPlaces(Representation representation, List<Place> places) throws SQLException {
+        return reservation(MesuresReservation.RESERVER_LISTE, representation, places, 0, null);
+    }
+
+    @Override
+    public ResultatReservation reserverPlaces(Representation representation, List<Place> places,
+            Substitution substitution) throws SQLException {
+        long debut = System.nanoTime();
+        boolean erreur = true;
+        try {
+            ResultatReservation r = session.reserverPlaces(representation, places, substitution);
+            erreur = false;
+            if (r == null) {
+                if (valide(representation, places)) mesures.conflit();
+            } else if (r.isSubstitue()) {
+                mesures.substitution(r.getPerdues().size());
+            }
+            return r;
+        } finally {
+            mesures.appel(MesuresReservation.SUBSTITUTION, System.nanoTime() - debut, erreur);
+        }
+    }
+
+    @Override
+    public List<Place> annulerReservation(Representation representation, List<Place> places) throws SQLException {
+        long debut = System.nanoTime();
+        boolean erreur = true;
+        try {
+            List<Place> l = session.annulerReservation(representation, places);
+            erreur = false;
+            return l;
+        } finally {
+            mesures.appel(MesuresReservation.ANNULER, System.nanoTime() - debut, erreur);
+        }
+    }
+
+    @Override
+    public List<Place> reserverPanier(Panier panier) throws SQLException {
+        long debut = System.nanoTime();
+        boolean erreur = true;
+        try {
+            List<Place> l = session.reserverPanier(panier);
+            erreur = false;
+            if ((l == null || l.isEmpty()) && panier != null && !panier.estVide()) mesures.conflit();
+            return l;
+        } finally {
+            mesures.appel(MesuresReservation.PANIER, System.nanoTime() - debut, erreur);
+        }
+    }
+
+    private List<Place> reservation(int methode, Representation representation, List<Place> places, int nombre,
+            Tarif tarif) throws SQLException {
+        long debut = System.nanoTime();
+        boolean erreur = true;
+        try {
+            List<Place> l;
+            switch (methode) {
+            case MesuresReservation.RETENIR:
+                l = session.retenirPlaces(representation, places);
+                break;
+            case MesuresReservation.RESERVER_NOMBRE:
+                l = session.reserverPlaces(representation, nombre, tarif);
+                break;
+            default:
+                l = session.reserverPlaces(representation, places);
+            }
+            erreur = false;
+            boolean valide = methode == MesuresReservation.RESERVER_NOMBRE ? representation != null && nombre > 0
+                    : valide(representation, places);
+            if (valide && (l == null || l.isEmpty())) mesures.conflit();
+            return l;
+        } finally {
+            mesures.appel(methode, System.nanoTime() - debut, erreur);
+        }
+    }
+
+    /**
+     * @return vrai si une demande portant sur ces places peut tre refuse
+     *         faute de places, et non pour ses arguments
+     */
+    private static boolean valide(Representation representation, List<Place> places) {
+        return representation != null && places != null && !places.isEmpty();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        session.close();
+    }
+
+    public MesuresReservation getMesures() {
+        return mesures;
+    }
+
+    /**
+     * Visiteur intercal qui compte les places prsentes au visiteur de
+     * l'appelant, jusqu' l'arrt ventuel du parcours.
+     */
+    private static final class Compteur implements VisiteurPlaces {
+        private final VisiteurPlaces visiteur;
+        int retournees;
+        int libres;
+
+        Compteur(VisiteurPlaces visiteur) {
+            this.visiteur = visiteur;
+        }
+
+        @Override
+        public boolean visiter(int numero, Tarif tarif, boolean libre) {
+            retournees++;
+            if (libre) libres++;
+            return visiteur.visiter(numero, tarif, libre);
+        }
+    }
+
+}
@@ -0,0 +1,463 @@
+package gesresa;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Session de rservation sur une {@link BaseMemoire} : mme contrat que
+ * {@link GestionReservationImpl}, sans base de donnes.
+ * <p>
+ * Une demande portant sur plusieurs places est tout ou rien : les places
+ * sont prises une  une par compare-and-set, par numro croissant, et celles
+ * dj prises sont rendues si l'une choue. Entre-temps, une consultation
+ * concurrente peut voir rserves des places finalement rendues, jamais une
+ * place attribue  deux clients.
+ * <p>
+ * Comme une session ordinaire, un objet GestionReservationMemoire n'est pas
+ * destin  tre partag entre threads ; les sessions d'une mme base
+ * peuvent travailler en parallle.
+ *
+ * @author Aurel
+ *
+ */
+public class GestionReservationMemoire implements GestionReservation {
+
+    /**
+     * Places prises au cours d'une demande, avec leur tat prcdent, pour
+     * pouvoir les rendre si la demande choue.
+     */
+    private static final class Tentative {
+        BaseMemoire.Salle[] salles = new BaseMemoire.Salle[8];
+        int[] indices = new int[8];
+        long[] avant = new long[8];
+        long[] apres = new long[8];
+        int n;
+
+        /**
+         * Prend une place si elle est libre, ou retenue par le client quand
+         * <code>option</code> est fourni.
+         *
+         * @param option
+         *            identifiant du client dont les options sont acceptes,
+         *            0 si aucune
+         * @return faux si la place n'est pas disponible
+         */
+        boolean prendre(BaseMemoire.Salle s, int i, long nouveau, long maintenant, int option) {
+            while (true) {
+                long etat = s.etats.get(i);
+                boolean optionDuClient = option != 0 && BaseMemoire.titulaire(etat) == option
+                        && BaseMemoire.echeance(etat) != 0;
+                if (!optionDuClient && !BaseMemoire.libre(etat, maintenant)) return false;
+                if (s.etats.compareAndSet(i, etat, nouveau)) {
+                    noter(s, i, etat, nouveau);
+                    return true;
+                }
+                // tat chang entre la lecture et l'criture : relu
+            }
+        }
+
+        private void noter(BaseMemoire.Salle s, int i, long etat, long nouveau) {
+            if (n == indices.length) {
+                salles = Arrays.copyOf(salles, n * 2);
+                indices = Arrays.copyOf(indices, n * 2);
+                avant = Arrays.copyOf(avant, n * 2);
+                apres = Arrays.copyOf(apres, n * 2);
+            }
+            salles[n] = s;
+            indices[n] = i;
+            avant[n] = etat;
+            apres[n] = nouveau;
+            n++;
+        }
+
+        /**
+         * Rend les places prises, dans l'ordre inverse. Une place prise par
+         * la session ne peut tre modifie que par elle : la restitution
+         * russit toujours.
+         */
+        void annuler() {
+            for (int k = n - 1; k >= 0; k--) {
+                salles[k].etats.compareAndSet(indices[k], apres[k], avant[k]);
+            }
+            n = 0;
+        }
+    }
+
+    private final BaseMemoire base;
+    private final String client;
+    private final int id;
+    private final Set<BaseMemoire.Salle> retenues; // reprsentations o la session a pos des options
+
+    public GestionReservationMemoire(BaseMemoire base, String client) {
+        this.base = base;
+        this.client = client;
+        this.id = base.client(client);
+        this.retenues = new HashSet<BaseMemoire.Salle>();
+    }
+
+    public String getClient() {
+        return client;
+    }
+
+    @Override
+    public List<Representation> listerRepresentations(String spectacle, Date de, Date a) {
+        return base.chercher(spectacle, de, a);
+    }
+
+    @Override
+    public Map<Tarif, Integer> listerDisponibilites(Representation representation) throws SQLException {
+        if (representation == null) return null;
+        BaseMemoire.Salle s = base.salle(representation);
+        int[] libres = new int[s.tableTarifs.length];
+        long maintenant = base.maintenant();
+        for (int i = 0; i < s.sids.length; i++) {
+            if (BaseMemoire.libre(s.etats.get(i), maintenant)) libres[s.tarifs[i]]++;
+        }
+        Map<Tarif, Integer> m = new LinkedHashMap<Tarif, Integer>();
+        for (int t = 0; t < libres.length; t++) {
+            m.put(s.tableTarifs[t], libres[t]);
+        }
+        return m;
+    }
+
+    @Override
+    public List<Place> listerPlaces(final Representation representation, boolean stable) throws SQLException {
+        final List<Place> l = new ArrayList<Place>();
+        parcourirPlaces(representation, stable, new VisiteurPlaces() {
+            @Override
+            public boolean visiter(int numero, Tarif tarif, boolean libre) {
+                l.add(new Place(representation, numero, tarif, libre));
+                return true;
+            }
+        });
+        return l;
+    }
+
+    /**
+     * Les options chues librant les places sans criture, aucun changement
+     * n'est dat : toutes les places sont listes.
+     */
+    @Override
+    public ChangementsPlaces listerChangements(Representation representation, long version) throws SQLException {
+        return new ChangementsPlaces(representation, ChangementsPlaces.AUCUNE_VERSION, true,
+                listerPlaces(representation, false));
+    }
+
+    @Override
+    public void parcourirPlaces(Representation representation, boolean stable, VisiteurPlaces visiteur)
+            throws SQLException {
+        BaseMemoire.Salle s = base.salle(representation);
+        long maintenant = base.maintenant();
+        for (int i = 0; i < s.sids.length; i++) {
+            long etat = s.etats.get(i);
+            // en mode stable, les places retenues par le client lui sont prsentes libres
+            boolean libre = BaseMemoire.libre(etat, maintenant)
+                    || stable && BaseMemoire.titulaire(etat) == id && BaseMemoire.echeance(etat) != 0;
+            if (!visiteur.visiter(s.sids[i], s.tarif(i), libre)) return;
+        }
+    }
+
+    @Override
+    public List<Place> retenirPlaces(Representation representation, List<Place> places) throws SQLException {
+
+        if (representation == null || places == null) return null;
+
+        BaseMemoire.Salle s = base.salle(representation);
+        long maintenant = base.maintenant();
+        long option = BaseMemoire.etat(id, Math.max(maintenant + base.getDureeOption(), 1));
+        Tentative t = new Tentative();
+        for (int sid : numeros(places)) {
+            int i = s.indice(sid);
+            if (i < 0) {
+                t.annuler();
+                return null;
+            }
+            long etat = s.etats.get(i);
+            if (BaseMemoire.titulaire(etat) == id && BaseMemoire.echeance(etat) != 0
+                    && !BaseMemoire.libre(etat, maintenant)) continue; // dj retenue
+            if (!t.prendre(s, i, option, maintenant, 0)) {
+                t.annuler();
+                return null;
+            }
+        }
+        retenues.add(s);
+        List<Place> l = new LinkedList<Place>();
+        for (Place p : places) {
+            l.add(new Place(representation, p.getNumero(), p.getTarif(), false));
+        }
+        return l;
+    }
+
+    @Override
+    public List<Place> reserverPlaces(Representation representation, int nombre, Tarif tarif) throws SQLException {
+
+        if (representation == null || nombre <= 0) return null;
+
+        BaseMemoire.Salle s = base.salle(representation);
+        Tentative t = new Tentative();
+        if (!prendreNombre(t, s, nombre, tarif, base.maintenant())) return null;
+        leverOptions(s, null);
+        return places(t, s.representation);
+    }
+
+    @Override
+    public List<Place> reserverPlaces(Representation representation, List<Place> places) throws SQLException {
+
+        if (representation == null || places == null) return null;
+
+        BaseMemoire.Salle s = base.salle(representation);
+        Tentative t = new Tentative();
+        Set<Integer> choisies = numeros(places);
+        if (!prendreListe(t, s, choisies, base.maintenant())) return null;
+        leverOptions(s, choisies); // options non choisies
+        return places(t, s.representation);
+    }
+
+    @Override
+    public ResultatReservation reserverPlaces(Representation representation, List<Place> places,
+            Substitution substitution) throws SQLException {
+
+        if (substitution == null || substitution == Substitution.AUCUNE) {
+            List<Place> l = reserverPlaces(representation, places);
+            return l == null ? null : new ResultatReservation(l, new ArrayList<Place>(0), new ArrayList<Place>(0));
+        }
+        if (representation == null || places == null) return null;
+
+        BaseMemoire.Salle s = base.salle(representation);
+        Tentative t = new Tentative();
+        Set<Integer> choisies = numeros(places);
+        int[] exclues = new int[choisies.size()]; // numros croissants
+        int k = 0;
+        for (int sid : choisies) {
+            exclues[k++] = sid;
+        }
+        long maintenant = base.maintenant();
+        long reservee = BaseMemoire.etat(id, 0);
+        Map<Integer, Place> remplacantes = new HashMap<Integer, Place>();
+        List<Place> perdues = new ArrayList<Place>();
+        for (int sid : choisies) {
+            int i = s.indice(sid);
+            if (i < 0) { // place inconnue : rien  remplacer
+                t.annuler();
+                return null;
+            }
+            if (t.prendre(s, i, reservee, maintenant, id)) continue;
+            int j = substituer(t, s, i, substitution, exclues, maintenant);
+            if (j < 0) {
+                t.annuler();
+                return null;
+            }
+            perdues.add(new Place(s.representation, sid, s.tarif(i), false));
+            remplacantes.put(sid, new Place(s.representation, s.sids[j], s.tarif(j), false));
+        }
+        leverOptions(s, choisies);
+        List<Place> l = new LinkedList<Place>();
+        List<Place> lRemplacantes = new ArrayList<Place>(perdues.size());
+        Set<Integer> vues = new HashSet<Integer>();
+        for (Place p : places) {
+            if (!vues.add(p.getNumero())) continue; // place demande deux fois
+            Place r = remplacantes.get(p.getNumero());
+            l.add(r != null ? r : new Place(s.representation, p.getNumero(), p.getTarif(), false));
+        }
+        for (Place p : perdues) {
+            lRemplacantes.add(remplacantes.get(p.getNumero()));
+        }
+        return new ResultatReservation(l, perdues, lRemplacantes);
+    }
+
+    /**
+     * Prend la place libre la plus proche d'une place perdue qui satisfait la
+     * politique de remplacement, hors des places choisies.
+     *
+     * @return l'indice de la place prise, -1 si aucune ne convient
+     */
+    private int substituer(Tentative t, BaseMemoire.Salle s, int i, Substitution substitution, int[] exclues,
+            long maintenant) {
+        long reservee = BaseMemoire.etat(id, 0);
+        int ecartMax = Math.min(substitution.getEcartMax(), s.sids.length);
+        for (int d = 1; d <= ecartMax; d++) {
+            for (int j = i + d; j >= i - d; j -= 2 * d) {
+                if (j < 0 || j >= s.sids.length || !substitution.accepte(s.tarif(i), s.tarif(j), d)) continue;
+                if (Arrays.binarySearch(exclues, s.sids[j]) < 0 && t.prendre(s, j, reservee, maintenant, 0)) return j;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public List<Place> annulerReservation(Representation representation, List<Place> places) throws SQLException {
+
+        if (representation == null || places == null) return null;
+
+        BaseMemoire.Salle s = base.salle(representation);
+        long maintenant = base.maintenant();
+        List<Place> l = new LinkedList<Place>();
+        for (int sid : numeros(places)) {
+            int i = s.indice(sid);
+            if (i < 0) continue;
+            long etat = s.etats.get(i);
+            // une option chue est dj libre ; une place du client ne change que par lui
+            if (BaseMemoire.titulaire(etat) != id || BaseMemoire.libre(etat, maintenant)) continue;
+            if (s.etats.compareAndSet(i, etat, 0)) l.add(new Place(s.representation, sid, s.tarif(i), true));
+        }
+        return l;
+    }
+
+    @Override
+    public List<Place> reserverPanier(Panier panier) throws SQLException {
+
+        if (panier == null || panier.estVide()) return null;
+
+        // reprsentations par RID croissant, comme la session sur base
+        TreeMap<Integer, List<Panier.Ligne>> parRid = new TreeMap<Integer, List<Panier.Ligne>>();
+        Map<Integer, BaseMemoire.Salle> salles = new LinkedHashMap<Integer, BaseMemoire.Salle>();
+        for (Panier.Ligne ligne : panier.getLignes()) {
+            BaseMemoire.Salle s = base.salle(ligne.getRepresentation());
+            int rid = s.representation.getRid();
+            salles.put(rid, s);
+            List<Panier.Ligne> lignes = parRid.get(rid);
+            if (lignes == null) {
+                lignes = new ArrayList<Panier.Ligne>(2);
+                parRid.put(rid, lignes);
+            }
+            lignes.add(ligne);
+        }
+        long maintenant = base.maintenant();
+        Tentative t = new Tentative();
+        Map<Integer, Set<Integer>> choisies = new LinkedHashMap<Integer, Set<Integer>>();
+        for (Map.Entry<Integer, List<Panier.Ligne>> e : parRid.entrySet()) {
+            BaseMemoire.Salle s = salles.get(e.getKey());
+            Set<Integer> sids = new TreeSet<Integer>();
+            for (Panier.Ligne ligne : e.getValue()) {
+                if (ligne.getPlaces() != null) sids.addAll(numeros(ligne.getPlaces()));
+            }
+            choisies.put(e.getKey(), sids);
+            boolean servie = prendreListe(t, s, sids, maintenant);
+            for (Panier.Ligne ligne : e.getValue()) {
+                if (!servie) break;
+                if (ligne.getPlaces() != null) continue;
+                servie = prendreNombre(t, s, ligne.getNombre(), ligne.getTarif(), maintenant);
+            }
+            if (!servie) {
+                t.annuler();
+                return null;
+            }
+        }
+        List<Place> l = new LinkedList<Place>();
+        for (Map.Entry<Integer, Set<Integer>> e : choisies.entrySet()) {
+            BaseMemoire.Salle s = salles.get(e.getKey());
+            leverOptions(s, e.getValue());
+            l.addAll(places(t, s.representation));
+        }
+        return l;
+    }
+
+    /**
+     * Prend des places choisies, en confirmant les options du client. En cas
+     * d'chec, toutes les places de la tentative sont rendues.
+     */
+    private boolean prendreListe(Tentative t, BaseMemoire.Salle s, Set<Integer> sids, long maintenant) {
+        long reservee = BaseMemoire.etat(id, 0);
+        for (int sid : sids) {
+            int i = s.indice(sid);
+            if (i < 0 || !t.prendre(s, i, reservee, maintenant, id)) {
+                t.annuler();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Prend un nombre de places libres  un tarif, en parcourant la salle 
+     * partir d'un point alatoire : les places obtenues sont le plus souvent
+     * voisines, et les acheteurs simultans visent des places diffrentes.
+     * En cas d'chec, toutes les places de la tentative sont rendues.
+     */
+    private boolean prendreNombre(Tentative t, BaseMemoire.Salle s, int nombre, Tarif tarif, long maintenant) {
+        int n = s.sids.length;
+        if (n == 0) {
+            t.annuler();
+            return false;
+        }
+        long reservee = BaseMemoire.etat(id, 0);
+        int depart = ThreadLocalRandom.current().nextInt(n);
+        int prises = 0;
+        for (int k = 0; k < n && prises < nombre; k++) {
+            int i = (depart + k) % n;
+            if (tarif != null && !PlanSalle.memeTarif(s.tarif(i), tarif)) continue;
+            if (t.prendre(s, i, reservee, maintenant, 0)) prises++;
+        }
+        if (prises < nombre) {
+            t.annuler();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Lve les options encore poses par la session sur une reprsentation,
+     * sauf celles des places  conserver.
+     */
+    private void leverOptions(BaseMemoire.Salle s, Set<Integer> conserver) {
+        if (!retenues.remove(s)) return;
+        for (int i = 0; i < s.sids.length; i++) {
+            long etat = s.etats.get(i);
+            if (BaseMemoire.titulaire(etat) != id || BaseMemoire.echeance(etat) == 0) continue;
+            if (conserver != null && conserver.contains(s.sids[i])) continue;
+            s.etats.compareAndSet(i, etat, 0); // chec : option chue et dj reprise
+        }
+    }
+
+    /**
+     * @return les places d'une reprsentation prises par la tentative, par
+     *         numro croissant
+     */
+    private static List<Place> places(Tentative t, Representation representation) {
+        int[] indices = new int[t.n];
+        BaseMemoire.Salle s = null;
+        int n = 0;
+        for (int k = 0; k < t.n; k++) {
+            if (t.salles[k].representation != representation) continue;
+            s = t.salles[k];
+            indices[n++] = t.indices[k];
+        }
+        Arrays.sort(indices, 0, n);
+        List<Place> l = new LinkedList<Place>();
+        for (int k = 0; k < n; k++) {
+            l.add(new Place(representation, s.sids[indices[k]], s.tarif(indices[k]), false));
+        }
+        return l;
+    }
+
+    private static Set<Integer> numeros(List<Place> places) {
+        Set<Integer> sids = new TreeSet<Integer>(); // numros croissants, sans doublon
+        for (Place p : places) {
+            sids.add(p.getNumero());
+        }
+        return sids;
+    }
+
+    /**
+     * Lve les options encore poses par la session.
+     */
+    @Override
+    public void close() {
+        for (BaseMemoire.Salle s : new ArrayList<BaseMemoire.Salle>(retenues)) {
+            leverOptions(s, null);
+        }
+    }
+
+}
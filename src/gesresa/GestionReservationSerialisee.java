@@ -0,0 +1,141 @@
+package gesresa;
+
+import java.sql.SQLException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Session dont les rservations passent par l'crivain unique de leur
+ * reprsentation ({@link EcrivainReservations}), pour les mises en vente trs
+ * disputes : les conflits entre acheteurs de ce processus sont dpartags en
+ * mmoire et leurs rservations valides par lots.
+ * <p>
+ * Les consultations, les options et les paniers sont servis par une session
+ * ordinaire.
+ * Tant que le client dtient des options, ses rservations sont elles aussi
+ * confies  cette session, qui sait les confirmer ou les lever.
+ *
+ * @author Aurel
+ *
+ */
+public class GestionReservationSerialisee implements GestionReservation {
+
+    private final GestionReservationImpl session;
+    private final EcrivainReservations ecrivain;
+
+    public GestionReservationSerialisee(GestionReservationImpl session, EcrivainReservations ecrivain) {
+        this.session = session;
+        this.ecrivain = ecrivain;
+    }
+
+    @Override
+    public List<Representation> listerRepresentations(String spectacle, Date de, Date a) throws SQLException {
+        return session.listerRepresentations(spectacle, de, a);
+    }
+
+    @Override
+    public Map<Tarif, Integer> listerDisponibilites(Representation representation) throws SQLException {
+        return session.listerDisponibilites(representation);
+    }
+
+    @Override
+    public List<Place> listerPlaces(Representation representation, boolean stable) throws SQLException {
+        return session.listerPlaces(representation, stable);
+    }
+
+    @Override
+    public ChangementsPlaces listerChangements(Representation representation, long version) throws SQLException {
+        return session.listerChangements(representation, version);
+    }
+
+    @Override
+    public void parcourirPlaces(Representation representation, boolean stable, VisiteurPlaces visiteur)
+            throws SQLException {
+        session.parcourirPlaces(representation, stable, visiteur);
+    }
+
+    @Override
+    public List<Place> retenirPlaces(Representation representation, List<Place> places) throws SQLException {
+        return session.retenirPlaces(representation, places);
+    }
+
+    @Override
+    public List<Place> reserverPlaces(Representation representation, int nombre, Tarif tarif) throws SQLException {
+        if (representation == null || nombre <= 0) return null;
+        if (session.retientPlaces()) return session.reserverPlaces(representation, nombre, tarif);
+        return attendre(new EcrivainReservations.Demande(representation, session.getClient(), null, nombre, tarif));
+    }
+
+    @Override
+    public List<Place> reserverPlaces(Representation representation, List<Place> places) throws SQLException {
+        if (representation == null || places == null) return null;
+        if (session.retientPlaces()) return session.reserverPlaces(representation, places);
+        int[] sids = new int[places.size()];
+        for (int i = 0; i < sids.length; i++) {
+            sids[i] = places.get(i).getNumero();
+        }
+        return attendre(new EcrivainReservations.Demande(representation, session.getClient(), sids, 0, null));
+    }
+
+    /**
+     * Les remplacements se dcident au fil des conflits, dans la transaction
+     * de la rservation : elle est faite par la session ordinaire.
+     */
+    @Override
+    public ResultatReservation reserverPlaces(Representation representation, List<Place> places,
+            Substitution substitution) throws SQLException {
+        return session.reserverPlaces(representation, places, substitution);
+    }
+
+    @Override
+    public List<Place> annulerReservation(Representation representation, List<Place> places) throws SQLException {
+        return session.annulerReservation(representation, places);
+    }
+
+    /**
+     * Un panier porte sur plusieurs reprsentations, donc plusieurs
+     * crivains : il est rserv par la session ordinaire.
+     */
+    @Override
+    public List<Place> reserverPanier(Panier panier) throws SQLException {
+        return session.reserverPanier(panier);
+    }
+
+    /**
+     * Attend la rponse de l'crivain. Une interruption retire la demande si
+     * l'crivain ne l'a pas encore prise ; sinon la rponse est attendue,
+     * les places pouvant tre valides, et l'interruption est signale au
+     * retour.
+     */
+    private List<Place> attendre(EcrivainReservations.Demande d) throws SQLException {
+        CompletableFuture<List<Place>> resultat = ecrivain.soumettre(d);
+        boolean interrompu = false;
+        try {
+            while (true) {
+                try {
+                    return resultat.get();
+                } catch (InterruptedException e) {
+                    if (!interrompu && ecrivain.retirer(d)) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("attente de la rservation interrompue", e);
+                    }
+                    interrompu = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+            throw new SQLException("rservation impossible", e.getCause());
+        } finally {
+            if (interrompu) Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        session.close();
+    }
+
+}
@@ -0,0 +1,135 @@
+package gesresa;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogramme de dures (ou de toute valeur entire positive)  prcision
+ * relative constante : chaque puissance de deux est dcoupe en 32
+ * intervalles, soit une erreur infrieure  3 % sur les percentiles.
+ * <p>
+ * L'enregistrement n'alloue aucun objet et peut tre fait par plusieurs
+ * threads  la fois ; il peut donc rester actif en production. La lecture
+ * (percentiles, moyenne) est approximative lorsqu'elle est concurrente
+ * d'enregistrements.
+ *
+ * @author Aurel
+ *
+ */
+public class Histogramme {
+
+    private static final int PRECISION = 5; // 2^5 intervalles par puissance de deux
+    private static final int TAILLE = (64 - PRECISION) * (1 << PRECISION) + (1 << PRECISION);
+
+    private final AtomicLongArray compteurs = new AtomicLongArray(TAILLE);
+    private final AtomicLong nombre = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Enregistre une valeur ; les valeurs ngatives sont comptes comme nulles.
+     */
+    public void enregistrer(long valeur) {
+        if (valeur < 0) valeur = 0;
+        compteurs.incrementAndGet(indice(valeur));
+        nombre.incrementAndGet();
+        total.addAndGet(valeur);
+        long m;
+        while (valeur > (m = max.get()) && !max.compareAndSet(m, valeur)) {
+            // un autre thread a enregistr un maximum entre-temps
+        }
+    }
+
+    public long getNombre() {
+        return nombre.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMoyenne() {
+        long n = nombre.get();
+        return n == 0 ? 0 : (double) total.get() / n;
+    }
+
+    /**
+     * @param p
+     *            rang cherch, entre 0 et 100 (par exemple 99.9)
+     * @return une valeur approchant le p-ime percentile, 0 si l'histogramme
+     *         est vide
+     */
+    public long percentile(double p) {
+        long n = nombre.get();
+        if (n == 0) return 0;
+        long rang = Math.max(1, (long) Math.ceil(p / 100 * n));
+        long cumul = 0;
+        for (int i = 0; i < TAILLE; i++) {
+            cumul += compteurs.get(i);
+            if (cumul >= rang) return Math.min(milieu(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Ajoute  cet histogramme les valeurs d'un autre.
+     */
+    public void ajouter(Histogramme autre) {
+        for (int i = 0; i < TAILLE; i++) {
+            long c = autre.compteurs.get(i);
+            if (c != 0) compteurs.addAndGet(i, c);
+        }
+        nombre.addAndGet(autre.nombre.get());
+        total.addAndGet(autre.total.get());
+        long m;
+        long v = autre.max.get();
+        while (v > (m = max.get()) && !max.compareAndSet(m, v)) {
+            // idem enregistrer
+        }
+    }
+
+    public Histogramme copie() {
+        Histogramme h = new Histogramme();
+        h.ajouter(this);
+        return h;
+    }
+
+    public void reinitialiser() {
+        for (int i = 0; i < TAILLE; i++) {
+            compteurs.set(i, 0);
+        }
+        nombre.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Rsum d'un histogramme de dures en nanosecondes, exprimes en
+     * microsecondes.
+     */
+    public String resumeMicros() {
+        return "n=" + getNombre() + " moy=" + (long) getMoyenne() / 1000 + "s p50=" + percentile(50) / 1000 + "s p99="
+                + percentile(99) / 1000 + "s p99.9=" + percentile(99.9) / 1000 + "s max=" + getMax() / 1000 + "s";
+    }
+
+    static int indice(long valeur) {
+        if (valeur < (2 << PRECISION)) return (int) valeur;
+        int e = 63 - Long.numberOfLeadingZeros(valeur);
+        int mantisse = (int) (valeur >>> (e - PRECISION)); // entre 2^PRECISION et 2^(PRECISION+1)-1
+        return ((e - PRECISION) << PRECISION) + mantisse;
+    }
+
+    static long borneInferieure(int indice) {
+        if (indice < (2 << PRECISION)) return indice;
+        int e = (indice >>> PRECISION) + PRECISION - 1;
+        long mantisse = (indice & ((1 << PRECISION) - 1)) + (1 << PRECISION);
+        return mantisse << (e - PRECISION);
+    }
+
+    private static long milieu(int indice) {
+        long bas = borneInferieure(indice);
+        long haut = indice + 1 < TAILLE ? borneInferieure(indice + 1) : bas;
+        return bas + (haut - bas) / 2;
+    }
+
+}
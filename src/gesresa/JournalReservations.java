@@ -0,0 +1,408 @@
+package gesresa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journal des plans de salle, qui permet  un processus redmarr de
+ * retrouver ses plans sans relire la base. Le journal est fait de segments
+ * projets en mmoire (<code>journal.N</code>), dans lesquels chaque
+ * modification d'un plan est ajoute  la suite des prcdentes : chargement
+ * d'un plan, places rserves, places libres, plan oubli.
+ * <p>
+ * Priodiquement, l'tat de tous les plans est crit dans un instantan
+ * compact (<code>plans.instantane</code>) et les segments antrieurs sont
+ * supprims, ou gards pour tre rutiliss : leur projection en mmoire est
+ * reprise pour un segment suivant, aprs effacement, plutt que d'en projeter
+ * un nouveau  chaque instantan. Au redmarrage, l'instantan est relu puis les segments suivants
+ * rejous ; les oprations tant des tats absolus (place rserve, place
+ * libre), rejouer une modification dj prsente dans l'instantan est sans
+ * effet.
+ * <p>
+ * Le journal reflte les plans et non la base, qui reste la rfrence : un
+ * plan restaur est rconcili avec la base comme tout autre plan, au plus
+ * tard une priode de rconciliation aprs la dernire criture du journal.
+ *
+ * @author Aurel
+ *
+ */
+public class JournalReservations implements AutoCloseable {
+
+    /** taille d'un segment du journal (octets) */
+    public static final int TAILLE_SEGMENT = 16 << 20;
+
+    private static final String INSTANTANE = "plans.instantane";
+    private static final String SEGMENT = "journal.";
+    private static final String LIBRE = "libre."; // segment antrieur  l'instantan, en attente de rutilisation
+    private static final int MAGIQUE = 0x47455352; // "GESR"
+
+    private static final byte CHARGEMENT = 1;
+    private static final byte RESERVATION = 2;
+    private static final byte LIBERATION = 3;
+    private static final byte OUBLI = 4;
+
+    private final Path repertoire;
+    private final MoteurPlans plans;
+    private final ScheduledExecutorService executeur;
+    private int segment;
+    private MappedByteBuffer tampon;
+    // segments prcdents, encore projets, par numro : ceux qu'un instantan rend inutiles deviennent libres
+    private final Map<Integer, MappedByteBuffer> anciens = new HashMap<Integer, MappedByteBuffer>();
+    private final TreeMap<Integer, MappedByteBuffer> libres = new TreeMap<Integer, MappedByteBuffer>();
+
+    /**
+     * Ouvre un nouveau segment  la suite des segments existants et dmarre
+     * les instantans priodiques.
+     *
+     * @param repertoire
+     *            rpertoire du journal, cr si besoin
+     * @param plans
+     *            plans dont l'tat est crit dans les instantans
+     * @param periode
+     *            priode entre deux instantans, en millisecondes
+     */
+    public JournalReservations(Path repertoire, MoteurPlans plans, long periode) throws IOException {
+        this.repertoire = repertoire;
+        this.plans = plans;
+        Files.createDirectories(repertoire);
+        for (int n : segments(repertoire, LIBRE)) {
+            Files.deleteIfExists(repertoire.resolve(LIBRE + n)); // laisss par un arrt brutal
+        }
+        List<Integer> existants = segments(repertoire, SEGMENT);
+        this.segment = existants.isEmpty() ? 0 : existants.get(existants.size() - 1);
+        nouveauSegment(TAILLE_SEGMENT);
+        this.executeur = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "instantane-plans");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executeur.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    instantane();
+                } catch (IOException e) {
+                    System.out.println("instantan des plans impossible : " + e.getMessage());
+                } catch (RuntimeException e) {
+                    e.printStackTrace(); // la tche priodique ne doit pas s'arrter
+                }
+            }
+        }, periode, periode, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Journalise le chargement d'un plan (sa description, sans l'tat des
+     * places).
+     */
+    void chargement(PlanSalle plan) {
+        ByteArrayOutputStream octets = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(octets)) {
+            plan.ecrire(out, false);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // impossible en mmoire
+        }
+        byte[] description = octets.toByteArray();
+        synchronized (this) {
+            MappedByteBuffer b = reserver(1 + 4 + description.length);
+            int debut = b.position();
+            b.position(debut + 4);
+            b.put(CHARGEMENT);
+            b.putInt(plan.getRid());
+            b.put(description);
+            terminer(b, debut);
+        }
+    }
+
+    /**
+     * Journalise des places rserves ou libres.
+     */
+    synchronized void modification(int rid, boolean reservee, int[] sids, int n) {
+        MappedByteBuffer b = reserver(1 + 4 + 4 + 4 * n);
+        int debut = b.position();
+        b.position(debut + 4);
+        b.put(reservee ? RESERVATION : LIBERATION);
+        b.putInt(rid);
+        b.putInt(n);
+        for (int k = 0; k < n; k++) {
+            b.putInt(sids[k]);
+        }
+        terminer(b, debut);
+    }
+
+    /**
+     * Journalise le remplacement de l'tat d'un plan (rconciliation) par la
+     * diffrence entre l'ancien et le nouvel tat.
+     */
+    void difference(int rid, int[] sids, long[] avant, long[] apres) {
+        int[] reservees = new int[sids.length];
+        int[] liberees = new int[sids.length];
+        int nr = 0;
+        int nl = 0;
+        for (int k = 0; k < avant.length; k++) {
+            long changes = avant[k] ^ apres[k];
+            while (changes != 0) {
+                int bit = Long.numberOfTrailingZeros(changes);
+                changes &= changes - 1;
+                int i = (k << 6) + bit;
+                if ((apres[k] & (1L << bit)) != 0) reservees[nr++] = sids[i];
+                else liberees[nl++] = sids[i];
+            }
+        }
+        if (nr > 0) modification(rid, true, reservees, nr);
+        if (nl > 0) modification(rid, false, liberees, nl);
+    }
+
+    /**
+     * Journalise l'oubli d'un plan (reprsentation supprime).
+     */
+    synchronized void oubli(int rid) {
+        MappedByteBuffer b = reserver(1 + 4);
+        int debut = b.position();
+        b.position(debut + 4);
+        b.put(OUBLI);
+        b.putInt(rid);
+        terminer(b, debut);
+    }
+
+    /**
+     * @return le tampon courant, avec la place pour un enregistrement de la
+     *         taille donne, sa longueur et la marque de fin
+     */
+    private MappedByteBuffer reserver(int taille) {
+        if (tampon.remaining() < taille + 8) {
+            try {
+                nouveauSegment(Math.max(TAILLE_SEGMENT, taille + 8));
+            } catch (IOException e) {
+                throw new IllegalStateException("journal des plans inutilisable", e);
+            }
+        }
+        return tampon;
+    }
+
+    /**
+     * Valide un enregistrement en crivant sa longueur en dernier : un
+     * enregistrement interrompu a une longueur nulle et marque la fin du
+     * segment.
+     */
+    private static void terminer(MappedByteBuffer b, int debut) {
+        b.putInt(debut, b.position() - debut - 4);
+    }
+
+    private void nouveauSegment(int taille) throws IOException {
+        if (tampon != null) {
+            tampon.force();
+            anciens.put(segment, tampon);
+        }
+        segment++;
+        Path chemin = repertoire.resolve(SEGMENT + segment);
+        tampon = taille <= TAILLE_SEGMENT ? recycler(chemin) : null;
+        if (tampon != null) return;
+        try (FileChannel canal = FileChannel.open(chemin, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            tampon = canal.map(FileChannel.MapMode.READ_WRITE, 0, taille); // la projection survit au canal
+        }
+    }
+
+    /**
+     * Reprend la projection d'un segment libre : son contenu est effac, puis
+     * son fichier renomm en segment courant.
+     *
+     * @return la projection reprise, <code>null</code> s'il n'y en a pas
+     */
+    private MappedByteBuffer recycler(Path chemin) {
+        while (!libres.isEmpty()) {
+            Map.Entry<Integer, MappedByteBuffer> e = libres.pollFirstEntry();
+            MappedByteBuffer b = e.getValue();
+            try {
+                effacer(b);
+                Files.move(repertoire.resolve(LIBRE + e.getKey()), chemin);
+                return b;
+            } catch (IOException ex) {
+                // fichier inutilisable (renommage refus par le systme) : le segment est abandonn
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remet  zro la partie crite d'un segment (jusqu' sa position), pour
+     * qu'aucun enregistrement ancien ne soit rejou aprs sa rutilisation.
+     */
+    private static void effacer(MappedByteBuffer b) {
+        int ecrits = b.position();
+        byte[] zeros = new byte[Math.min(ecrits, 64 << 10)];
+        b.clear();
+        while (b.position() < ecrits) {
+            b.put(zeros, 0, Math.min(zeros.length, ecrits - b.position()));
+        }
+        b.force();
+        b.clear();
+    }
+
+    /**
+     * crit l'tat de tous les plans dans un nouvel instantan, puis supprime
+     * les segments qu'il rend inutiles. Le journal passe d'abord  un nouveau
+     * segment : les modifications faites pendant l'criture de l'instantan y
+     * sont conserves.
+     */
+    public void instantane() throws IOException {
+        int premier;
+        synchronized (this) {
+            nouveauSegment(TAILLE_SEGMENT);
+            premier = segment;
+        }
+        Path provisoire = repertoire.resolve(INSTANTANE + ".tmp");
+        try (OutputStream fichier = Files.newOutputStream(provisoire);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fichier))) {
+            out.writeInt(MAGIQUE);
+            out.writeInt(premier);
+            List<PlanSalle> l = new ArrayList<PlanSalle>(plans.tous());
+            out.writeInt(l.size());
+            for (PlanSalle plan : l) {
+                plan.ecrire(out, true);
+            }
+        }
+        Files.move(provisoire, repertoire.resolve(INSTANTANE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            for (Iterator<Map.Entry<Integer, MappedByteBuffer>> i = anciens.entrySet().iterator(); i.hasNext();) {
+                Map.Entry<Integer, MappedByteBuffer> e = i.next();
+                if (e.getKey() >= premier) continue;
+                i.remove();
+                try {
+                    Files.move(repertoire.resolve(SEGMENT + e.getKey()), repertoire.resolve(LIBRE + e.getKey()));
+                    libres.put(e.getKey(), e.getValue());
+                } catch (IOException ex) {
+                    // segment simplement supprim ci-dessous
+                }
+            }
+        }
+        for (int n : segments(repertoire, SEGMENT)) {
+            if (n < premier) Files.deleteIfExists(repertoire.resolve(SEGMENT + n));
+        }
+    }
+
+    /**
+     * Reconstruit les plans  partir de l'instantan et des segments qui le
+     * suivent.
+     *
+     * @param repertoire
+     *            rpertoire du journal
+     * @return les plans par RID, vide si le rpertoire ne contient rien
+     */
+    public static Map<Integer, PlanSalle> relire(Path repertoire) throws IOException {
+        Map<Integer, PlanSalle> restaures = new HashMap<Integer, PlanSalle>();
+        if (!Files.isDirectory(repertoire)) return restaures;
+        long date = 0;
+        int premier = 0;
+        Path instantane = repertoire.resolve(INSTANTANE);
+        if (Files.exists(instantane)) {
+            date = Files.getLastModifiedTime(instantane).toMillis();
+            try (InputStream fichier = Files.newInputStream(instantane);
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(fichier))) {
+                if (in.readInt() != MAGIQUE) throw new IOException("instantan des plans invalide : " + instantane);
+                premier = in.readInt();
+                for (int n = in.readInt(); n > 0; n--) {
+                    PlanSalle plan = PlanSalle.lire(in, true, 0);
+                    restaures.put(plan.getRid(), plan);
+                }
+            }
+        }
+        for (int n : segments(repertoire, SEGMENT)) {
+            if (n < premier) continue;
+            Path chemin = repertoire.resolve(SEGMENT + n);
+            date = Math.max(date, Files.getLastModifiedTime(chemin).toMillis());
+            try (FileChannel c = FileChannel.open(chemin, StandardOpenOption.READ)) {
+                rejouer(c.map(FileChannel.MapMode.READ_ONLY, 0, c.size()), restaures);
+            }
+        }
+        for (PlanSalle plan : restaures.values()) {
+            plan.restaure(date);
+        }
+        return restaures;
+    }
+
+    private static void rejouer(MappedByteBuffer b, Map<Integer, PlanSalle> restaures) throws IOException {
+        while (b.remaining() >= 4) {
+            int taille = b.getInt();
+            if (taille <= 0 || taille > b.remaining()) return; // fin du segment ou criture interrompue
+            int suivant = b.position() + taille;
+            byte type = b.get();
+            int rid = b.getInt();
+            if (type == CHARGEMENT) {
+                byte[] description = new byte[taille - 5];
+                b.get(description);
+                restaures.put(rid, PlanSalle.lire(new DataInputStream(new ByteArrayInputStream(description)), false, 0));
+            } else if (type == RESERVATION || type == LIBERATION) {
+                int[] sids = new int[b.getInt()];
+                for (int k = 0; k < sids.length; k++) {
+                    sids[k] = b.getInt();
+                }
+                PlanSalle plan = restaures.get(rid);
+                if (plan != null && type == RESERVATION) plan.reserver(sids, sids.length);
+                else if (plan != null) plan.liberer(sids, sids.length);
+            } else if (type == OUBLI) {
+                restaures.remove(rid);
+            }
+            b.position(suivant);
+        }
+    }
+
+    private static List<Integer> segments(Path repertoire, String prefixe) throws IOException {
+        List<Integer> l = new ArrayList<Integer>();
+        try (DirectoryStream<Path> d = Files.newDirectoryStream(repertoire, prefixe + "*")) {
+            for (Path p : d) {
+                try {
+                    l.add(Integer.parseInt(p.getFileName().toString().substring(prefixe.length())));
+                } catch (NumberFormatException e) {
+                    // fichier tranger au journal
+                }
+            }
+        }
+        Collections.sort(l);
+        return l;
+    }
+
+    /**
+     * Arrte les instantans, force l'criture du segment courant et supprime
+     * les segments libres.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        executeur.shutdownNow();
+        tampon.force();
+        for (int n : libres.keySet()) {
+            Files.deleteIfExists(repertoire.resolve(LIBRE + n));
+        }
+        libres.clear();
+    }
+
+}
@@ -0,0 +1,408 @@
+package gesresa;
+
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Liste d'attente des clients n'ayant pas trouv assez de places : plutt
+ * que de relire les reprsentations et les places jusqu' ce que des places
+ * se librent, un client s'inscrit pour un nombre de places  un tarif sur
+ * une reprsentation, et est prvenu par un {@link RappelAttente}.
+ * <p>
+ * Chaque libration de places reporte dans les plans de salle (annulation,
+ * leve d'option, option expire supprime par le {@link NettoyeurOptions})
+ * rveille le thread de la liste, qui sert les inscriptions de la
+ * reprsentation dans leur ordre d'arrive, tant que les places libres
+ * suffisent  la premire d'entre elles : une inscription qui ne peut tre
+ * satisfaite fait attendre les suivantes, mme moins exigeantes. Les places servies sont retenues pour le
+ * client, en une transaction, pour la dure d'une option, puis proposes par
+ * le rappel ; les sessions du client les reprennent parmi leurs options 
+ * leur prochain appel. Une proposition non confirme expire et ses places
+ * sont proposes  l'inscription suivante.
+ * <p>
+ * Seules les librations vues par ce processus rveillent la liste : une
+ * annulation faite par un autre processus n'est prise en compte qu' la
+ * libration locale suivante. Une reprsentation dont le service a chou
+ * (base indisponible) est rexamine aprs une pause, croissante tant que les
+ * checs se rptent.
+ *
+ * @author Aurel
+ *
+ */
+public class ListeAttente implements AutoCloseable {
+
+    /** pause avant de rexaminer une reprsentation dont le service a chou (ms) */
+    private static final long PAUSE_MIN = 100;
+    /** pause maximale aprs des checs rpts (ms) */
+    private static final long PAUSE_MAX = 10000;
+
+    /**
+     * Inscription d'un client sur la liste d'attente d'une reprsentation.
+     */
+    public static final class Inscription {
+        private final ListeAttente liste;
+        private final Representation representation;
+        private final int rid;
+        private final String client;
+        private final int nombre;
+        private final Tarif tarif;
+        private final RappelAttente rappel;
+        private volatile boolean close; // servie ou annule
+
+        private Inscription(ListeAttente liste, Representation representation, int rid, String client, int nombre,
+                Tarif tarif, RappelAttente rappel) {
+            this.liste = liste;
+            this.representation = representation;
+            this.rid = rid;
+            this.client = client;
+            this.nombre = nombre;
+            this.tarif = tarif;
+            this.rappel = rappel;
+        }
+
+        /**
+         * Retire l'inscription de la liste.
+         *
+         * @return faux si des places lui ont t proposes ou sont en cours
+         *         de l'tre
+         */
+        public boolean annuler() {
+            synchronized (liste) {
+                if (close) return false;
+                close = true;
+            }
+            Queue<Inscription> file = liste.inscriptions.get(rid);
+            if (file != null) file.remove(this);
+            return true;
+        }
+
+        public boolean isClose() {
+            return close;
+        }
+
+        public Representation getRepresentation() {
+            return representation;
+        }
+
+        public String getClient() {
+            return client;
+        }
+
+        public int getNombre() {
+            return nombre;
+        }
+
+        public Tarif getTarif() {
+            return tarif;
+        }
+    }
+
+    /**
+     * Places retenues pour un client par la liste d'attente, en attente
+     * d'tre reprises par une de ses sessions.
+     */
+    static final class Offre {
+        final int rid;
+        final String salle;
+        final int[] sids;
+        final long echeance;
+
+        Offre(int rid, String salle, int[] sids, long echeance) {
+            this.rid = rid;
+            this.salle = salle;
+            this.sids = sids;
+            this.echeance = echeance;
+        }
+    }
+
+    private final BaseReservation base;
+    private final ConcurrentHashMap<Integer, Queue<Inscription>> inscriptions; // par RID, dans l'ordre d'arrive
+    private final ConcurrentHashMap<String, Queue<Offre>> offres; // par client
+    private final BlockingQueue<Integer> liberations; // RID des reprsentations  examiner
+    private final Set<Integer> signalees; // RID dj en file
+    private final Thread thread;
+    private volatile boolean ferme;
+    private long servies;
+
+    /**
+     * Dmarre le thread de la liste.
+     *
+     * @param base
+     *            base dans laquelle retenir les places proposes
+     */
+    public ListeAttente(BaseReservation base) {
+        this.base = base;
+        this.inscriptions = new ConcurrentHashMap<Integer, Queue<Inscription>>();
+        this.offres = new ConcurrentHashMap<String, Queue<Offre>>();
+        this.liberations = new LinkedBlockingQueue<Integer>();
+        this.signalees = ConcurrentHashMap.newKeySet();
+        this.thread = new Thread("liste-attente") {
+            @Override
+            public void run() {
+                servir();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Inscrit un client sur la liste d'attente d'une reprsentation. Si les
+     * places libres suffisent dj, elles sont proposes sans attendre de
+     * libration.
+     *
+     * @param representation
+     *            reprsentation attendue
+     * @param client
+     *            client  qui les places seront retenues
+     * @param nombre
+     *            nombre de places attendues
+     * @param tarif
+     *            tarif des places, <code>null</code> si indiffrent
+     * @param rappel
+     *            appel lorsque des places sont retenues pour le client
+     * @return l'inscription,  annuler si le client n'attend plus
+     */
+    public Inscription inscrire(Representation representation, String client, int nombre, Tarif tarif,
+            RappelAttente rappel) throws SQLException {
+        if (representation == null || nombre <= 0 || rappel == null)
+            throw new IllegalArgumentException("inscription incomplte");
+        if (ferme) throw new SQLException("liste d'attente arrte");
+        int rid;
+        try (ConnexionPoolee c = base.getPool().obtenir()) {
+            rid = base.getRepresentations().resoudre(c, representation);
+        }
+        Inscription i = new Inscription(this, representation, rid, client, nombre, tarif, rappel);
+        Queue<Inscription> file = inscriptions.get(rid);
+        if (file == null) {
+            file = new ConcurrentLinkedQueue<Inscription>();
+            Queue<Inscription> concurrente = inscriptions.putIfAbsent(rid, file);
+            if (concurrente != null) file = concurrente;
+        }
+        file.add(i);
+        liberees(rid);
+        return i;
+    }
+
+    /**
+     * Signale que des places d'une reprsentation viennent d'tre libres.
+     * Appel par {@link MoteurPlans#liberer(int, int[], int)} ; ne fait que
+     * rveiller le thread de la liste.
+     */
+    void liberees(int rid) {
+        Queue<Inscription> file = inscriptions.get(rid);
+        if (file == null || file.isEmpty()) return;
+        if (signalees.add(rid)) liberations.add(rid);
+    }
+
+    /**
+     * Retire les places retenues pour un client par la liste d'attente.
+     *
+     * @return les places  reprendre parmi les options du client,
+     *         <code>null</code> s'il n'y en a pas
+     */
+    List<Offre> reprendre(String client) {
+        Queue<Offre> file = offres.get(client);
+        if (file == null || file.isEmpty()) return null;
+        List<Offre> l = new ArrayList<Offre>();
+        Offre o;
+        while ((o = file.poll()) != null) {
+            l.add(o);
+        }
+        return l;
+    }
+
+    /**
+     * @return le nombre d'inscriptions servies
+     */
+    public synchronized long getServies() {
+        return servies;
+    }
+
+    /**
+     * @return le nombre d'inscriptions en attente
+     */
+    public int getEnAttente() {
+        int n = 0;
+        for (Queue<Inscription> file : inscriptions.values()) {
+            n += file.size();
+        }
+        return n;
+    }
+
+    private void servir() {
+        long pause = PAUSE_MIN;
+        while (!ferme) {
+            int rid = 0;
+            try {
+                rid = liberations.take(); // close() interrompt l'attente
+                signalees.remove(rid); // une libration pendant le service sera  nouveau examine
+                servir(rid);
+                pause = PAUSE_MIN;
+            } catch (InterruptedException e) {
+                ferme = true;
+            } catch (SQLException e) {
+                System.out.println("service de la liste d'attente impossible : " + e.getMessage());
+                // les places libres taient peut-tre les dernires : aucune libration ne viendrait
+                // rveiller la liste, la reprsentation est donc rexamine aprs une pause
+                try {
+                    Thread.sleep(pause);
+                } catch (InterruptedException ie) {
+                    ferme = true;
+                }
+                pause = Math.min(2 * pause, PAUSE_MAX);
+                liberees(rid);
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // le thread de la liste ne doit pas s'arrter
+            }
+        }
+    }
+
+    /**
+     * Sert, dans leur ordre d'arrive, les inscriptions d'une reprsentation,
+     * jusqu' la premire que ses places libres ne permettent pas de
+     * satisfaire.
+     */
+    private void servir(int rid) throws SQLException {
+        Queue<Inscription> file = inscriptions.get(rid);
+        if (file == null || file.isEmpty()) return;
+        try (ConnexionPoolee c = base.getPool().obtenir()) {
+            PlanSalle plan = base.getPlans().plan(c, rid);
+            for (Iterator<Inscription> it = file.iterator(); it.hasNext();) {
+                Inscription i = it.next();
+                if (i.close) {
+                    it.remove();
+                    continue;
+                }
+                if (plan.libres(i.tarif) < i.nombre) return; // les suivantes attendent leur tour
+                int[] sids = new int[i.nombre];
+                int depart = ThreadLocalRandom.current().nextInt(Math.max(plan.taille(), 1));
+                int n = plan.prendre(i.tarif, i.nombre, depart, sids);
+                if (n == 0) return;
+                synchronized (this) {
+                    if (i.close) { // annule entre-temps
+                        plan.liberer(sids, n);
+                        continue;
+                    }
+                    i.close = true; // l'inscription ne peut plus tre annule
+                }
+                Arrays.sort(sids);
+                long echeance = System.currentTimeMillis() + base.getDureeOption();
+                boolean retenues;
+                try {
+                    retenues = retenir(c, i, plan, sids, echeance);
+                } catch (SQLException e) { // places rendues par retenir : l'inscription reste  servir
+                    rouvrir(i);
+                    throw e;
+                }
+                if (!retenues) { // une place est prise par un autre processus
+                    rouvrir(i);
+                    if (signalees.add(rid)) liberations.add(rid); //  rexaminer, plan relu
+                    return;
+                }
+                it.remove();
+                proposer(i, plan, sids, echeance);
+            }
+        }
+    }
+
+    /**
+     * Rend annulable une inscription dont les places n'ont pu tre retenues ;
+     * elle garde son rang.
+     */
+    private synchronized void rouvrir(Inscription i) {
+        i.close = false;
+    }
+
+    /**
+     * Insre les options des places servies  une inscription.
+     *
+     * @return faux si une place n'tait plus libre dans la base
+     */
+    private boolean retenir(ConnexionPoolee c, Inscription i, PlanSalle plan, int[] sids, long echeance)
+            throws SQLException {
+        PreparedStatement retenir = c.preparer(GestionReservationImpl.SQL_RETENIR);
+        try {
+            for (int sid : sids) {
+                retenir.setInt(1, sid);
+                retenir.setString(2, i.representation.getSalle());
+                retenir.setInt(3, i.rid);
+                retenir.setString(4, i.client);
+                retenir.setTimestamp(5, new Timestamp(echeance));
+                retenir.addBatch();
+            }
+            try {
+                retenir.executeBatch();
+            } catch (BatchUpdateException e) {
+                retenir.clearBatch();
+                c.rollback();
+                plan.liberer(sids, sids.length);
+                base.getPlans().marquerPerime(i.rid);
+                return false;
+            }
+            c.commit();
+            plan.reserver(sids, sids.length); // places confirmes : une rconciliation peut dsormais les lire
+            return true;
+        } catch (SQLException e) {
+            retenir.clearBatch();
+            c.rollback();
+            plan.liberer(sids, sids.length);
+            throw e;
+        }
+    }
+
+    /**
+     * Confie les places retenues aux sessions du client, puis le prvient.
+     */
+    private void proposer(Inscription i, PlanSalle plan, int[] sids, long echeance) {
+        Queue<Offre> file = offres.get(i.client);
+        if (file == null) {
+            file = new ConcurrentLinkedQueue<Offre>();
+            Queue<Offre> concurrente = offres.putIfAbsent(i.client, file);
+            if (concurrente != null) file = concurrente;
+        }
+        file.add(new Offre(i.rid, i.representation.getSalle(), sids, echeance));
+        synchronized (this) {
+            servies++;
+        }
+        List<Place> places = new ArrayList<Place>(sids.length);
+        for (int sid : sids) {
+            places.add(new Place(i.representation, sid, plan.tarif(plan.indice(sid)), false));
+        }
+        try {
+            i.rappel.placesOffertes(i.representation, places);
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // un rappel dfaillant ne doit pas arrter la liste
+        }
+    }
+
+    /**
+     * Arrte le thread de la liste. Les inscriptions en attente ne seront
+     * plus servies ; les places dj proposes restent retenues jusqu' leur
+     * chance.
+     */
+    @Override
+    public void close() {
+        ferme = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+package gesresa;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Mesures des sessions instrumentes ({@link GestionReservationInstrumentee})
+ * : dure de chaque mthode, erreurs, conflits, places retournes par les
+ * consultations et ge des donnes qu'elles ont servies. Si une base est fournie, ses compteurs sont joints aux
+ * mesures : attente d'une connexion, transactions annules et lignes lues
+ * pour les plans de salle.
+ * <p>
+ * L'enregistrement n'alloue aucun objet ; les mesures peuvent tre lues 
+ * tout moment par {@link #getInstantane()} ou par JMX aprs
+ * {@link #publier(String)}.
+ *
+ * @author Aurel
+ *
+ */
+public class MesuresReservation implements MesuresReservationMXBean {
+
+    /** indices des mthodes mesures */
+    public static final int REPRESENTATIONS = 0, PLACES = 1, RETENIR = 2, RESERVER_NOMBRE = 3, RESERVER_LISTE = 4,
+            PANIER = 5, DISPONIBILITES = 6, ANNULER = 7, CHANGEMENTS = 8, SUBSTITUTION = 9;
+
+    private static final String[] METHODES = { "listerRepresentations", "listerPlaces", "retenirPlaces",
+            "reserverPlaces.nombre", "reserverPlaces.liste", "reserverPanier",
+            "listerDisponibilites", "annulerReservation", "listerChangements", "reserverPlaces.substitution" };
+
+    private final BaseReservation base;
+    private final Histogramme[] durees = new Histogramme[METHODES.length];
+    private final AtomicLong[] erreurs = new AtomicLong[METHODES.length];
+    private final Histogramme[] ages = new Histogramme[METHODES.length]; // ms
+    private final AtomicLong conflits = new AtomicLong();
+    private final AtomicLong insertionsRefusees = new AtomicLong();
+    private final AtomicLong substitutions = new AtomicLong();
+    private final AtomicLong placesRetournees = new AtomicLong();
+    private final AtomicLong placesLibres = new AtomicLong();
+
+    /**
+     * @param base
+     *            base dont les compteurs sont joints aux mesures,
+     *            <code>null</code> si aucune
+     */
+    public MesuresReservation(BaseReservation base) {
+        this.base = base;
+        for (int m = 0; m < METHODES.length; m++) {
+            durees[m] = new Histogramme();
+            erreurs[m] = new AtomicLong();
+            ages[m] = new Histogramme();
+        }
+    }
+
+    /**
+     * Enregistre la dure d'un appel.
+     *
+     * @param methode
+     *            indice de la mthode
+     * @param nanos
+     *            dure de l'appel
+     * @param erreur
+     *            vrai si l'appel a lev une exception
+     */
+    public void appel(int methode, long nanos, boolean erreur) {
+        durees[methode].enregistrer(nanos);
+        if (erreur) erreurs[methode].incrementAndGet();
+    }
+
+    /**
+     * Enregistre l'ge des donnes servies par une consultation.
+     *
+     * @param methode
+     *            indice de la mthode
+     * @param millis
+     *            temps coul depuis la lecture des donnes dans la base
+     */
+    public void age(int methode, long millis) {
+        ages[methode].enregistrer(millis);
+    }
+
+    /**
+     * Enregistre une rservation ou une option refuse faute de places.
+     */
+    public void conflit() {
+        conflits.incrementAndGet();
+    }
+
+    /**
+     * Enregistre une rservation refuse par la base : une place libre dans
+     * le plan de salle tait dj rserve par un autre processus. Compt
+     * par toutes les sessions de la base, instrumentes ou non.
+     */
+    public void insertionRefusee() {
+        insertionsRefusees.incrementAndGet();
+    }
+
+    /**
+     * Enregistre des places choisies perdues et remplaces au cours d'une
+     * rservation.
+     */
+    public void substitution(int places) {
+        substitutions.addAndGet(places);
+    }
+
+    /**
+     * Enregistre le rsultat d'une consultation de places.
+     */
+    public void places(int retournees, int libres) {
+        placesRetournees.addAndGet(retournees);
+        placesLibres.addAndGet(libres);
+    }
+
+    public Histogramme getDurees(int methode) {
+        return durees[methode];
+    }
+
+    @Override
+    public Map<String, Long> getInstantane() {
+        Map<String, Long> m = new TreeMap<String, Long>();
+        for (int i = 0; i < METHODES.length; i++) {
+            m.put(METHODES[i] + ".appels", durees[i].getNombre());
+            m.put(METHODES[i] + ".erreurs", erreurs[i].get());
+            durees(m, METHODES[i], durees[i]);
+            if (ages[i].getNombre() > 0) {
+                m.put(METHODES[i] + ".age.p50", ages[i].percentile(50));
+                m.put(METHODES[i] + ".age.p99", ages[i].percentile(99));
+                m.put(METHODES[i] + ".age.max", ages[i].getMax());
+            }
+        }
+        m.put("conflits", conflits.get());
+        m.put("insertionsRefusees", insertionsRefusees.get());
+        m.put("substitutions", substitutions.get());
+        m.put("listerPlaces.retournees", placesRetournees.get());
+        m.put("listerPlaces.libres", placesLibres.get());
+        if (base != null) {
+            durees(m, "connexion.attente", base.getPool().getAttente());
+            m.put("connexion.annulations", base.getPool().getAnnulations());
+            if (base.getPoolLecture() != base.getPool())
+                durees(m, "connexionLecture.attente", base.getPoolLecture().getAttente());
+            m.put("plans.lignesLues", base.getPlans().getLignesLues());
+            m.put("plans.reconciliations", base.getPlans().getReconciliations());
+            m.put("options.liberees", base.getNettoyeur().getLiberees());
+        }
+        return m;
+    }
+
+    private static void durees(Map<String, Long> m, String nom, Histogramme h) {
+        m.put(nom + ".p50", h.percentile(50) / 1000);
+        m.put(nom + ".p99", h.percentile(99) / 1000);
+        m.put(nom + ".p999", h.percentile(99.9) / 1000);
+        m.put(nom + ".max", h.getMax() / 1000);
+    }
+
+    @Override
+    public long getConflits() {
+        return conflits.get();
+    }
+
+    @Override
+    public long getErreurs() {
+        long n = 0;
+        for (AtomicLong e : erreurs) {
+            n += e.get();
+        }
+        return n;
+    }
+
+    @Override
+    public long getAnnulations() {
+        return base == null ? 0 : base.getPool().getAnnulations();
+    }
+
+    @Override
+    public long getAttenteConnexionP99Micros() {
+        return base == null ? 0 : base.getPool().getAttente().percentile(99) / 1000;
+    }
+
+    @Override
+    public long getListerPlacesP99Micros() {
+        return durees[PLACES].percentile(99) / 1000;
+    }
+
+    @Override
+    public long getListerPlacesAgeP99Millis() {
+        return ages[PLACES].percentile(99);
+    }
+
+    @Override
+    public long getReserverPlacesP99Micros() {
+        Histogramme h = durees[RESERVER_NOMBRE].copie();
+        h.ajouter(durees[RESERVER_LISTE]);
+        h.ajouter(durees[PANIER]);
+        h.ajouter(durees[SUBSTITUTION]);
+        return h.percentile(99) / 1000;
+    }
+
+    @Override
+    public void reinitialiser() {
+        for (int m = 0; m < METHODES.length; m++) {
+            durees[m].reinitialiser();
+            erreurs[m].set(0);
+            ages[m].reinitialiser();
+        }
+        conflits.set(0);
+        insertionsRefusees.set(0);
+        substitutions.set(0);
+        placesRetournees.set(0);
+        placesLibres.set(0);
+    }
+
+    /**
+     * Publie les mesures sur le serveur JMX de la plateforme, sous le nom
+     * <code>gesresa:type=MesuresReservation,name=</code><i>nom</i>.
+     *
+     * @return le nom JMX sous lequel les mesures sont publies
+     * @throws JMException
+     *             si le nom est invalide ou dj pris
+     */
+    public ObjectName publier(String nom) throws JMException {
+        ObjectName on = new ObjectName("gesresa:type=MesuresReservation,name=" + ObjectName.quote(nom));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        return on;
+    }
+
+}
@@ -0,0 +1,43 @@
+package gesresa;
+
+import java.util.Map;
+
+/**
+ * Interface JMX des mesures de rservation (voir {@link MesuresReservation}).
+ *
+ * @author Aurel
+ *
+ */
+public interface MesuresReservationMXBean {
+
+    /**
+     * @return toutes les mesures, par nom ; les dures sont en microsecondes,
+     *         les ges des donnes servies (<code>.age</code>) en
+     *         millisecondes
+     */
+    Map<String, Long> getInstantane();
+
+    long getConflits();
+
+    long getErreurs();
+
+    long getAnnulations();
+
+    long getAttenteConnexionP99Micros();
+
+    long getListerPlacesP99Micros();
+
+    /**
+     * @return le 99e percentile de l'ge de l'tat des places servi par les
+     *         consultations de places, en millisecondes
+     */
+    long getListerPlacesAgeP99Millis();
+
+    long getReserverPlacesP99Micros();
+
+    /**
+     * Remet  zro les mesures propres aux sessions (les compteurs du pool et
+     * des plans sont conservs).
+     */
+    void reinitialiser();
+}
@@ -0,0 +1,256 @@
+package gesresa;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moteur de plans de salle : garde en mmoire un {@link PlanSalle} par
+ * reprsentation consulte, de sorte que la consultation des places ne lise
+ * plus la base.
+ * <p>
+ * Un plan est charg une fois, puis tenu  jour par criture au travers
+ * (<code>reserver</code>/<code>liberer</code>)  chaque validation d'une
+ * rservation ou d'une annulation faite par ce processus. Les critures des
+ * autres processus sont prises en compte par rconciliation : un plan dont la
+ * dernire lecture est plus ancienne que la priode de rconciliation, ou qui
+ * a t marqu prim aprs un conflit d'criture, relit les rservations de
+ * sa reprsentation (une requte sur la seule table RESERVATIONS) avant
+ * d'tre servi.
+ * <p>
+ * Si un {@link JournalReservations} est attach, chaque plan charg y est
+ * dcrit et chacune de ses modifications y est ajoute, ce qui permet de
+ * restaurer les plans au redmarrage sans relire la base.
+ *
+ * @author Aurel
+ *
+ */
+public class MoteurPlans {
+
+    private static final String SQL_SIEGES = "select SID, BNAME, PRICE from REPRESENTATIONS "
+            + "natural join SEATS natural join COST where RID = ? order by SID";
+    private static final String SQL_RESERVEES = "select SID from RESERVATIONS where RID = ?";
+
+    /** nombre de lignes ramenes par aller-retour lors de la lecture d'un plan */
+    static final int TAILLE_LECTURE = 1000;
+
+    private final ConcurrentHashMap<Integer, PlanSalle> plans;
+    private volatile long periode;
+    private final AtomicLong lignesLues = new AtomicLong();
+    private final AtomicLong reconciliations = new AtomicLong();
+    private volatile JournalReservations journal;
+    private volatile ListeAttente attente;
+
+    /**
+     * @param periode
+     *            priode de rconciliation avec la base, en millisecondes
+     */
+    public MoteurPlans(long periode) {
+        this.plans = new ConcurrentHashMap<Integer, PlanSalle>();
+        this.periode = periode;
+    }
+
+    public long getPeriode() {
+        return periode;
+    }
+
+    /**
+     * @param periode
+     *            priode de rconciliation avec la base, en millisecondes
+     */
+    public void setPeriode(long periode) {
+        this.periode = periode;
+    }
+
+    /**
+     * @return le plan de la reprsentation s'il est charg et  jour, sinon
+     *         <code>null</code> (aucun accs  la base)
+     */
+    public PlanSalle planFrais(int rid) {
+        PlanSalle plan = plans.get(rid);
+        if (plan == null || plan.isPerime() || System.currentTimeMillis() - plan.getReconciliation() > periode)
+            return null;
+        return plan;
+    }
+
+    /**
+     * Retourne le plan d'une reprsentation, en le chargeant ou en le
+     * rconciliant avec la base si ncessaire.
+     *
+     * @param c
+     *            connexion  utiliser pour lire la base
+     * @param rid
+     *            identifiant de la reprsentation
+     * @return le plan  jour
+     * @throws SQLException
+     *             si la lecture choue
+     */
+    public PlanSalle plan(ConnexionPoolee c, int rid) throws SQLException {
+        PlanSalle plan = planFrais(rid);
+        if (plan != null) return plan;
+        plan = plans.get(rid);
+        if (plan == null) {
+            plan = charger(c, rid);
+            PlanSalle concurrent = plans.putIfAbsent(rid, plan);
+            if (concurrent != null) plan = concurrent;
+        }
+        reconcilier(c, plan);
+        return plan;
+    }
+
+    /**
+     * Relit immdiatement l'tat des places d'une reprsentation.
+     *
+     * @return le plan rconcili
+     */
+    public PlanSalle recharger(ConnexionPoolee c, int rid) throws SQLException {
+        marquerPerime(rid);
+        return plan(c, rid);
+    }
+
+    /**
+     * Reporte dans le plan des places dont la rservation vient d'tre valide.
+     */
+    public void reserver(int rid, int[] sids, int n) {
+        PlanSalle plan = plans.get(rid);
+        if (plan != null) plan.reserver(sids, n);
+    }
+
+    /**
+     * Reporte dans le plan des places dont l'annulation vient d'tre valide,
+     * et prvient la liste d'attente s'il y en a une.
+     */
+    public void liberer(int rid, int[] sids, int n) {
+        PlanSalle plan = plans.get(rid);
+        if (plan != null) plan.liberer(sids, n);
+        ListeAttente a = attente;
+        if (a != null && n > 0) a.liberees(rid);
+    }
+
+    /**
+     * Attache la liste d'attente  prvenir de chaque libration de places.
+     */
+    void setAttente(ListeAttente attente) {
+        this.attente = attente;
+    }
+
+    /**
+     * Force la rconciliation du plan lors de son prochain usage, par exemple
+     * aprs un conflit montrant qu'un autre processus a crit.
+     */
+    public void marquerPerime(int rid) {
+        PlanSalle plan = plans.get(rid);
+        if (plan != null) plan.marquerPerime();
+    }
+
+    public void invalider(int rid) {
+        PlanSalle plan = plans.remove(rid);
+        JournalReservations j = journal;
+        if (plan != null && j != null) j.oubli(rid);
+    }
+
+    /**
+     * Reprend des plans relus par {@link JournalReservations#relire(java.nio.file.Path)}
+     * et attache le journal qui recevra dsormais leurs modifications. 
+     * appeler au dmarrage, avant l'ouverture des sessions.
+     */
+    void restaurer(Map<Integer, PlanSalle> restaures, JournalReservations journal) {
+        this.journal = journal;
+        for (PlanSalle plan : restaures.values()) {
+            plan.journaliser(journal);
+            plans.put(plan.getRid(), plan);
+        }
+        for (PlanSalle plan : plans.values()) {
+            if (!restaures.containsKey(plan.getRid())) {
+                journal.chargement(plan);
+                plan.journaliser(journal);
+            }
+        }
+    }
+
+    /**
+     * @return les plans chargs
+     */
+    Collection<PlanSalle> tous() {
+        return plans.values();
+    }
+
+    /**
+     * @return le nombre de lignes lues dans la base pour charger et
+     *         rconcilier les plans
+     */
+    public long getLignesLues() {
+        return lignesLues.get();
+    }
+
+    public long getReconciliations() {
+        return reconciliations.get();
+    }
+
+    private PlanSalle charger(ConnexionPoolee c, int rid) throws SQLException {
+        PreparedStatement ps = c.preparer(SQL_SIEGES);
+        ps.setFetchSize(TAILLE_LECTURE); // 10 lignes par dfaut avec Oracle
+        ps.setInt(1, rid);
+        int[] sids = new int[256];
+        byte[] tarifs = new byte[256];
+        List<Tarif> table = new ArrayList<Tarif>();
+        int n = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                if (n == sids.length) {
+                    sids = Arrays.copyOf(sids, n * 2);
+                    tarifs = Arrays.copyOf(tarifs, n * 2);
+                }
+                sids[n] = rs.getInt(1);
+                tarifs[n] = (byte) indiceTarif(table, rs.getString(2), rs.getFloat(3));
+                n++;
+            }
+        }
+        lignesLues.addAndGet(n);
+        PlanSalle plan = new PlanSalle(rid, Arrays.copyOf(sids, n), Arrays.copyOf(tarifs, n),
+                table.toArray(new Tarif[table.size()]));
+        JournalReservations j = journal;
+        if (j != null) {
+            j.chargement(plan); // avant toute modification du plan
+            plan.journaliser(j);
+        }
+        return plan;
+    }
+
+    private static int indiceTarif(List<Tarif> table, String libelle, float prix) {
+        for (int t = 0; t < table.size(); t++) {
+            if (table.get(t).getLibelle().equals(libelle) && table.get(t).getPrix() == prix) return t;
+        }
+        if (table.size() == Byte.MAX_VALUE) throw new IllegalStateException("trop de tarifs pour une reprsentation");
+        table.add(new Tarif(libelle, prix));
+        return table.size() - 1;
+    }
+
+    private void reconcilier(ConnexionPoolee c, PlanSalle plan) throws SQLException {
+        long date = System.currentTimeMillis();
+        long version = plan.getVersion();
+        PreparedStatement ps = c.preparer(SQL_RESERVEES);
+        ps.setFetchSize(TAILLE_LECTURE);
+        ps.setInt(1, plan.getRid());
+        int[] sids = new int[64];
+        int n = 0;
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                if (n == sids.length) sids = Arrays.copyOf(sids, n * 2);
+                sids[n++] = rs.getInt(1);
+            }
+        }
+        lignesLues.addAndGet(n);
+        reconciliations.incrementAndGet();
+        // en cas d'criture locale pendant la lecture, le plan reste  rconcilier
+        if (!plan.reconcilier(sids, n, version, date)) plan.marquerPerime();
+    }
+
+}
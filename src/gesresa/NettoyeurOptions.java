@@ -0,0 +1,190 @@
+package gesresa;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tche de fond librant les options expires : les lignes de RESERVATIONS
+ * dont l'chance (<code>EXPIRY</code>) est dpasse sont supprimes par lots,
+ * chaque lot faisant l'objet d'une transaction. Les places libres sont
+ * reportes dans les plans de salle.
+ * <p>
+ * La suppression porte la condition d'chance : une option confirme entre
+ * la lecture et la suppression (<code>EXPIRY</code> remise 
+ * <code>NULL</code>) n'est donc pas libre. Plusieurs processus peuvent
+ * nettoyer en mme temps, seule la suppression effective est compte.
+ * <p>
+ * Sans tche de fond, le nettoyage n'est fait qu' la demande, par le thread
+ * qui appelle {@link #passer()}, au plus une fois par priode.
+ *
+ * @author Aurel
+ *
+ */
+public class NettoyeurOptions implements Runnable, AutoCloseable {
+
+    private static final String SQL_EXPIREES = "select SID, RNAME, RID from RESERVATIONS "
+            + "where EXPIRY is not null and EXPIRY < ? order by RID";
+    private static final String SQL_LIBERER = "delete from RESERVATIONS "
+            + "where SID = ? and RNAME = ? and RID = ? and EXPIRY is not null and EXPIRY < ?";
+
+    private final BaseReservation base;
+    private final int lot;
+    private final long periode;
+    private final ScheduledExecutorService executeur; // null : nettoyage  la demande
+    private final AtomicLong prochain = new AtomicLong();
+    private long liberees;
+
+    /**
+     * Dmarre le nettoyage priodique.
+     *
+     * @param base
+     *            base dont les options sont  nettoyer
+     * @param periode
+     *            priode entre deux passages, en millisecondes
+     * @param lot
+     *            nombre maximal d'options supprimes par transaction
+     */
+    public NettoyeurOptions(BaseReservation base, long periode, int lot) {
+        this(base, periode, lot, true);
+    }
+
+    /**
+     * @param base
+     *            base dont les options sont  nettoyer
+     * @param periode
+     *            priode entre deux passages, en millisecondes
+     * @param lot
+     *            nombre maximal d'options supprimes par transaction
+     * @param tache
+     *            vrai pour dmarrer le nettoyage priodique sur un thread
+     *            ddi, faux pour ne nettoyer qu' la demande
+     */
+    public NettoyeurOptions(BaseReservation base, long periode, int lot, boolean tache) {
+        this.base = base;
+        this.lot = lot;
+        this.periode = periode;
+        if (!tache) {
+            this.executeur = null;
+            return;
+        }
+        this.executeur = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "nettoyeur-options");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        executeur.scheduleWithFixedDelay(this, periode, periode, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (nettoyer() == lot) {
+                // lot plein : il reste probablement des options expires
+            }
+        } catch (SQLException e) {
+            System.out.println("nettoyage des options impossible : " + e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // la tche priodique ne doit pas s'arrter
+        }
+    }
+
+    /**
+     * Nettoie depuis le thread appelant si le nettoyage n'a pas de tche de
+     * fond et que la priode est coule depuis le dernier passage ; sans
+     * effet sinon. Un seul des threads appelants fait le passage.
+     */
+    public void passer() {
+        if (executeur != null) return;
+        long maintenant = System.currentTimeMillis();
+        long p = prochain.get();
+        if (maintenant < p || !prochain.compareAndSet(p, maintenant + periode)) return;
+        run();
+    }
+
+    /**
+     * Supprime un lot d'options expires.
+     *
+     * @return le nombre d'options examines
+     * @throws SQLException
+     *             si une erreur survient lors de la manipulation des donnes
+     */
+    public int nettoyer() throws SQLException {
+        Timestamp maintenant = new Timestamp(System.currentTimeMillis());
+        int[] sids = new int[lot];
+        int[] rids = new int[lot];
+        int n = 0;
+        try (ConnexionPoolee c = base.getPool().obtenir()) {
+            try {
+                PreparedStatement expirees = c.preparer(SQL_EXPIREES);
+                expirees.setTimestamp(1, maintenant);
+                expirees.setMaxRows(lot);
+                PreparedStatement liberer = c.preparer(SQL_LIBERER);
+                try (ResultSet rs = expirees.executeQuery()) {
+                    while (n < lot && rs.next()) {
+                        sids[n] = rs.getInt(1);
+                        rids[n] = rs.getInt(3);
+                        liberer.setInt(1, sids[n]);
+                        liberer.setString(2, rs.getString(2));
+                        liberer.setInt(3, rids[n]);
+                        liberer.setTimestamp(4, maintenant);
+                        liberer.addBatch();
+                        n++;
+                    }
+                }
+                if (n == 0) return 0;
+                int[] supprimees = liberer.executeBatch();
+                c.commit();
+                reporter(sids, rids, supprimees, n);
+                return n;
+            } catch (SQLException e) {
+                c.preparer(SQL_LIBERER).clearBatch();
+                c.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Reporte les librations effectives dans les plans, reprsentation par
+     * reprsentation (les options sont lues par RID croissant).
+     */
+    private void reporter(int[] sids, int[] rids, int[] supprimees, int n) {
+        int[] liberees = new int[n];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            // certains pilotes ne donnent pas le dtail par ligne
+            if (supprimees[i] > 0 || supprimees[i] == Statement.SUCCESS_NO_INFO) liberees[k++] = sids[i];
+            if (i == n - 1 || rids[i + 1] != rids[i]) {
+                if (k > 0) base.getPlans().liberer(rids[i], liberees, k);
+                synchronized (this) {
+                    this.liberees += k;
+                }
+                k = 0;
+            }
+        }
+    }
+
+    public synchronized long getLiberees() {
+        return liberees;
+    }
+
+    /**
+     * Arrte le nettoyage priodique.
+     */
+    @Override
+    public void close() {
+        if (executeur != null) executeur.shutdownNow();
+    }
+
+}
@@ -0,0 +1,111 @@
+package gesresa;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Panier d'un client : des places choisies ou des nombres de places  un
+ * tarif, sur une ou plusieurs reprsentations,  rserver ensemble par
+ * {@link GestionReservation#reserverPanier(Panier)}. Soit tout le panier est
+ * rserv, soit rien ne l'est.
+ * <p>
+ * Un panier n'est qu'une demande : il ne retient aucune place et peut tre
+ * rutilis aprs un chec.
+ *
+ * @author Aurel
+ *
+ */
+public class Panier {
+
+    /**
+     * Ligne du panier : une liste de places, ou un nombre de places  un
+     * tarif, pour une reprsentation.
+     */
+    public static final class Ligne {
+        private final Representation representation;
+        private final List<Place> places;
+        private final int nombre;
+        private final Tarif tarif;
+
+        private Ligne(Representation representation, List<Place> places, int nombre, Tarif tarif) {
+            this.representation = representation;
+            this.places = places;
+            this.nombre = nombre;
+            this.tarif = tarif;
+        }
+
+        public Representation getRepresentation() {
+            return representation;
+        }
+
+        /**
+         * @return les places choisies, <code>null</code> pour une ligne par
+         *         nombre de places
+         */
+        public List<Place> getPlaces() {
+            return places;
+        }
+
+        public int getNombre() {
+            return nombre;
+        }
+
+        /**
+         * @return le tarif des places d'une ligne par nombre,
+         *         <code>null</code> si indiffrent
+         */
+        public Tarif getTarif() {
+            return tarif;
+        }
+    }
+
+    private final List<Ligne> lignes = new ArrayList<Ligne>();
+
+    /**
+     * Ajoute des places choisies.
+     *
+     * @return ce panier
+     */
+    public Panier ajouter(Representation representation, List<Place> places) {
+        if (representation == null || places == null) throw new IllegalArgumentException("ligne de panier incomplte");
+        lignes.add(new Ligne(representation, new ArrayList<Place>(places), 0, null));
+        return this;
+    }
+
+    /**
+     * Ajoute un nombre de places  un tarif, <code>null</code> si
+     * indiffrent.
+     *
+     * @return ce panier
+     */
+    public Panier ajouter(Representation representation, int nombre, Tarif tarif) {
+        if (representation == null || nombre <= 0) throw new IllegalArgumentException("ligne de panier incomplte");
+        lignes.add(new Ligne(representation, null, nombre, tarif));
+        return this;
+    }
+
+    public List<Ligne> getLignes() {
+        return Collections.unmodifiableList(lignes);
+    }
+
+    public boolean estVide() {
+        return lignes.isEmpty();
+    }
+
+    /**
+     * @return vrai si une ligne laisse le choix des places  la rservation
+     */
+    boolean contientNombres() {
+        for (Ligne l : lignes) {
+            if (l.places == null) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "Panier [lignes=" + lignes.size() + "]";
+    }
+
+}
@@ -0,0 +1,732 @@
+package gesresa;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * tat des places d'une reprsentation, gard en mmoire sous forme compacte :
+ * les numros de places tris, l'indice du tarif de chaque place et un bitmap
+ * des places rserves. Les tarifs sont partags par toutes les places qui
+ * les utilisent.
+ * <p>
+ * Chaque modification incrmente la version du plan, ce qui permet de
+ * dtecter qu'une relecture de la base (rconciliation) a t dpasse par
+ * une criture locale. Les places modifies par les dernires versions sont
+ * consignes dans un journal circulaire born, d'o
+ * {@link #changements(Representation, long)} tire les places changes depuis
+ * une version donne. La version initiale d'un plan dpasse celles de tous
+ * les plans chargs avant lui : une version obtenue d'un plan oubli puis
+ * recharg n'est jamais prise pour une version du nouveau plan.
+ * <p>
+ * Un arbre de segments sur les indices des places, tenu  jour  chaque
+ * modification, donne pour tout intervalle la plus longue suite de places
+ * libres contigus de chaque tarif. Deux places sont contigus si leurs
+ * numros se suivent et qu'elles sont au mme tarif. La recherche d'un bloc
+ * de places contigus se fait ainsi en temps logarithmique.
+ * <p>
+ * Les places prises par une criture locale dont la transaction n'est pas
+ * encore valide ({@link #prendre(Tarif, int, int, int[])},
+ * {@link #substituer(int, Substitution, int[])},
+ * {@link #reserverTout(int[], int)}) sont gardes dans un second bitmap
+ * jusqu' ce que l'crivain les confirme par {@link #reserver(int[], int)} ou
+ * les rende par {@link #liberer(int[], int)} : une rconciliation, qui ne
+ * voit pas les insertions non valides, les laisse rserves.
+ *
+ * @author Aurel
+ *
+ */
+public class PlanSalle {
+
+    /** nombre de changements de places consigns par plan */
+    static final int TAILLE_CHANGEMENTS = 512;
+
+    // gnration du plan, en tte de sa version : part de la date en secondes pour ne pas reprendre
+    // les versions d'une excution prcdente
+    private static final AtomicLong GENERATIONS = new AtomicLong(System.currentTimeMillis() / 1000);
+
+    private final int rid;
+    private final int[] sids;
+    private final byte[] tarifs;
+    private final Tarif[] tableTarifs;
+    private final long[] reservees;
+    private final long[] prises; // places prises par une criture locale non encore confirme ou rendue
+    private final int[] libres; // nombre de places libres par tarif
+    private final boolean[] contigu; // contigu[i] : places i et i + 1 voisines et au mme tarif
+    // arbre de segments (noeud 1 = racine) : suites libres en tte et en fin de
+    // noeud, et plus longue suite libre par tarif
+    private final int[] tete;
+    private final int[] fin;
+    private final int[][] meilleure;
+    private int courant; // suite libre en cours lors d'une recherche (sous verrou)
+    private int debutCourant;
+    private long version;
+    // journal circulaire des changements : indice de la place et version qui l'a change
+    private int[] changees; // allou au premier changement
+    private long[] versionsChangees;
+    private long consignes; // nombre total de changements consigns
+    private long versionMin; // plus ancienne version dont les changements ultrieurs sont tous consigns
+    private volatile long reconciliation; // date de la dernire lecture de la base
+    private volatile boolean perime;
+    private JournalReservations journal; // reoit chaque modification, s'il existe
+
+    /**
+     * @param rid
+     *            identifiant de la reprsentation
+     * @param sids
+     *            numros des places, tris par ordre croissant
+     * @param tarifs
+     *            indice dans <code>tableTarifs</code> du tarif de chaque place
+     * @param tableTarifs
+     *            tarifs distincts de la reprsentation
+     */
+    PlanSalle(int rid, int[] sids, byte[] tarifs, Tarif[] tableTarifs) {
+        this.rid = rid;
+        this.sids = sids;
+        this.tarifs = tarifs;
+        this.tableTarifs = tableTarifs;
+        this.reservees = new long[(sids.length + 63) >>> 6];
+        this.prises = new long[reservees.length];
+        this.libres = new int[tableTarifs.length];
+        for (byte t : tarifs) {
+            libres[t]++;
+        }
+        int n = Math.max(sids.length, 1);
+        this.contigu = new boolean[n];
+        for (int i = 0; i + 1 < sids.length; i++) {
+            contigu[i] = sids[i + 1] == sids[i] + 1 && tarifs[i + 1] == tarifs[i];
+        }
+        this.tete = new int[4 * n];
+        this.fin = new int[4 * n];
+        this.meilleure = new int[tableTarifs.length][4 * n];
+        if (sids.length > 0) construire(1, 0, sids.length - 1);
+        this.version = GENERATIONS.incrementAndGet() << 24;
+        this.versionMin = version;
+    }
+
+    public int getRid() {
+        return rid;
+    }
+
+    public int taille() {
+        return sids.length;
+    }
+
+    /**
+     * @return l'indice de la place dans le plan, ngatif si elle n'existe pas
+     */
+    public int indice(int sid) {
+        return Arrays.binarySearch(sids, sid);
+    }
+
+    public int sid(int indice) {
+        return sids[indice];
+    }
+
+    public Tarif tarif(int indice) {
+        return tableTarifs[tarifs[indice]];
+    }
+
+    public synchronized boolean estLibre(int indice) {
+        return (reservees[indice >>> 6] & (1L << indice)) == 0;
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return le nombre de places libres au tarif donn, toutes places
+     *         confondues si le tarif est <code>null</code>
+     */
+    public synchronized int libres(Tarif tarif) {
+        int n = 0;
+        for (int t = 0; t < tableTarifs.length; t++) {
+            if (tarif == null || memeTarif(tableTarifs[t], tarif)) n += libres[t];
+        }
+        return n;
+    }
+
+    /**
+     * @return le nombre de places libres de chaque tarif, dans l'ordre des
+     *         tarifs du plan
+     */
+    public synchronized Map<Tarif, Integer> libresParTarif() {
+        Map<Tarif, Integer> m = new LinkedHashMap<Tarif, Integer>();
+        for (int t = 0; t < tableTarifs.length; t++) {
+            m.put(tableTarifs[t], libres[t]);
+        }
+        return m;
+    }
+
+    /**
+     * Marque des places comme rserves ; les places prises par l'appelant
+     * sont ainsi confirmes, une fois sa transaction valide.
+     *
+     * @param numeros
+     *            numros des places
+     * @param n
+     *            nombre de numros  prendre en compte dans le tableau
+     * @return le nombre de places dont le statut a chang
+     */
+    public synchronized int reserver(int[] numeros, int n) {
+        rendrePrises(numeros, n);
+        return marquer(numeros, n, true);
+    }
+
+    /**
+     * Marque des places comme rserves  condition qu'elles soient toutes
+     * connues du plan, libres et distinctes ; sinon aucune n'est marque.
+     *
+     * @return vrai si les places ont t marques
+     */
+    public synchronized boolean reserverTout(int[] numeros, int n) {
+        for (int k = 0; k < n; k++) {
+            int i = indice(numeros[k]);
+            if (i < 0 || (reservees[i >>> 6] & (1L << i)) != 0) return false;
+        }
+        if (marquer(numeros, n, true) == n) {
+            garderPrises(numeros, n);
+            return true;
+        }
+        marquer(numeros, n, false); // numro en double : toutes taient libres
+        return false;
+    }
+
+    /**
+     * Marque des places comme libres ; les places prises par l'appelant sont
+     * ainsi rendues.
+     *
+     * @return le nombre de places dont le statut a chang
+     */
+    public synchronized int liberer(int[] numeros, int n) {
+        rendrePrises(numeros, n);
+        return marquer(numeros, n, false);
+    }
+
+    /**
+     * Choisit des places libres  un tarif donn et les marque comme
+     * rserves, en une seule opration. La meilleure place disponible est un
+     * bloc de places contigus ;  dfaut, les places sont groupes au plus
+     * prs du plus long bloc libre. La recherche commence  l'indice
+     * <code>depart</code> et fait le tour de la salle : des demandes
+     * concurrentes partant d'indices diffrents visent des blocs diffrents,
+     * et deux demandes de ce processus ne peuvent viser la mme place.
+     *
+     * @param tarif
+     *            tarif des places, <code>null</code> si indiffrent
+     * @param nombre
+     *            nombre de places demandes
+     * @param depart
+     *            indice de dpart de la recherche
+     * @param numeros
+     *            reoit les numros des places prises
+     * @return <code>nombre</code>, ou 0 si le plan ne compte pas assez de
+     *         places libres (aucune place n'est alors prise)
+     */
+    public synchronized int prendre(Tarif tarif, int nombre, int depart, int[] numeros) {
+        if (nombre <= 0 || libres(tarif) < nombre) return 0;
+        boolean[] accepte = acceptes(tarif);
+        int debut = bloc(nombre, depart, accepte);
+        if (debut >= 0) {
+            for (int k = 0; k < nombre; k++) {
+                numeros[k] = sids[debut + k];
+            }
+        } else {
+            grouper(nombre, depart, accepte, numeros);
+        }
+        garderPrises(numeros, nombre);
+        return marquer(numeros, nombre, true);
+    }
+
+    /**
+     * Cherche une place libre pour remplacer une place perdue, la plus proche
+     * dans l'ordre des numros ( galit, celle qui suit), et la marque comme
+     * rserve.
+     *
+     * @param sid
+     *            numro de la place perdue
+     * @param substitution
+     *            politique de remplacement
+     * @param exclues
+     *            numros tris des places  ne pas retenir (celles dj
+     *            choisies par le client)
+     * @return le numro de la place prise, -1 si aucune ne convient
+     */
+    public synchronized int substituer(int sid, Substitution substitution, int[] exclues) {
+        int i = indice(sid);
+        if (i < 0) return -1;
+        int ecartMax = Math.min(substitution.getEcartMax(), sids.length);
+        for (int d = 1; d <= ecartMax; d++) {
+            for (int j = i + d; j >= i - d; j -= 2 * d) {
+                if (j < 0 || j >= sids.length || (reservees[j >>> 6] & (1L << j)) != 0) continue;
+                if (!substitution.accepte(tarif(i), tarif(j), d) || Arrays.binarySearch(exclues, sids[j]) >= 0)
+                    continue;
+                int[] numero = { sids[j] };
+                garderPrises(numero, 1);
+                marquer(numero, 1, true);
+                return sids[j];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return la longueur du plus long bloc de places libres contigus au
+     *         tarif donn, tous tarifs confondus si le tarif est
+     *         <code>null</code>
+     */
+    public synchronized int blocMax(Tarif tarif) {
+        return sids.length == 0 ? 0 : meilleure(1, acceptes(tarif));
+    }
+
+    private boolean[] acceptes(Tarif tarif) {
+        boolean[] accepte = new boolean[tableTarifs.length];
+        for (int t = 0; t < tableTarifs.length; t++) {
+            accepte[t] = tarif == null || memeTarif(tableTarifs[t], tarif);
+        }
+        return accepte;
+    }
+
+    /**
+     * @return l'indice de dbut du premier bloc d'au moins
+     *         <code>nombre</code> places libres contigus  partir de
+     *         <code>depart</code> (en faisant le tour de la salle), -1 s'il
+     *         n'en existe pas
+     */
+    private int bloc(int nombre, int depart, boolean[] accepte) {
+        if (sids.length == 0 || meilleure(1, accepte) < nombre) return -1;
+        courant = 0;
+        int debut = chercher(1, 0, sids.length - 1, depart % sids.length, nombre, accepte);
+        if (debut < 0) {
+            courant = 0;
+            debut = chercher(1, 0, sids.length - 1, 0, nombre, accepte);
+        }
+        return debut;
+    }
+
+    /**
+     * Repli faute de bloc assez long : prend le plus long bloc libre, puis les
+     * places libres les plus proches de part et d'autre.
+     */
+    private void grouper(int nombre, int depart, boolean[] accepte, int[] numeros) {
+        int longueur = meilleure(1, accepte);
+        int debut = bloc(longueur, depart, accepte);
+        int n = 0;
+        for (int i = debut; i < debut + longueur; i++) {
+            numeros[n++] = sids[i];
+        }
+        int gauche = prochaine(debut - 1, -1, accepte);
+        int droite = prochaine(debut + longueur, 1, accepte);
+        while (n < nombre) { // libres(tarif) >= nombre : il reste des places d'un ct ou de l'autre
+            boolean aGauche = droite < 0
+                    || (gauche >= 0 && sids[debut] - sids[gauche] <= sids[droite] - sids[debut + longueur - 1]);
+            if (aGauche) {
+                numeros[n++] = sids[gauche];
+                gauche = prochaine(gauche - 1, -1, accepte);
+            } else {
+                numeros[n++] = sids[droite];
+                droite = prochaine(droite + 1, 1, accepte);
+            }
+        }
+    }
+
+    /**
+     * @return l'indice de la premire place libre accepte  partir de
+     *         <code>i</code> dans le sens donn, -1 s'il n'y en a pas
+     */
+    private int prochaine(int i, int sens, boolean[] accepte) {
+        for (; i >= 0 && i < sids.length; i += sens) {
+            if (accepte[tarifs[i]] && (reservees[i >>> 6] & (1L << i)) == 0) return i;
+        }
+        return -1;
+    }
+
+    private int meilleure(int noeud, boolean[] accepte) {
+        int m = 0;
+        for (int t = 0; t < accepte.length; t++) {
+            if (accepte[t]) m = Math.max(m, meilleure[t][noeud]);
+        }
+        return m;
+    }
+
+    /**
+     * Cherche le premier bloc commenant  partir de l'indice
+     * <code>depart</code>, en parcourant de gauche  droite les noeuds qui
+     * couvrent <code>[depart, fin de salle]</code> et en prolongeant d'un
+     * noeud  l'autre la suite libre en cours.
+     */
+    private int chercher(int noeud, int bas, int haut, int depart, int nombre, boolean[] accepte) {
+        if (haut < depart) return -1;
+        if (bas >= depart) {
+            if (courant > 0 && contigu[bas - 1] && courant + tete[noeud] >= nombre) return debutCourant;
+            if (meilleure(noeud, accepte) >= nombre) return descendre(noeud, bas, haut, nombre, accepte);
+            if (tete[noeud] == haut - bas + 1 && courant > 0 && contigu[bas - 1]) {
+                courant += haut - bas + 1;
+            } else if (fin[noeud] > 0 && accepte[tarifs[haut]]) {
+                courant = fin[noeud];
+                debutCourant = haut - fin[noeud] + 1;
+            } else {
+                courant = 0;
+            }
+            return -1;
+        }
+        int milieu = (bas + haut) >>> 1;
+        int debut = chercher(2 * noeud, bas, milieu, depart, nombre, accepte);
+        if (debut >= 0) return debut;
+        return chercher(2 * noeud + 1, milieu + 1, haut, depart, nombre, accepte);
+    }
+
+    /**
+     * @return le dbut du premier bloc d'au moins <code>nombre</code> places
+     *         contenu dans le noeud, qui en contient au moins un
+     */
+    private int descendre(int noeud, int bas, int haut, int nombre, boolean[] accepte) {
+        while (bas < haut) {
+            int milieu = (bas + haut) >>> 1;
+            int g = 2 * noeud;
+            int d = g + 1;
+            if (meilleure(g, accepte) >= nombre) {
+                noeud = g;
+                haut = milieu;
+            } else if (contigu[milieu] && accepte[tarifs[milieu]] && fin[g] > 0 && fin[g] + tete[d] >= nombre) {
+                return milieu - fin[g] + 1;
+            } else {
+                noeud = d;
+                bas = milieu + 1;
+            }
+        }
+        return bas;
+    }
+
+    private void construire(int noeud, int bas, int haut) {
+        if (bas == haut) {
+            feuille(noeud, bas);
+            return;
+        }
+        int milieu = (bas + haut) >>> 1;
+        construire(2 * noeud, bas, milieu);
+        construire(2 * noeud + 1, milieu + 1, haut);
+        fusionner(noeud, bas, milieu, haut);
+    }
+
+    private void actualiser(int noeud, int bas, int haut, int i) {
+        if (bas == haut) {
+            feuille(noeud, i);
+            return;
+        }
+        int milieu = (bas + haut) >>> 1;
+        if (i <= milieu) actualiser(2 * noeud, bas, milieu, i);
+        else actualiser(2 * noeud + 1, milieu + 1, haut, i);
+        fusionner(noeud, bas, milieu, haut);
+    }
+
+    private void feuille(int noeud, int i) {
+        int libre = (reservees[i >>> 6] & (1L << i)) == 0 ? 1 : 0;
+        tete[noeud] = libre;
+        fin[noeud] = libre;
+        for (int t = 0; t < meilleure.length; t++) {
+            meilleure[t][noeud] = t == tarifs[i] ? libre : 0;
+        }
+    }
+
+    private void fusionner(int noeud, int bas, int milieu, int haut) {
+        int g = 2 * noeud;
+        int d = g + 1;
+        boolean lie = contigu[milieu];
+        tete[noeud] = lie && tete[g] == milieu - bas + 1 ? tete[g] + tete[d] : tete[g];
+        fin[noeud] = lie && fin[d] == haut - milieu ? fin[d] + fin[g] : fin[d];
+        for (int t = 0; t < meilleure.length; t++) {
+            int m = Math.max(meilleure[t][g], meilleure[t][d]);
+            if (lie && t == tarifs[milieu]) m = Math.max(m, fin[g] + tete[d]);
+            meilleure[t][noeud] = m;
+        }
+    }
+
+    private void garderPrises(int[] numeros, int n) {
+        for (int k = 0; k < n; k++) {
+            int i = indice(numeros[k]);
+            if (i >= 0) prises[i >>> 6] |= 1L << i;
+        }
+    }
+
+    private void rendrePrises(int[] numeros, int n) {
+        for (int k = 0; k < n; k++) {
+            int i = indice(numeros[k]);
+            if (i >= 0) prises[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    private int marquer(int[] numeros, int n, boolean reservee) {
+        int changees = 0;
+        for (int k = 0; k < n; k++) {
+            int i = indice(numeros[k]);
+            if (i < 0) continue; // place inconnue du plan
+            long masque = 1L << i;
+            boolean etait = (reservees[i >>> 6] & masque) != 0;
+            if (etait == reservee) continue;
+            reservees[i >>> 6] ^= masque;
+            libres[tarifs[i]] += reservee ? -1 : 1;
+            actualiser(1, 0, sids.length - 1, i);
+            consigner(i, version + 1);
+            changees++;
+        }
+        if (changees > 0) {
+            version++;
+            if (journal != null) journal.modification(rid, reservee, numeros, n);
+        }
+        return changees;
+    }
+
+    /**
+     * Remplace l'tat des places par celui lu dans la base,  condition
+     * qu'aucune criture locale n'ait eu lieu depuis la lecture. Les places
+     * prises par une criture locale en cours restent rserves : la lecture
+     * ne voit pas ses insertions, valides ou non.
+     *
+     * @param numeros
+     *            numros des places rserves d'aprs la base
+     * @param n
+     *            nombre de numros  prendre en compte
+     * @param versionLue
+     *            version du plan au moment de la lecture
+     * @return vrai si l'tat a t remplac
+     */
+    synchronized boolean reconcilier(int[] numeros, int n, long versionLue, long date) {
+        if (version != versionLue) return false; // criture concurrente : la lecture est peut-tre dpasse
+        long[] etat = new long[reservees.length];
+        for (int k = 0; k < n; k++) {
+            int i = indice(numeros[k]);
+            if (i >= 0) etat[i >>> 6] |= 1L << i;
+        }
+        for (int k = 0; k < etat.length; k++) {
+            etat[k] |= prises[k];
+        }
+        if (!Arrays.equals(etat, reservees)) {
+            if (journal != null) journal.difference(rid, sids, reservees, etat);
+            for (int k = 0; k < etat.length; k++) {
+                for (long d = etat[k] ^ reservees[k]; d != 0; d &= d - 1) {
+                    consigner((k << 6) + Long.numberOfTrailingZeros(d), version + 1);
+                }
+            }
+            remplacer(etat);
+        }
+        reconciliation = date;
+        perime = false;
+        return true;
+    }
+
+    private void remplacer(long[] etat) {
+        System.arraycopy(etat, 0, reservees, 0, etat.length);
+        Arrays.fill(libres, 0);
+        for (int i = 0; i < sids.length; i++) {
+            if ((etat[i >>> 6] & (1L << i)) == 0) libres[tarifs[i]]++;
+        }
+        if (sids.length > 0) construire(1, 0, sids.length - 1);
+        version++;
+    }
+
+    /**
+     * Consigne le changement d'une place par une version, en crasant le plus
+     * ancien changement si le journal circulaire est plein.
+     */
+    private void consigner(int indice, long v) {
+        if (changees == null) {
+            changees = new int[TAILLE_CHANGEMENTS];
+            versionsChangees = new long[TAILLE_CHANGEMENTS];
+        }
+        int k = (int) (consignes % TAILLE_CHANGEMENTS);
+        // les changements de la version crase ne sont plus tous connus
+        if (consignes >= TAILLE_CHANGEMENTS) versionMin = Math.max(versionMin, versionsChangees[k]);
+        changees[k] = indice;
+        versionsChangees[k] = v;
+        consignes++;
+    }
+
+    /**
+     * Donne les places dont le statut a chang depuis une version, avec leur
+     * statut actuel, ou toutes les places si ces changements ne sont plus
+     * consigns. Le statut est copi sous verrou, les places sont construites
+     * hors verrou.
+     *
+     * @param depuis
+     *            version connue du client, {@link ChangementsPlaces#AUCUNE_VERSION}
+     *            pour obtenir toutes les places
+     */
+    public ChangementsPlaces changements(Representation representation, long depuis) {
+        long v;
+        long[] etat;
+        int[] indices = null;
+        int n = 0;
+        synchronized (this) {
+            v = version;
+            etat = reservees.clone();
+            if (depuis >= versionMin && depuis <= version) {
+                indices = new int[(int) Math.min(consignes, TAILLE_CHANGEMENTS)];
+                for (long c = consignes - indices.length; c < consignes; c++) {
+                    int k = (int) (c % TAILLE_CHANGEMENTS);
+                    if (versionsChangees[k] > depuis) indices[n++] = changees[k];
+                }
+            }
+        }
+        if (indices == null) {
+            return new ChangementsPlaces(representation, v, true, places(representation, etat));
+        }
+        Arrays.sort(indices, 0, n);
+        List<Place> l = new ArrayList<Place>(n);
+        for (int k = 0; k < n; k++) {
+            int i = indices[k];
+            if (k > 0 && i == indices[k - 1]) continue; // place change par plusieurs versions
+            l.add(new Place(representation, sids[i], tableTarifs[tarifs[i]], (etat[i >>> 6] & (1L << i)) == 0));
+        }
+        return new ChangementsPlaces(representation, v, false, l);
+    }
+
+    /**
+     * Rattache le plan  un journal, qui recevra dsormais chacune de ses
+     * modifications.
+     */
+    synchronized void journaliser(JournalReservations journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * crit la description du plan : places, tarifs et, si demand, tat des
+     * places (copi sous verrou).
+     */
+    void ecrire(DataOutputStream out, boolean avecEtat) throws IOException {
+        out.writeInt(rid);
+        out.writeInt(sids.length);
+        out.writeInt(tableTarifs.length);
+        for (Tarif t : tableTarifs) {
+            out.writeUTF(t.getLibelle());
+            out.writeFloat(t.getPrix());
+        }
+        for (int sid : sids) {
+            out.writeInt(sid);
+        }
+        out.write(tarifs);
+        if (avecEtat) {
+            long[] etat;
+            synchronized (this) {
+                etat = reservees.clone();
+            }
+            for (long mot : etat) {
+                out.writeLong(mot);
+            }
+        }
+    }
+
+    /**
+     * Relit un plan crit par {@link #ecrire(DataOutputStream, boolean)}.
+     *
+     * @param date
+     *            date de dernire rconciliation  attribuer au plan
+     */
+    static PlanSalle lire(DataInputStream in, boolean avecEtat, long date) throws IOException {
+        int rid = in.readInt();
+        int[] sids = new int[in.readInt()];
+        Tarif[] table = new Tarif[in.readInt()];
+        for (int t = 0; t < table.length; t++) {
+            table[t] = new Tarif(in.readUTF(), in.readFloat());
+        }
+        for (int i = 0; i < sids.length; i++) {
+            sids[i] = in.readInt();
+        }
+        byte[] tarifs = new byte[sids.length];
+        in.readFully(tarifs);
+        PlanSalle plan = new PlanSalle(rid, sids, tarifs, table);
+        if (avecEtat) {
+            long[] etat = new long[plan.reservees.length];
+            for (int k = 0; k < etat.length; k++) {
+                etat[k] = in.readLong();
+            }
+            plan.remplacer(etat);
+        }
+        plan.reconciliation = date;
+        return plan;
+    }
+
+    /**
+     * Prsente chaque place au visiteur, dans l'ordre des numros. Le bitmap
+     * est copi sous verrou, le parcours se fait hors verrou.
+     *
+     * @param visiteur
+     *            traitement  appliquer
+     * @param libresEnPlus
+     *            numros de places  prsenter comme libres quel que soit
+     *            leur tat (les options du client en mode stable),
+     *            <code>null</code> si aucun
+     * @param n
+     *            nombre de numros  prendre en compte dans
+     *            <code>libresEnPlus</code>
+     */
+    public void parcourir(VisiteurPlaces visiteur, int[] libresEnPlus, int n) {
+        long[] etat;
+        synchronized (this) {
+            etat = reservees.clone();
+        }
+        for (int k = 0; k < n; k++) {
+            int i = indice(libresEnPlus[k]);
+            if (i >= 0) etat[i >>> 6] &= ~(1L << i);
+        }
+        for (int i = 0; i < sids.length; i++) {
+            boolean libre = (etat[i >>> 6] & (1L << i)) == 0;
+            if (!visiteur.visiter(sids[i], tableTarifs[tarifs[i]], libre)) return;
+        }
+    }
+
+    /**
+     * Construit la liste des places, dans l'ordre des numros.
+     */
+    public List<Place> places(final Representation representation) {
+        final List<Place> l = new ArrayList<Place>(sids.length);
+        parcourir(new VisiteurPlaces() {
+            @Override
+            public boolean visiter(int numero, Tarif tarif, boolean libre) {
+                l.add(new Place(representation, numero, tarif, libre));
+                return true;
+            }
+        }, null, 0);
+        return l;
+    }
+
+    private List<Place> places(Representation representation, long[] etat) {
+        List<Place> l = new ArrayList<Place>(sids.length);
+        for (int i = 0; i < sids.length; i++) {
+            l.add(new Place(representation, sids[i], tableTarifs[tarifs[i]], (etat[i >>> 6] & (1L << i)) == 0));
+        }
+        return l;
+    }
+
+    long getReconciliation() {
+        return reconciliation;
+    }
+
+    /**
+     * Date le plan restaur d'un journal : il sera rconcili avec la base
+     * comme s'il avait t lu  cette date.
+     */
+    void restaure(long date) {
+        reconciliation = date;
+    }
+
+    boolean isPerime() {
+        return perime;
+    }
+
+    void marquerPerime() {
+        perime = true;
+    }
+
+    static boolean memeTarif(Tarif a, Tarif b) {
+        return a.getLibelle().equals(b.getLibelle()) && a.getPrix() == b.getPrix();
+    }
+
+}
@@ -0,0 +1,188 @@
+package gesresa;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+/**
+ * Pool born de connexions  la base de donnes. Les connexions physiques
+ * sont obtenues auprs d'une {@link DataSource}, ouvertes  la demande et
+ * rutilises d'un appel  l'autre, quel que soit le client.
+ * <p>
+ * Lorsque toutes les connexions sont empruntes, {@link #obtenir()} attend
+ * qu'une connexion soit rendue, au plus le dlai spcifi  la construction.
+ * Les connexions sont en mode transactionnel (<code>autoCommit</code>  faux)
+ * et en isolation <code>READ_COMMITTED</code>. Les connexions d'un pool de
+ * lecture, vers une rplique par exemple, sont en lecture seule et valident
+ * chaque requte : une consultation ne garde pas de transaction ouverte.
+ * <p>
+ * Une connexion rendue avec une transaction ouverte est annule, et ferme
+ * si l'annulation choue. Une connexion reste libre plus de
+ * {@link #INACTIVITE_VERIFIEE} ms est prouve avant d'tre prte.
+ *
+ * @author Aurel
+ *
+ */
+public class PoolConnexions implements AutoCloseable {
+
+    /** inactivit (ms) au-del de laquelle une connexion libre est vrifie avant d'tre prte */
+    public static final long INACTIVITE_VERIFIEE = 1000;
+    /** dlai maximal de la vrification d'une connexion (s) */
+    private static final int ATTENTE_VERIFICATION = 5;
+
+    private final DataSource source;
+    private final int taille;
+    private final int tailleCache;
+    private final long attenteMax;
+    private final boolean lectureSeule;
+    private final LinkedBlockingQueue<ConnexionPoolee> libres;
+    private final Semaphore permis;
+    private final Histogramme attente = new Histogramme(); // attente d'une connexion (ns)
+    private final AtomicLong annulations = new AtomicLong();
+    private volatile boolean ferme;
+
+    /**
+     * Construit un pool de connexions.
+     *
+     * @param source
+     *            source des connexions physiques
+     * @param taille
+     *            nombre maximal de connexions ouvertes simultanment
+     * @param tailleCache
+     *            nombre maximal de requtes prpares gardes par connexion
+     * @param attenteMax
+     *            dlai maximal d'attente d'une connexion, en millisecondes
+     */
+    public PoolConnexions(DataSource source, int taille, int tailleCache, long attenteMax) {
+        this(source, taille, tailleCache, attenteMax, false);
+    }
+
+    /**
+     * Construit un pool de connexions, de lecture seule si demand.
+     *
+     * @param lectureSeule
+     *            vrai pour un pool rserv aux consultations
+     */
+    public PoolConnexions(DataSource source, int taille, int tailleCache, long attenteMax, boolean lectureSeule) {
+        if (taille <= 0) throw new IllegalArgumentException("taille de pool invalide : " + taille);
+        this.source = source;
+        this.taille = taille;
+        this.tailleCache = tailleCache;
+        this.attenteMax = attenteMax;
+        this.lectureSeule = lectureSeule;
+        this.libres = new LinkedBlockingQueue<ConnexionPoolee>();
+        this.permis = new Semaphore(taille, true);
+    }
+
+    /**
+     * Emprunte une connexion. Elle doit tre rendue par
+     * {@link ConnexionPoolee#close()}, idalement via un bloc
+     * <code>try</code>-avec-ressources.
+     *
+     * @return une connexion prte  l'emploi
+     * @throws SQLException
+     *             si le pool est ferm, si aucune connexion ne se libre 
+     *             temps ou si la connexion physique ne peut tre ouverte
+     */
+    public ConnexionPoolee obtenir() throws SQLException {
+        if (ferme) throw new SQLException("pool de connexions ferm");
+        long debut = System.nanoTime();
+        try {
+            boolean obtenu = permis.tryAcquire(attenteMax, TimeUnit.MILLISECONDS);
+            attente.enregistrer(System.nanoTime() - debut);
+            if (!obtenu)
+                throw new SQLTransientConnectionException("aucune connexion disponible aprs " + attenteMax + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("attente de connexion interrompue", e);
+        }
+        try {
+            ConnexionPoolee c = libres.poll();
+            while (c != null && !c.estValide(INACTIVITE_VERIFIEE, ATTENTE_VERIFICATION)) { // perdue entre-temps
+                c.fermer();
+                c = libres.poll();
+            }
+            if (c == null) c = new ConnexionPoolee(this, ouvrir(), tailleCache);
+            return c;
+        } catch (SQLException e) {
+            permis.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permis.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return le nombre maximal de connexions ouvertes simultanment
+     */
+    public int getTaille() {
+        return taille;
+    }
+
+    public boolean isLectureSeule() {
+        return lectureSeule;
+    }
+
+    /**
+     * @return les dures d'attente d'une connexion, en nanosecondes, y
+     *         compris les attentes vaines
+     */
+    public Histogramme getAttente() {
+        return attente;
+    }
+
+    /**
+     * @return le nombre de transactions annules sur les connexions du pool
+     */
+    public long getAnnulations() {
+        return annulations.get();
+    }
+
+    void annulation() {
+        annulations.incrementAndGet();
+    }
+
+    void rendre(ConnexionPoolee c) {
+        if (!c.terminer() || ferme) c.fermer();
+        else libres.offer(c);
+        permis.release();
+    }
+
+    private Connection ouvrir() throws SQLException {
+        Connection connection = source.getConnection();
+        try {
+            if (lectureSeule) {
+                connection.setAutoCommit(true);
+                connection.setReadOnly(true);
+            } else {
+                connection.setAutoCommit(false);
+                connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Ferme le pool : les connexions libres sont fermes immdiatement, les
+     * connexions empruntes le seront  leur restitution.
+     */
+    @Override
+    public void close() {
+        ferme = true;
+        ConnexionPoolee c;
+        while ((c = libres.poll()) != null) {
+            c.fermer();
+        }
+    }
+
+}
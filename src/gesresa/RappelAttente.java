@@ -0,0 +1,27 @@
+package gesresa;
+
+import java.util.List;
+
+/**
+ * Traitement appel lorsque des places sont proposes  un client inscrit
+ * sur la liste d'attente d'une reprsentation (voir {@link ListeAttente}).
+ * <p>
+ * Les places proposes sont retenues pour le client pour la dure d'une
+ * option : il les rserve par
+ * {@link GestionReservation#reserverPlaces(Representation, List)} depuis une
+ * de ses sessions, ou les laisse expirer. L'appel a lieu sur le thread de la
+ * liste d'attente et doit rendre la main rapidement.
+ *
+ * @author Aurel
+ *
+ */
+public interface RappelAttente {
+
+    /**
+     * @param representation
+     *            reprsentation attendue
+     * @param places
+     *            places retenues pour le client, par numro croissant
+     */
+    void placesOffertes(Representation representation, List<Place> places);
+}
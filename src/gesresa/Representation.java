@@ -11,15 +11,25 @@ import java.util.List;
  * applicative seulement</b>. L'organisation des donnes dans la base peut tre
  * entirement diffrente. C'est le rle de l'interface applicative de faire la
  * conversion entre les deux reprsentations, dans les deux sens.
+ * <p>
+ * Une reprsentation obtenue par <code>listerRepresentations</code> porte
+ * l'identifiant interne (RID) de la reprsentation dans la base ; une
+ * reprsentation construite par le client  partir du seul triplet
+ * (spectacle, date, salle) a un RID inconnu, rsolu au besoin par l'interface
+ * applicative.
  * 
  * @author Busca
  * 
  */
 public class Representation {
 
+    /** valeur du RID lorsque celui-ci n'est pas connu */
+    public static final int RID_INCONNU = -1;
+
     //
     // ATTRIBUTS D'OBJET
     //
+    private final int rid;
     private final String spectacle;
     private final String salle;
     private final Date date;
@@ -29,12 +39,25 @@ public class Representation {
     // CONSTRUCTEURS, ACCESSEURS, ETC.
     //
     public Representation(String spectacle, String salle, Date date, List<Tarif> tarifs) {
+	this(RID_INCONNU, spectacle, salle, date, tarifs);
+    }
+
+    public Representation(int rid, String spectacle, String salle, Date date, List<Tarif> tarifs) {
+	this.rid = rid;
 	this.spectacle = spectacle;
 	this.salle = salle;
 	this.date = date;
 	this.tarifs = tarifs;
     }
 
+    public int getRid() {
+	return rid;
+    }
+
+    public boolean isRidConnu() {
+	return rid != RID_INCONNU;
+    }
+
     public String getSpectacle() {
 	return spectacle;
     }
@@ -53,7 +76,7 @@ public class Representation {
 
     @Override
     public String toString() {
-	return "Representation [spectacle=" + spectacle + ", salle=" + salle + ", date=" + date + ", tarifs=" + tarifs + "]";
+	return "Representation [rid=" + rid + ", spectacle=" + spectacle + ", salle=" + salle + ", date=" + date + ", tarifs=" + tarifs + "]";
     }
 
 }
@@ -0,0 +1,61 @@
+package gesresa;
+
+import java.util.List;
+
+/**
+ * Rponse de
+ * {@link GestionReservation#reserverPlaces(Representation, List, Substitution)}
+ * : les places rserves, et celles qui ont remplac des places choisies
+ * prises entre-temps par un autre client.
+ *
+ * @author Aurel
+ *
+ */
+public class ResultatReservation {
+
+    private final List<Place> places;
+    private final List<Place> perdues;
+    private final List<Place> remplacantes;
+
+    public ResultatReservation(List<Place> places, List<Place> perdues, List<Place> remplacantes) {
+        this.places = places;
+        this.perdues = perdues;
+        this.remplacantes = remplacantes;
+    }
+
+    /**
+     * @return les places rserves, dans l'ordre de la demande, chaque place
+     *         perdue tant remplace par sa remplaante
+     */
+    public List<Place> getPlaces() {
+        return places;
+    }
+
+    /**
+     * @return les places choisies qui n'ont pu tre rserves
+     */
+    public List<Place> getPerdues() {
+        return perdues;
+    }
+
+    /**
+     * @return les places rserves  leur place, dans le mme ordre que
+     *         {@link #getPerdues()}
+     */
+    public List<Place> getRemplacantes() {
+        return remplacantes;
+    }
+
+    /**
+     * @return vrai si au moins une place choisie a t remplace
+     */
+    public boolean isSubstitue() {
+        return !perdues.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "ResultatReservation [places=" + places.size() + ", remplacees=" + perdues.size() + "]";
+    }
+
+}
@@ -0,0 +1,90 @@
+package gesresa;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Source de connexions minimale s'appuyant sur {@link DriverManager}. Elle
+ * permet d'utiliser une simple url JDBC (Oracle ou base embarque) l o une
+ * {@link DataSource} est attendue, par exemple pour construire un
+ * {@link PoolConnexions}.
+ *
+ * @author Aurel
+ *
+ */
+public class SourceDriverManager implements DataSource {
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private PrintWriter journal;
+    private int delai;
+
+    public SourceDriverManager(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return DriverManager.getConnection(url, user, password);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return DriverManager.getConnection(url, username, password);
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return journal;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        journal = out;
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        delai = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return delai;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        throw new SQLException("pas une source de type " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+
+    @Override
+    public String toString() {
+        return "SourceDriverManager [url=" + url + ", user=" + user + "]";
+    }
+
+}
@@ -0,0 +1,54 @@
+package gesresa;
+
+/**
+ * Politique de remplacement des places choisies prises par un autre client
+ * entre la consultation et la rservation (voir
+ * {@link GestionReservation#reserverPlaces(Representation, java.util.List, Substitution)}).
+ * Une place perdue est remplace par la place libre la plus proche dans
+ * l'ordre des numros qui satisfait la politique, parmi les places que le
+ * client n'a pas choisies.
+ *
+ * @author Aurel
+ *
+ */
+public enum Substitution {
+
+    /** aucun remplacement : la rservation choue si une place est prise */
+    AUCUNE(0, true),
+    /** une place au mme tarif,  au plus deux places de la place perdue */
+    VOISINE(2, true),
+    /** une place au mme tarif, n'importe o dans la salle */
+    MEME_TARIF(Integer.MAX_VALUE, true),
+    /** n'importe quelle place libre */
+    QUELCONQUE(Integer.MAX_VALUE, false);
+
+    private final int ecartMax;
+    private final boolean memeTarif;
+
+    private Substitution(int ecartMax, boolean memeTarif) {
+        this.ecartMax = ecartMax;
+        this.memeTarif = memeTarif;
+    }
+
+    /**
+     * @return l'cart maximal, en nombre de places, entre une place perdue
+     *         et sa remplaante
+     */
+    public int getEcartMax() {
+        return ecartMax;
+    }
+
+    /**
+     * @param perdue
+     *            tarif de la place perdue
+     * @param candidate
+     *            tarif de la place envisage pour la remplacer
+     * @param ecart
+     *            cart entre les deux places, en nombre de places
+     * @return vrai si la place envisage peut remplacer la place perdue
+     */
+    public boolean accepte(Tarif perdue, Tarif candidate, int ecart) {
+        return ecart > 0 && ecart <= ecartMax && (!memeTarif || PlanSalle.memeTarif(perdue, candidate));
+    }
+
+}
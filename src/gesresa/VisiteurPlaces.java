@@ -0,0 +1,25 @@
+package gesresa;
+
+/**
+ * Traitement appliqu  chaque place d'une reprsentation par
+ * {@link GestionReservation#parcourirPlaces(Representation, boolean, VisiteurPlaces)}
+ * . Les places sont prsentes par numro croissant, sans qu'aucun objet
+ * {@link Place} ne soit construit ; les tarifs sont partags par toutes les
+ * places de la reprsentation qui les utilisent.
+ *
+ * @author Aurel
+ *
+ */
+public interface VisiteurPlaces {
+
+    /**
+     * @param numero
+     *            numro de la place
+     * @param tarif
+     *            tarif de la place
+     * @param libre
+     *            vrai si la place est libre
+     * @return vrai pour continuer le parcours, faux pour l'arrter
+     */
+    boolean visiter(int numero, Tarif tarif, boolean libre);
+}
@@ -0,0 +1,69 @@
+package gesresa.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Lecture des arguments des outils de mesure, de la forme
+ * <code>--nom=valeur</code>. Les valeurs multiples sont spares par des
+ * virgules.
+ *
+ * @author Aurel
+ *
+ */
+public class Arguments {
+
+    private final Map<String, String> valeurs = new HashMap<String, String>();
+
+    public Arguments(String[] args) {
+        for (String a : args) {
+            if (!a.startsWith("--")) throw new IllegalArgumentException("argument invalide : " + a);
+            int egal = a.indexOf('=');
+            if (egal < 0) valeurs.put(a.substring(2), "true");
+            else valeurs.put(a.substring(2, egal), a.substring(egal + 1));
+        }
+    }
+
+    public String texte(String nom, String defaut) {
+        String v = valeurs.get(nom);
+        return v == null ? defaut : v;
+    }
+
+    public int entier(String nom, int defaut) {
+        String v = valeurs.get(nom);
+        return v == null ? defaut : Integer.parseInt(v);
+    }
+
+    public long entierLong(String nom, long defaut) {
+        String v = valeurs.get(nom);
+        return v == null ? defaut : Long.parseLong(v);
+    }
+
+    public double reel(String nom, double defaut) {
+        String v = valeurs.get(nom);
+        return v == null ? defaut : Double.parseDouble(v);
+    }
+
+    public boolean present(String nom) {
+        return valeurs.containsKey(nom);
+    }
+
+    public int[] entiers(String nom, String defaut) {
+        String[] morceaux = texte(nom, defaut).split(",");
+        int[] t = new int[morceaux.length];
+        for (int i = 0; i < t.length; i++) {
+            t[i] = Integer.parseInt(morceaux[i].trim());
+        }
+        return t;
+    }
+
+    public double[] reels(String nom, String defaut) {
+        String[] morceaux = texte(nom, defaut).split(",");
+        double[] t = new double[morceaux.length];
+        for (int i = 0; i < t.length; i++) {
+            t[i] = Double.parseDouble(morceaux[i].trim());
+        }
+        return t;
+    }
+
+}
@@ -0,0 +1,266 @@
+package gesresa.bench;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gesresa.BaseReservation;
+import gesresa.GestionReservation;
+import gesresa.Histogramme;
+import gesresa.Place;
+import gesresa.Representation;
+import gesresa.Tarif;
+import gesresa.VisiteurPlaces;
+
+/**
+ * Banc de mesure des chemins critiques de {@link GestionReservation} :
+ * consultation des reprsentations, consultation des places (stable et
+ * instable, en liste ou par parcours) et les deux formes de rservation. Chaque opration est mesure
+ * sparment, pour chaque combinaison de taille de salle, de taux
+ * d'occupation et de nombre de threads, aprs une phase de chauffe.
+ * <p>
+ * La base est recre  partir de creabase.sql et contraintes.sql pour chaque
+ * couple (taille, occupation) ; la salle de Bercy est complte jusqu' la
+ * taille voulue et une proportion de ses places est pr-rserve. Les places
+ * rserves pendant la mesure sont rendues hors chronomtrage, de sorte que
+ * l'occupation reste constante.
+ * <p>
+ * Arguments (tous facultatifs) : <code>--url=</code>, <code>--user=</code>,
+ * <code>--password=</code>, <code>--tailles=1000,25000</code>,
+ * <code>--occupations=0,0.9</code>, <code>--threads=1,4,16</code>,
+ * <code>--chauffe=2</code> et <code>--duree=5</code> (secondes),
+ * <code>--operations=</code> (noms spars par des virgules).
+ *
+ * @author Aurel
+ *
+ */
+public class BenchGestionReservation {
+
+    static final String SALLE = "Palais omnisports de Paris-Bercy";
+    static final String SPECTACLE = "Concert Rasta";
+    static final int RID = 5;
+    static final String[] CLASSES = { "Fosse", "1ere classe", "2nd classe" };
+    static final Tarif TARIF = new Tarif("2nd classe", 20);
+    static final String OCCUPANT = "Luc";
+
+    /**
+     * Oprations mesures. Une opration de rservation retourne les places
+     * rserves,  rendre aprs la mesure.
+     */
+    enum Operation {
+        REPRESENTATIONS {
+            @Override
+            List<Place> executer(Session s) throws SQLException {
+                s.g.listerRepresentations(SPECTACLE, s.debut, s.fin);
+                return null;
+            }
+        },
+        PLACES_INSTABLES {
+            @Override
+            List<Place> executer(Session s) throws SQLException {
+                s.g.listerPlaces(s.representation, false);
+                return null;
+            }
+        },
+        PLACES_STABLES {
+            @Override
+            List<Place> executer(Session s) throws SQLException {
+                s.g.listerPlaces(s.representation, true);
+                return null;
+            }
+        },
+        PARCOURS_PLACES {
+            @Override
+            List<Place> executer(Session s) throws SQLException {
+                s.g.parcourirPlaces(s.representation, false, s.compteur);
+                return null;
+            }
+        },
+        RESERVER_NOMBRE {
+            @Override
+            List<Place> executer(Session s) throws SQLException {
+                return s.g.reserverPlaces(s.representation, 2, TARIF);
+            }
+        },
+        RESERVER_LISTE {
+            @Override
+            List<Place> executer(Session s) throws SQLException {
+                List<Place> choix = new ArrayList<Place>(2);
+                while (choix.size() < 2) { // places libres d'aprs la pr-rservation dterministe
+                    int sid = 1 + ThreadLocalRandom.current().nextInt(s.taille);
+                    if (!EnvironnementBench.occupee(sid, s.occupation)
+                            && (choix.isEmpty() || choix.get(0).getNumero() != sid))
+                        choix.add(new Place(s.representation, sid, null, true));
+                }
+                return s.g.reserverPlaces(s.representation, choix);
+            }
+        };
+
+        abstract List<Place> executer(Session s) throws SQLException;
+
+        boolean reserve() {
+            return this == RESERVER_NOMBRE || this == RESERVER_LISTE;
+        }
+    }
+
+    /**
+     * Contexte d'un thread de mesure.
+     */
+    static class Session {
+        GestionReservation g;
+        Connection cn;
+        PreparedStatement rendre;
+        String client;
+        Representation representation;
+        Date debut;
+        Date fin;
+        int taille;
+        double occupation;
+        int libres;
+        final VisiteurPlaces compteur = new VisiteurPlaces() {
+            @Override
+            public boolean visiter(int numero, Tarif tarif, boolean libre) {
+                if (libre) libres++;
+                return true;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws Exception {
+        Arguments a = new Arguments(args);
+        int[] tailles = a.entiers("tailles", "1000,25000");
+        double[] occupations = a.reels("occupations", "0,0.9");
+        int[] threads = a.entiers("threads", "1,4,16");
+        long chauffe = a.entierLong("chauffe", 2) * 1000;
+        long duree = a.entierLong("duree", 5) * 1000;
+        List<Operation> operations = new ArrayList<Operation>();
+        if (a.present("operations")) {
+            for (String nom : a.texte("operations", "").split(",")) {
+                operations.add(Operation.valueOf(nom.trim()));
+            }
+        } else {
+            operations.addAll(Arrays.asList(Operation.values()));
+        }
+        int maxThreads = 0;
+        for (int t : threads) {
+            maxThreads = Math.max(maxThreads, t);
+        }
+
+        EnvironnementBench env = new EnvironnementBench(a.texte("url", null), a.texte("user", ""),
+                a.texte("password", ""), Paths.get(a.texte("scripts", ".")));
+        System.out.println("taille\toccupation\topration\tthreads\top/s\tp50 s\tp99 s\tp99.9 s\tmax s\tchecs");
+        for (int taille : tailles) {
+            for (double occupation : occupations) {
+                env.creer();
+                env.completerSalle(SALLE, taille, CLASSES);
+                env.ajouterClients("bench", maxThreads);
+                env.occuper(RID, SALLE, occupation, OCCUPANT);
+                try (BaseReservation base = new BaseReservation(env.getSource(), maxThreads)) {
+                    for (Operation op : operations) {
+                        for (int t : threads) {
+                            mesurer(env, base, op, t, taille, occupation, chauffe, duree);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void mesurer(EnvironnementBench env, final BaseReservation base, final Operation op, int nbThreads,
+            int taille, double occupation, final long chauffe, final long duree) throws Exception {
+        final Histogramme latences = new Histogramme();
+        final AtomicLong echecs = new AtomicLong();
+        final CyclicBarrier depart = new CyclicBarrier(nbThreads + 1);
+        final SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy");
+        List<Thread> liste = new ArrayList<Thread>();
+        for (int i = 0; i < nbThreads; i++) {
+            final Session s = new Session();
+            s.client = "bench" + i;
+            s.g = base.session(s.client);
+            s.cn = env.getSource().getConnection();
+            s.cn.setAutoCommit(false);
+            s.rendre = s.cn.prepareStatement("delete from RESERVATIONS where RID = ? and CNAME = ?");
+            s.representation = new Representation(SPECTACLE, SALLE, format.parse("09/12/2013"), null);
+            s.debut = format.parse("01/01/2013");
+            s.fin = format.parse("31/12/2013");
+            s.taille = taille;
+            s.occupation = occupation;
+            Thread t = new Thread("bench-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        depart.await();
+                        long debutMesure = System.nanoTime() + chauffe * 1000000;
+                        long finMesure = debutMesure + duree * 1000000;
+                        long maintenant;
+                        while ((maintenant = System.nanoTime()) < finMesure) {
+                            List<Place> places = op.executer(s);
+                            long fin = System.nanoTime();
+                            if (maintenant >= debutMesure) {
+                                latences.enregistrer(fin - maintenant);
+                                if (op.reserve() && places == null) echecs.incrementAndGet();
+                            }
+                            if (places != null) rendre(base, s, places);
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        fermer(s);
+                    }
+                }
+            };
+            liste.add(t);
+            t.start();
+        }
+        depart.await();
+        for (Thread t : liste) {
+            t.join();
+        }
+        double debit = latences.getNombre() * 1000.0 / duree;
+        System.out.println(taille + "\t" + occupation + "\t" + op + "\t" + nbThreads + "\t" + (long) debit + "\t"
+                + latences.percentile(50) / 1000 + "\t" + latences.percentile(99) / 1000 + "\t"
+                + latences.percentile(99.9) / 1000 + "\t" + latences.getMax() / 1000 + "\t" + echecs.get());
+    }
+
+    /**
+     * Ferme la session et la connexion d'un thread de mesure.
+     */
+    private static void fermer(Session s) {
+        try {
+            s.g.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        try {
+            s.cn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rend les places rserves par une mesure, dans la base et dans le plan
+     * de salle partag.
+     */
+    private static void rendre(BaseReservation base, Session s, List<Place> places) throws SQLException {
+        s.rendre.setInt(1, RID);
+        s.rendre.setString(2, s.client);
+        s.rendre.executeUpdate();
+        s.cn.commit();
+        int[] sids = new int[places.size()];
+        for (int i = 0; i < sids.length; i++) {
+            sids[i] = places.get(i).getNumero();
+        }
+        base.getPlans().liberer(RID, sids, sids.length);
+    }
+
+}
@@ -0,0 +1,119 @@
+package gesresa.bench;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import gesresa.BaseReservation;
+import gesresa.GestionReservation;
+import gesresa.Place;
+import gesresa.Representation;
+import gesresa.Tarif;
+
+/**
+ * Compare, pour des groupes de tailles croissantes, la rservation d'une liste
+ * de places ligne  ligne (une recherche du RID et une insertion par place,
+ * comme avant l'envoi par lots) et la rservation par lot de
+ * {@link GestionReservation#reserverPlaces(Representation, List)}.
+ * <p>
+ * Usage : <code>BenchReservationGroupe [url [user password]]</code>, depuis le
+ * rpertoire contenant les scripts SQL. Sans url, la base H2 embarque est
+ * utilise.
+ *
+ * @author Aurel
+ *
+ */
+public class BenchReservationGroupe {
+
+    private static final String SALLE = "Palais omnisports de Paris-Bercy";
+    private static final String CLIENT = "Luc";
+    private static final int[] GROUPES = { 1, 2, 5, 10, 20, 50 };
+    private static final int CHAUFFE = 200;
+    private static final int MESURES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        String url = args.length > 0 ? args[0] : null;
+        String user = args.length > 2 ? args[1] : "";
+        String password = args.length > 2 ? args[2] : "";
+
+        EnvironnementBench env = new EnvironnementBench(url, user, password, Paths.get("."));
+        env.creer();
+        env.ajouterPlaces(SALLE, "2nd classe", 1000, 100);
+
+        Date date = new SimpleDateFormat("dd/MM/yyyy").parse("09/12/2013");
+        Representation rep = new Representation("Concert Rasta", SALLE, date, null);
+        Tarif tarif = new Tarif("2nd classe", 20);
+
+        System.out.println("places\trequtes ligne  ligne\trequtes par lot\ts ligne  ligne\ts par lot");
+        try (BaseReservation base = new BaseReservation(env.getSource(), 1);
+                GestionReservation g = base.session(CLIENT);
+                Connection cn = env.getSource().getConnection();
+                PreparedStatement getRID = cn.prepareStatement(
+                        "select RID from REPRESENTATIONS where SNAME = ? and STARTDATE = ? and RNAME = ?");
+                PreparedStatement addBooking = cn.prepareStatement("insert into RESERVATIONS (SID, RNAME, RID, CNAME) values(?,?,?,?)")) {
+            cn.setAutoCommit(false);
+            for (int taille : GROUPES) {
+                List<Place> places = new ArrayList<Place>();
+                for (int i = 0; i < taille; i++) {
+                    places.add(new Place(rep, 1000 + i, tarif, true));
+                }
+                long unitaire = 0;
+                long lot = 0;
+                for (int i = 0; i < CHAUFFE + MESURES; i++) {
+                    long debut = System.nanoTime();
+                    reserverLigneALigne(cn, getRID, addBooking, rep, places);
+                    long fin = System.nanoTime();
+                    liberer(cn);
+                    if (i >= CHAUFFE) unitaire += fin - debut;
+
+                    debut = System.nanoTime();
+                    if (g.reserverPlaces(rep, places) == null) throw new IllegalStateException("places dj prises");
+                    fin = System.nanoTime();
+                    liberer(cn);
+                    if (i >= CHAUFFE) lot += fin - debut;
+                }
+                // ligne  ligne : RID + insertion par place, puis commit ;
+                // par lot : RID, un lot, puis commit
+                System.out.println(taille + "\t" + (2 * taille + 1) + "\t" + 3 + "\t" + unitaire / MESURES / 1000 + "\t"
+                        + lot / MESURES / 1000);
+            }
+        }
+    }
+
+    /**
+     * Chemin de rservation d'avant l'envoi par lots, conserv comme
+     * rfrence.
+     */
+    private static void reserverLigneALigne(Connection cn, PreparedStatement getRID, PreparedStatement addBooking,
+            Representation rep, List<Place> places) throws SQLException {
+        for (Place p : places) {
+            getRID.setString(1, rep.getSpectacle());
+            getRID.setDate(2, new java.sql.Date(rep.getDate().getTime()));
+            getRID.setString(3, rep.getSalle());
+            try (ResultSet rs = getRID.executeQuery()) {
+                rs.next();
+                addBooking.setInt(3, rs.getInt("RID"));
+            }
+            addBooking.setInt(1, p.getNumero());
+            addBooking.setString(2, rep.getSalle());
+            addBooking.setString(4, CLIENT);
+            addBooking.executeUpdate();
+        }
+        cn.commit();
+    }
+
+    private static void liberer(Connection cn) throws SQLException {
+        try (Statement st = cn.createStatement()) {
+            st.executeUpdate("delete from RESERVATIONS where CNAME = '" + CLIENT + "'");
+        }
+        cn.commit();
+    }
+
+}
@@ -0,0 +1,237 @@
+package gesresa.bench;
+
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import gesresa.BaseReservation;
+import gesresa.ChangementsPlaces;
+import gesresa.GestionReservation;
+import gesresa.Place;
+import gesresa.Representation;
+import gesresa.Substitution;
+
+/**
+ * Vrification du cot en changes avec la base de chaque appel de
+ * {@link GestionReservation} : les appels sont faits un  un par une session,
+ * sur une base compte par une {@link SourceComptee}, et leur cot est
+ * compar  un budget (allers-retours, ordres SQL, lignes lues, validations).
+ * Un budget dpass signale une rgression de performance : l'outil se
+ * termine alors avec le code 1, ce qui fait chouer la chane de construction
+ * qui l'excute.
+ * <p>
+ * Les premiers appels chargent le catalogue, le RID et le plan de salle ; les
+ * suivants sont servis par la mmoire ou ne cotent que leurs critures. Le
+ * dlai de rconciliation des plans est allong pour qu'aucune relecture ne
+ * s'invite dans la mesure.
+ * <p>
+ * Arguments (tous facultatifs) : <code>--url=</code>, <code>--user=</code>,
+ * <code>--password=</code>, <code>--scripts=.</code> et
+ * <code>--taille=1000</code> (places de la salle mesure).
+ *
+ * @author Aurel
+ *
+ */
+public class BudgetsReservation {
+
+    /** nombre de lignes ramenes par aller-retour  la lecture d'un plan (voir MoteurPlans) */
+    static final int LIGNES_PLAN = 1000;
+
+    /**
+     * Cot maximal d'un appel ; une valeur ngative n'est pas vrifie.
+     */
+    static final class Budget {
+        final int allersRetours;
+        final int requetes;
+        final int lignes;
+        final int commits;
+
+        Budget(int allersRetours, int requetes, int lignes, int commits) {
+            this.allersRetours = allersRetours;
+            this.requetes = requetes;
+            this.lignes = lignes;
+            this.commits = commits;
+        }
+
+        boolean respecte(CompteurJdbc c) {
+            return (allersRetours < 0 || c.getAllersRetours() <= allersRetours)
+                    && (requetes < 0 || c.getRequetes() <= requetes) && (lignes < 0 || c.getLignes() <= lignes)
+                    && (commits < 0 || c.getCommits() <= commits);
+        }
+
+        @Override
+        public String toString() {
+            return "ar<=" + borne(allersRetours) + " req<=" + borne(requetes) + " lignes<=" + borne(lignes)
+                    + " commits<=" + borne(commits);
+        }
+
+        private static String borne(int b) {
+            return b < 0 ? "*" : String.valueOf(b);
+        }
+    }
+
+    /**
+     * Appel mesur. Un appel qui retourne <code>null</code> a chou.
+     */
+    interface Appel {
+        Object executer() throws SQLException;
+    }
+
+    private final SourceComptee source;
+    private int depassements;
+
+    BudgetsReservation(SourceComptee source) {
+        this.source = source;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Arguments a = new Arguments(args);
+        int taille = a.entier("taille", 1000);
+        EnvironnementBench env = new EnvironnementBench(a.texte("url", null), a.texte("user", ""),
+                a.texte("password", ""), Paths.get(a.texte("scripts", ".")));
+        env.creer();
+        env.completerSalle(BenchGestionReservation.SALLE, taille, BenchGestionReservation.CLASSES);
+        env.ajouterClients("budget", 1);
+
+        SourceComptee source = new SourceComptee(env.getSource());
+        BudgetsReservation budgets = new BudgetsReservation(source);
+        try (BaseReservation base = new BaseReservation(source, 2)) {
+            base.setAgeMaxLectures(10 * 60 * 1000);
+            try (GestionReservation g = base.session("budget0")) {
+                budgets.verifier(g, taille);
+            }
+        }
+        if (budgets.depassements > 0) {
+            System.out.println(budgets.depassements + " budget(s) dpass(s)");
+            System.exit(1);
+        }
+        System.out.println("budgets respects");
+    }
+
+    private void verifier(final GestionReservation g, int taille) throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy");
+        final Representation r = new Representation(BenchGestionReservation.SPECTACLE,
+                BenchGestionReservation.SALLE, format.parse("09/12/2013"), null);
+        final Date debut = format.parse("01/01/2013");
+        final Date fin = format.parse("31/12/2013");
+        int blocs = (taille + LIGNES_PLAN - 1) / LIGNES_PLAN;
+        System.out.println("opration\tallers-retours\trequtes\tlignes\tcommits\tprparations\tconnexions\tbudget");
+
+        // chargements : RID, places de la salle, rservations de la reprsentation
+        mesurer("listerRepresentations (catalogue  charger)", new Budget(-1, 1, -1, 0), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.listerRepresentations(BenchGestionReservation.SPECTACLE, debut, fin);
+            }
+        });
+        mesurer("listerPlaces stable (plan  charger)", new Budget(3 + 2 * blocs, 3, 2 * taille, 0), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.listerPlaces(r, true);
+            }
+        });
+
+        // consultations servies par la mmoire
+        mesurer("listerRepresentations", new Budget(0, 0, 0, 0), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.listerRepresentations(BenchGestionReservation.SPECTACLE, debut, fin);
+            }
+        });
+        mesurer("listerPlaces stable", new Budget(0, 0, 0, 0), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.listerPlaces(r, true);
+            }
+        });
+        mesurer("listerDisponibilites", new Budget(0, 0, 0, 0), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.listerDisponibilites(r);
+            }
+        });
+        mesurer("listerChangements", new Budget(0, 0, 0, 0), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.listerChangements(r, ChangementsPlaces.AUCUNE_VERSION);
+            }
+        });
+
+        // critures de deux places : un lot et une validation, plus les lectures propres  l'opration
+        mesurer("reserverPlaces 2 places par nombre", new Budget(3, 2, 0, 1), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.reserverPlaces(r, 2, BenchGestionReservation.TARIF);
+            }
+        });
+        final List<Place> choisies = deux(g, r);
+        mesurer("reserverPlaces 2 places choisies", new Budget(3, 2, 0, 1), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.reserverPlaces(r, choisies);
+            }
+        });
+        final List<Place> retenues = deux(g, r);
+        mesurer("retenirPlaces 2 places", new Budget(2, 2, 0, 1), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.retenirPlaces(r, retenues);
+            }
+        });
+        mesurer("reserverPlaces 2 places retenues", new Budget(3, 2, 0, 1), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.reserverPlaces(r, retenues);
+            }
+        });
+        final List<Place> substituables = deux(g, r);
+        mesurer("reserverPlaces 2 places avec substitution", new Budget(3, 2, 0, 1), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                return g.reserverPlaces(r, substituables, Substitution.VOISINE);
+            }
+        });
+        mesurer("annulerReservation 2 places", new Budget(3, 3, -1, 1), new Appel() {
+            @Override
+            public Object executer() throws SQLException {
+                List<Place> l = g.annulerReservation(r, choisies);
+                return l == null || l.size() != choisies.size() ? null : l;
+            }
+        });
+    }
+
+    /**
+     * Mesure un appel et compare son cot au budget.
+     */
+    private void mesurer(String nom, Budget budget, Appel appel) throws SQLException {
+        CompteurJdbc releve = source.compteur().copie();
+        Object resultat = appel.executer();
+        CompteurJdbc c = source.compteur().depuis(releve);
+        String verdict;
+        if (resultat == null) verdict = "CHEC";
+        else if (budget.respecte(c)) verdict = "ok";
+        else verdict = "DPASS";
+        if (resultat == null || !budget.respecte(c)) depassements++;
+        System.out.println(nom + "\t" + c.getAllersRetours() + "\t" + c.getRequetes() + "\t" + c.getLignes() + "\t"
+                + c.getCommits() + "\t" + c.getPreparations() + "\t" + c.getConnexions() + "\t" + budget + "\t"
+                + verdict);
+    }
+
+    /**
+     * Choisit les deux dernires places libres, d'aprs le plan en mmoire
+     * (sans change avec la base), hors mesure.
+     */
+    private static List<Place> deux(GestionReservation g, Representation r) throws SQLException {
+        List<Place> l = new ArrayList<Place>(2);
+        List<Place> places = g.listerPlaces(r, true);
+        for (int i = places.size() - 1; i >= 0 && l.size() < 2; i--) {
+            if (places.get(i).isEstLibre()) l.add(places.get(i));
+        }
+        if (l.size() < 2) throw new IllegalStateException("pas assez de places libres");
+        return l;
+    }
+
+}
@@ -0,0 +1,128 @@
+package gesresa.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Excute un script SQL du projet (creabase.sql, contraintes.sql) sur une
+ * connexion JDBC. Les ordres <code>select ... from dual</code> servant
+ * d'affichage sont ignors, ainsi que les checs des <code>drop table</code>
+ * (tables absentes lors de la premire cration).
+ * <p>
+ * Les blocs PL/SQL (dclencheurs, procdures, blocs anonymes) ne sont
+ * excuts que sur une base Oracle ; sur une base embarque ils sont sauts
+ * et compts.
+ *
+ * @author Aurel
+ *
+ */
+public class ChargeurScript {
+
+    private final Connection connection;
+    private final boolean oracle;
+    private int executes;
+    private int ignores;
+    private int erreurs;
+
+    public ChargeurScript(Connection connection) throws SQLException {
+        this.connection = connection;
+        this.oracle = connection.getMetaData().getURL().startsWith("jdbc:oracle");
+    }
+
+    /**
+     * Excute toutes les instructions d'un script, chacune tant valide
+     * individuellement : un chec n'annule pas les instructions prcdentes.
+     *
+     * @param script
+     *            chemin du script
+     * @throws IOException
+     *             si le script ne peut tre lu
+     * @throws SQLException
+     *             si le mode de validation ne peut tre chang
+     */
+    public void executer(Path script) throws IOException, SQLException {
+        StringBuilder ordre = new StringBuilder();
+        boolean bloc = false;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(true);
+        try (BufferedReader in = Files.newBufferedReader(script, StandardCharsets.UTF_8)) {
+            String ligne;
+            while ((ligne = in.readLine()) != null) {
+                if (bloc) {
+                    if (ligne.trim().equals("/")) { // fin du bloc PL/SQL
+                        if (oracle) executer(ordre.toString());
+                        else ignores++;
+                        ordre.setLength(0);
+                        bloc = false;
+                    } else {
+                        ordre.append(ligne).append('\n');
+                    }
+                    continue;
+                }
+                String texte = sansCommentaire(ligne).trim();
+                if (texte.isEmpty()) continue;
+                if (ordre.length() == 0 && texte.toLowerCase()
+                        .matches("(create\\s+(or\\s+replace\\s+)?(trigger|procedure)|begin|declare)\\b.*")) {
+                    bloc = true;
+                    ordre.append(ligne).append('\n');
+                    continue;
+                }
+                ordre.append(texte).append(' ');
+                if (texte.endsWith(";")) {
+                    String sql = ordre.toString().trim();
+                    executer(sql.substring(0, sql.length() - 1));
+                    ordre.setLength(0);
+                }
+            }
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private void executer(String sql) throws SQLException {
+        String minuscule = sql.toLowerCase();
+        if (minuscule.startsWith("select ")) { // affichage de progression
+            ignores++;
+            return;
+        }
+        if (minuscule.equals("commit")) return; // validation automatique
+        try (Statement st = connection.createStatement()) {
+            st.execute(sql);
+            executes++;
+        } catch (SQLException e) {
+            if (minuscule.startsWith("drop ")) return; // table pas encore cre
+            erreurs++;
+            System.out.println("chec de : " + sql + " (" + e.getMessage() + ")");
+        }
+    }
+
+    private static String sansCommentaire(String ligne) {
+        boolean chaine = false;
+        for (int i = 0; i < ligne.length(); i++) {
+            char c = ligne.charAt(i);
+            if (c == '\'') chaine = !chaine;
+            else if (!chaine && c == '-' && i + 1 < ligne.length() && ligne.charAt(i + 1) == '-')
+                return ligne.substring(0, i);
+        }
+        return ligne;
+    }
+
+    public int getExecutes() {
+        return executes;
+    }
+
+    public int getIgnores() {
+        return ignores;
+    }
+
+    public int getErreurs() {
+        return erreurs;
+    }
+
+}
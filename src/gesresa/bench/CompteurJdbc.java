@@ -0,0 +1,112 @@
+package gesresa.bench;
+
+/**
+ * Compteurs des changes JDBC d'un thread, tenus par une
+ * {@link SourceComptee}. Un aller-retour est compt pour chaque excution de
+ * requte ou de lot, chaque validation ou annulation, chaque point de reprise
+ * et chaque bloc de lignes lu au-del du premier (le premier bloc revient
+ * avec l'excution, comme avec le pilote Oracle).
+ * <p>
+ * Les compteurs sont cumuls depuis le premier accs du thread : le cot d'un
+ * appel est la diffrence entre deux relevs (voir {@link #copie()} et
+ * {@link #depuis(CompteurJdbc)}).
+ *
+ * @author Aurel
+ *
+ */
+public class CompteurJdbc {
+
+    long connexions;
+    long preparations;
+    long requetes;
+    long allersRetours;
+    long lignes;
+    long commits;
+    long annulations;
+
+    /**
+     * @return le nombre de connexions physiques ouvertes
+     */
+    public long getConnexions() {
+        return connexions;
+    }
+
+    /**
+     * @return le nombre de requtes prpares ou cres (les requtes gardes
+     *         en cache par le pool ne le sont qu'une fois par connexion)
+     */
+    public long getPreparations() {
+        return preparations;
+    }
+
+    /**
+     * @return le nombre d'ordres SQL excuts, chaque lment d'un lot
+     *         comptant pour un
+     */
+    public long getRequetes() {
+        return requetes;
+    }
+
+    public long getAllersRetours() {
+        return allersRetours;
+    }
+
+    /**
+     * @return le nombre de lignes lues dans les <code>ResultSet</code>
+     */
+    public long getLignes() {
+        return lignes;
+    }
+
+    public long getCommits() {
+        return commits;
+    }
+
+    /**
+     * @return le nombre d'annulations, compltes ou jusqu' un point de
+     *         reprise
+     */
+    public long getAnnulations() {
+        return annulations;
+    }
+
+    /**
+     * @return un relev des compteurs
+     */
+    public CompteurJdbc copie() {
+        CompteurJdbc c = new CompteurJdbc();
+        c.connexions = connexions;
+        c.preparations = preparations;
+        c.requetes = requetes;
+        c.allersRetours = allersRetours;
+        c.lignes = lignes;
+        c.commits = commits;
+        c.annulations = annulations;
+        return c;
+    }
+
+    /**
+     * @param releve
+     *            relev antrieur de ces compteurs
+     * @return les changes compts depuis le relev
+     */
+    public CompteurJdbc depuis(CompteurJdbc releve) {
+        CompteurJdbc c = new CompteurJdbc();
+        c.connexions = connexions - releve.connexions;
+        c.preparations = preparations - releve.preparations;
+        c.requetes = requetes - releve.requetes;
+        c.allersRetours = allersRetours - releve.allersRetours;
+        c.lignes = lignes - releve.lignes;
+        c.commits = commits - releve.commits;
+        c.annulations = annulations - releve.annulations;
+        return c;
+    }
+
+    @Override
+    public String toString() {
+        return "CompteurJdbc [allersRetours=" + allersRetours + ", requetes=" + requetes + ", lignes=" + lignes
+                + ", commits=" + commits + ", annulations=" + annulations + ", preparations=" + preparations
+                + ", connexions=" + connexions + "]";
+    }
+
+}
@@ -0,0 +1,120 @@
+package gesresa.bench;
+
+import java.util.Random;
+
+/**
+ * Loi de tirage d'un dlai (temps de rflexion d'un client, intervalle entre
+ * deux arrives...), en millisecondes. Une loi se dcrit par une chane :
+ * <ul>
+ * <li><code>500</code> ou <code>constante:500</code> : dlai fixe ;</li>
+ * <li><code>uniforme:10000:15000</code> : uniforme entre deux bornes ;</li>
+ * <li><code>exponentielle:2000</code> : exponentielle de moyenne donne ;</li>
+ * <li><code>normale:2000:500</code> : normale de moyenne et d'cart type
+ * donns, ramene  0 si elle est ngative.</li>
+ * </ul>
+ *
+ * @author Aurel
+ *
+ */
+public abstract class Delai {
+
+    /** aucun dlai */
+    public static final Delai AUCUN = constante(0);
+
+    /**
+     * Tire un dlai.
+     *
+     * @param aleatoire
+     *            gnrateur  utiliser, propre au thread appelant
+     * @return un dlai positif ou nul, en millisecondes
+     */
+    public abstract double tirer(Random aleatoire);
+
+    /**
+     * Construit une loi  partir de sa description.
+     *
+     * @throws IllegalArgumentException
+     *             si la description n'est pas reconnue
+     */
+    public static Delai analyser(String description) {
+        String[] p = description.trim().split(":");
+        try {
+            if (p.length == 1) return constante(Double.parseDouble(p[0]));
+            if (p[0].equals("constante") && p.length == 2) return constante(Double.parseDouble(p[1]));
+            if (p[0].equals("uniforme") && p.length == 3)
+                return uniforme(Double.parseDouble(p[1]), Double.parseDouble(p[2]));
+            if (p[0].equals("exponentielle") && p.length == 2) return exponentielle(Double.parseDouble(p[1]));
+            if (p[0].equals("normale") && p.length == 3)
+                return normale(Double.parseDouble(p[1]), Double.parseDouble(p[2]));
+        } catch (NumberFormatException e) {
+            // signal ci-dessous
+        }
+        throw new IllegalArgumentException("loi de dlai invalide : " + description);
+    }
+
+    public static Delai constante(final double ms) {
+        return new Delai() {
+            @Override
+            public double tirer(Random aleatoire) {
+                return ms;
+            }
+
+            @Override
+            public String toString() {
+                return "constante:" + ms;
+            }
+        };
+    }
+
+    public static Delai uniforme(final double min, final double max) {
+        return new Delai() {
+            @Override
+            public double tirer(Random aleatoire) {
+                return min + aleatoire.nextDouble() * (max - min);
+            }
+
+            @Override
+            public String toString() {
+                return "uniforme:" + min + ":" + max;
+            }
+        };
+    }
+
+    public static Delai exponentielle(final double moyenne) {
+        return new Delai() {
+            @Override
+            public double tirer(Random aleatoire) {
+                return -moyenne * Math.log(1 - aleatoire.nextDouble());
+            }
+
+            @Override
+            public String toString() {
+                return "exponentielle:" + moyenne;
+            }
+        };
+    }
+
+    public static Delai normale(final double moyenne, final double ecart) {
+        return new Delai() {
+            @Override
+            public double tirer(Random aleatoire) {
+                return Math.max(0, moyenne + ecart * aleatoire.nextGaussian());
+            }
+
+            @Override
+            public String toString() {
+                return "normale:" + moyenne + ":" + ecart;
+            }
+        };
+    }
+
+    /**
+     * Attend un dlai tir selon cette loi, multipli par un facteur
+     * d'chelle.
+     */
+    public void attendre(Random aleatoire, double echelle) throws InterruptedException {
+        long nanos = (long) (tirer(aleatoire) * echelle * 1000000);
+        if (nanos > 0) Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+    }
+
+}
@@ -0,0 +1,163 @@
+package gesresa.bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import gesresa.SourceDriverManager;
+
+/**
+ * Prparation d'une base de mesure : cration du schma  partir des scripts
+ * du projet et ajout de places supplmentaires. Les compteurs de places
+ * libres sont recalculs aprs chaque ajout, la base embarque n'excutant
+ * pas les dclencheurs qui les tiennent  jour. Par dfaut, la base est une
+ * base H2 en mmoire en mode de compatibilit Oracle (le pilote H2 doit alors
+ * tre prsent dans le classpath).
+ *
+ * @author Aurel
+ *
+ */
+public class EnvironnementBench {
+
+    /** url de la base embarque utilise par dfaut */
+    public static final String URL_EMBARQUEE = "jdbc:h2:mem:gesresa;MODE=Oracle;DB_CLOSE_DELAY=-1";
+
+    private final SourceDriverManager source;
+    private final Path scripts;
+
+    /**
+     * @param url
+     *            url JDBC de la base, <code>null</code> pour la base embarque
+     * @param user
+     *            nom d'utilisateur SQL
+     * @param password
+     *            mot de passe correspondant
+     * @param scripts
+     *            rpertoire contenant creabase.sql et contraintes.sql
+     */
+    public EnvironnementBench(String url, String user, String password, Path scripts) {
+        this.source = new SourceDriverManager(url == null ? URL_EMBARQUEE : url, user, password);
+        this.scripts = scripts == null ? Paths.get(".") : scripts;
+    }
+
+    public SourceDriverManager getSource() {
+        return source;
+    }
+
+    /**
+     * (Re)cre le schma et ses donnes initiales.
+     */
+    public void creer() throws SQLException, IOException {
+        try (Connection cn = source.getConnection()) {
+            ChargeurScript chargeur = new ChargeurScript(cn);
+            chargeur.executer(scripts.resolve("creabase.sql"));
+            chargeur.executer(scripts.resolve("contraintes.sql"));
+            System.out.println("schma cr : " + chargeur.getExecutes() + " instructions, " + chargeur.getIgnores()
+                    + " ignores, " + chargeur.getErreurs() + " en chec");
+        }
+    }
+
+    /**
+     * Complte une salle jusqu' un nombre de places donn, en rpartissant
+     * les nouvelles places en tranches contigus entre les classes de
+     * rservation indiques (voir
+     * {@link GenerateurDonnees#remplirSalle(Connection, String, int, int, String...)}).
+     *
+     * @param salle
+     *            nom de la salle
+     * @param taille
+     *            nombre total de places voulu
+     * @param tarifs
+     *            classes de rservation de la salle
+     */
+    public void completerSalle(String salle, int taille, String... tarifs) throws SQLException {
+        try (Connection cn = source.getConnection();
+                PreparedStatement max = cn.prepareStatement("select max(SID) from SEATS where RNAME = ?")) {
+            cn.setAutoCommit(false);
+            max.setString(1, salle);
+            int premier;
+            try (ResultSet rs = max.executeQuery()) {
+                rs.next();
+                premier = rs.getInt(1) + 1;
+            }
+            GenerateurDonnees.remplirSalle(cn, salle, premier, taille, tarifs);
+            GenerateurDonnees.recompterDisponibilites(cn);
+            cn.commit();
+        }
+    }
+
+    /**
+     * Ajoute des clients nomms <code>prefixe0</code> 
+     * <code>prefixe(n-1)</code>.
+     */
+    public void ajouterClients(String prefixe, int n) throws SQLException {
+        try (Connection cn = source.getConnection();
+                PreparedStatement ps = cn.prepareStatement("insert into CLIENTS values(?)")) {
+            cn.setAutoCommit(false);
+            for (int i = 0; i < n; i++) {
+                ps.setString(1, prefixe + i);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            cn.commit();
+        }
+    }
+
+    /**
+     * Indique si une place fait partie de la proportion pr-rserve par
+     * {@link #occuper(int, String, double, String)}. La rpartition est
+     * dterministe, ce qui permet aux mesures de viser des places libres sans
+     * consulter la salle.
+     */
+    public static boolean occupee(int sid, double occupation) {
+        return (sid * 2654435761L & 0xFFFFL) < occupation * 0x10000L;
+    }
+
+    /**
+     * Pr-rserve une proportion des places d'une reprsentation, en un seul
+     * ordre <code>insert ... select</code>.
+     *
+     * @param rid
+     *            identifiant de la reprsentation
+     * @param salle
+     *            salle de la reprsentation
+     * @param occupation
+     *            proportion des places  rserver, entre 0 et 1
+     * @param client
+     *            client titulaire des rservations
+     */
+    public void occuper(int rid, String salle, double occupation, String client) throws SQLException {
+        try (Connection cn = source.getConnection()) {
+            cn.setAutoCommit(false);
+            GenerateurDonnees.occuper(cn, rid, salle, occupation, client);
+            GenerateurDonnees.recompterDisponibilites(cn);
+            cn.commit();
+        }
+    }
+
+    /**
+     * Ajoute des places numrotes conscutivement  une salle.
+     *
+     * @param salle
+     *            nom de la salle
+     * @param tarif
+     *            classe de rservation des places ajoutes
+     * @param premier
+     *            numro de la premire place
+     * @param nombre
+     *            nombre de places  ajouter
+     */
+    public void ajouterPlaces(String salle, String tarif, int premier, int nombre) throws SQLException {
+        try (Connection cn = source.getConnection()) {
+            cn.setAutoCommit(false);
+            GenerateurDonnees.remplirSalle(cn, salle, premier, premier + nombre - 1, tarif);
+            GenerateurDonnees.recompterDisponibilites(cn);
+            cn.commit();
+        }
+    }
+
+}
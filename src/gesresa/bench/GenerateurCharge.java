@@ -0,0 +1,257 @@
+package gesresa.bench;
+
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import gesresa.BaseReservation;
+import gesresa.GestionReservation;
+import gesresa.SourceDriverManager;
+import gesresa.Substitution;
+
+/**
+ * Gnrateur de charge : simule des clients droulant le parcours de
+ * rservation ({@link ParcoursClient}) sur une base quelconque, et mesure
+ * dbits et latences.
+ * <p>
+ * Deux modes sont proposs :
+ * <ul>
+ * <li>charge ferme (<code>--mode=ferme</code>, par dfaut) : un nombre fixe
+ * de clients enchanent des parcours, spars par une pause ;</li>
+ * <li>charge ouverte (<code>--mode=ouvert</code>) : des clients arrivent  un
+ * dbit donn, indpendamment de la vitesse du systme ; la dure d'un
+ * parcours est compte depuis l'arrive prvue, attente comprise.</li>
+ * </ul>
+ * Chaque client simul occupe un thread, virtuel si la JVM le permet : des
+ * dizaines de milliers de clients en rflexion ne cotent alors presque rien.
+ * <p>
+ * Arguments (tous facultatifs) :
+ * <ul>
+ * <li><code>--url=</code>, <code>--user=</code>, <code>--password=</code> :
+ * base vise ; sans url, une base embarque est cre ;</li>
+ * <li><code>--url-lecture=</code>, <code>--connexions-lecture=8</code> :
+ * rplique servant les consultations (mmes utilisateur et mot de passe),
+ * <code>--age-max=2000</code> : ge maximal en millisecondes de l'tat des
+ * places servi aux consultations ;</li>
+ * <li><code>--scripts=.</code> : rpertoire des scripts SQL,
+ * <code>--creer</code> pour recrer le schma d'une base externe ;</li>
+ * <li><code>--mode=ferme|ouvert</code>, <code>--clients=100</code>,
+ * <code>--parcours=0</code> (par client, 0 pour tourner jusqu' la fin de la
+ * dure), <code>--pause=0</code>, <code>--debit=10</code> (arrives par
+ * seconde en charge ouverte), <code>--arrivees=exponentielle</code> ou
+ * <code>constante</code>, <code>--duree=60</code> (secondes, 0 pour
+ * illimite) ;</li>
+ * <li><code>--noms=</code> : noms de clients existants ;  dfaut les
+ * clients s'appellent <code>client0</code>, <code>client1</code>... et sont
+ * crs avec le schma ou par <code>--ajouter-clients</code> ;</li>
+ * <li><code>--reflexion-representation=uniforme:10000:15000</code>,
+ * <code>--reflexion-places=uniforme:20000:30000</code>,
+ * <code>--echelle=1</code> : temps de rflexion (voir {@link Delai}) ;</li>
+ * <li><code>--manques=5</code>, <code>--conflits=0</code> : seuils
+ * d'abandon ; <code>--attente=60</code> (secondes) : les clients ne trouvant
+ * pas assez de places s'inscrivent en liste d'attente au lieu de consulter 
+ * nouveau ;</li>
+ * <li><code>--substitution=voisine|meme_tarif|quelconque</code> : les places
+ * choisies prises entre-temps sont remplaces  la rservation ;</li>
+ * <li><code>--connexions=32</code>, <code>--virtuels=true</code>,
+ * <code>--rapport=10</code> (secondes entre deux points d'avancement),
+ * <code>--verbeux</code>, <code>--jmx=nom</code> (sessions instrumentes,
+ * mesures publies par JMX), <code>--serialise</code> (rservations par
+ * crivain unique).</li>
+ * </ul>
+ *
+ * @author Aurel
+ *
+ */
+public class GenerateurCharge {
+
+    /** spectacles parcourus  dfaut de <code>--spectacles=</code> : ceux de la base du sujet */
+    public static final String[] SPECTACLES = { "Concert de Metal bien lourd", "Concert des RHCP", "Concert Rasta",
+            "Concert de Funk", "Concert de Pop" };
+
+    private final Arguments arguments;
+    private final StatistiquesCharge stats = new StatistiquesCharge();
+    private final AtomicInteger actifs = new AtomicInteger();
+    private final String[] noms;
+    private final ParcoursClient parcours;
+
+    public GenerateurCharge(Arguments arguments) throws Exception {
+        this.arguments = arguments;
+        int clients = arguments.entier("clients", 100);
+        if (arguments.present("noms")) {
+            noms = arguments.texte("noms", "").split(",");
+        } else {
+            noms = new String[clients];
+            for (int i = 0; i < clients; i++) {
+                noms[i] = "client" + i;
+            }
+        }
+        SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy");
+        Date de = format.parse(arguments.texte("de", "31/02/2013"));
+        Date a = format.parse(arguments.texte("a", "31/02/2014"));
+        String[] spectacles = arguments.present("spectacles") ? arguments.texte("spectacles", "").split(",")
+                : SPECTACLES;
+        parcours = new ParcoursClient(spectacles, de, a,
+                Delai.analyser(arguments.texte("reflexion-representation", "uniforme:10000:15000")),
+                Delai.analyser(arguments.texte("reflexion-places", "uniforme:20000:30000")),
+                arguments.reel("echelle", 1), arguments.entier("manques", 5), arguments.entier("conflits", 0),
+                stats, arguments.present("verbeux"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new GenerateurCharge(new Arguments(args)).lancer();
+    }
+
+    /**
+     * Prpare la base si ncessaire, droule la charge et affiche les
+     * mesures.
+     */
+    public void lancer() throws Exception {
+        String url = arguments.texte("url", null);
+        DataSource source;
+        if (url == null || arguments.present("creer") || arguments.present("ajouter-clients")) {
+            EnvironnementBench env = new EnvironnementBench(url, arguments.texte("user", ""),
+                    arguments.texte("password", ""), Paths.get(arguments.texte("scripts", ".")));
+            if (url == null || arguments.present("creer")) env.creer();
+            if (!arguments.present("noms")) env.ajouterClients("client", noms.length);
+            source = env.getSource();
+        } else {
+            source = new SourceDriverManager(url, arguments.texte("user", ""), arguments.texte("password", ""));
+        }
+
+        boolean ouvert = arguments.texte("mode", "ferme").equals("ouvert");
+        long duree = arguments.entierLong("duree", 60) * 1000;
+        long rapport = arguments.entierLong("rapport", 10) * 1000;
+        boolean virtuels = Boolean.parseBoolean(arguments.texte("virtuels", "true"));
+        System.out.println("charge " + (ouvert ? "ouverte" : "ferme") + ", " + noms.length + " clients, threads "
+                + (virtuels && Lanceur.virtuelsDisponibles() ? "virtuels" : "systme"));
+
+        int connexions = arguments.entier("connexions", Math.min(noms.length, 32));
+        try (BaseReservation base = arguments.present("url-lecture") ? new BaseReservation(source, connexions,
+                new SourceDriverManager(arguments.texte("url-lecture", null), arguments.texte("user", ""),
+                        arguments.texte("password", "")), arguments.entier("connexions-lecture", 8))
+                : new BaseReservation(source, connexions)) {
+            base.setAgeMaxLectures(arguments.entierLong("age-max", BaseReservation.PERIODE_RECONCILIATION));
+            if (arguments.present("jmx")) base.getMesures().publier(arguments.texte("jmx", "charge"));
+            if (arguments.present("attente"))
+                parcours.attendre(base.getListeAttente(), arguments.entierLong("attente", 60) * 1000);
+            if (arguments.present("substitution"))
+                parcours.substituer(Substitution.valueOf(arguments.texte("substitution", "").toUpperCase()));
+            ExecutorService executeur = Lanceur.executeur(virtuels, "client");
+            long debut = System.nanoTime();
+            long fin = duree > 0 ? debut + duree * 1000000 : Long.MAX_VALUE;
+            if (ouvert) {
+                arriver(base, executeur, fin, rapport);
+            } else {
+                for (int i = 0; i < noms.length; i++) {
+                    executeur.execute(client(base, noms[i], fin));
+                }
+            }
+            executeur.shutdown();
+            while (!executeur.awaitTermination(rapport, TimeUnit.MILLISECONDS)) {
+                avancement(debut);
+            }
+            long ecoule = (System.nanoTime() - debut) / 1000000;
+            System.out.println("dure : " + ecoule + " ms");
+            stats.afficher(System.out, ecoule);
+            if (arguments.present("jmx")) System.out.println(base.getMesures().getInstantane());
+        }
+    }
+
+    /**
+     * Client de la charge ferme : enchane ses parcours jusqu' la fin de la
+     * dure ou jusqu'au nombre de parcours voulu.
+     */
+    private Runnable client(final BaseReservation base, final String nom, final long fin) {
+        final int nombre = arguments.entier("parcours", 0);
+        final Delai pause = Delai.analyser(arguments.texte("pause", "0"));
+        final double echelle = arguments.reel("echelle", 1);
+        return new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().setName(nom); // nom du thread = nom du client
+                actifs.incrementAndGet();
+                try (GestionReservation g = ouvrir(base, nom)) {
+                    Random aleatoire = ThreadLocalRandom.current();
+                    for (int k = 0; (nombre == 0 || k < nombre) && System.nanoTime() < fin; k++) {
+                        if (k > 0) pause.attendre(aleatoire, echelle);
+                        parcours.executer(g, aleatoire, System.nanoTime());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    stats.erreurs.incrementAndGet();
+                    e.printStackTrace();
+                } finally {
+                    actifs.decrementAndGet();
+                }
+            }
+        };
+    }
+
+    /**
+     * Charge ouverte : lance un parcours  chaque arrive, jusqu' la fin de
+     * la dure. Les clients sont pris  tour de rle parmi les noms connus.
+     */
+    private void arriver(final BaseReservation base, ExecutorService executeur, long fin, long rapport)
+            throws InterruptedException {
+        double debit = arguments.reel("debit", 10);
+        Delai arrivees = arguments.texte("arrivees", "exponentielle").equals("constante") ? Delai
+                .constante(1000 / debit) : Delai.exponentielle(1000 / debit);
+        Random aleatoire = new Random();
+        long debut = System.nanoTime();
+        long prochainRapport = debut + rapport * 1000000;
+        long prevue = debut;
+        for (int i = 0; prevue < fin; i++) {
+            long attente = prevue - System.nanoTime();
+            if (attente > 0) Thread.sleep(attente / 1000000, (int) (attente % 1000000));
+            final String nom = noms[i % noms.length];
+            final long arrivee = prevue;
+            executeur.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Thread.currentThread().setName(nom); // le parcours agit au nom du thread
+                    actifs.incrementAndGet();
+                    try (GestionReservation g = ouvrir(base, nom)) {
+                        parcours.executer(g, ThreadLocalRandom.current(), arrivee);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        stats.erreurs.incrementAndGet();
+                        e.printStackTrace();
+                    } finally {
+                        actifs.decrementAndGet();
+                    }
+                }
+            });
+            prevue += (long) (arrivees.tirer(aleatoire) * 1000000);
+            if (System.nanoTime() >= prochainRapport) {
+                avancement(debut);
+                prochainRapport += rapport * 1000000;
+            }
+        }
+    }
+
+    private GestionReservation ouvrir(BaseReservation base, String nom) {
+        if (arguments.present("serialise")) return base.sessionSerialisee(nom);
+        return arguments.present("jmx") ? base.sessionInstrumentee(nom) : base.session(nom);
+    }
+
+    private void avancement(long debut) {
+        System.out.println(((System.nanoTime() - debut) / 1000000000) + " s : " + actifs.get() + " clients actifs, "
+                + stats.debutes.get() + " parcours commencs, " + stats.reussis.get() + " aboutis, "
+                + stats.conflits.get() + " conflits, " + stats.abandons.get() + " abandons");
+    }
+
+    public StatistiquesCharge getStatistiques() {
+        return stats;
+    }
+
+}
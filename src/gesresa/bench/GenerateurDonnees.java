@@ -0,0 +1,384 @@
+package gesresa.bench;
+
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import gesresa.SourceDriverManager;
+
+/**
+ * Gnrateur de donnes  l'chelle relle : complte les salles de la base
+ * jusqu' leur capacit dclare, ajoute si demand des salles, spectacles,
+ * reprsentations et tarifs gnrs, puis pr-rserve une proportion des
+ * places de chaque reprsentation.
+ * <p>
+ * Le chargement est ensembliste : les places d'une salle sont cres par
+ * <code>insert ... select</code> successifs qui doublent  chaque fois le
+ * nombre de places (une salle de 25 000 places en 15 ordres), puis
+ * attribues aux classes de rservation par tranches contigus ; les
+ * rservations d'une reprsentation sont cres en un seul ordre, et les
+ * compteurs de places libres recalculs  la fin en un ordre. Les autres
+ * tables sont charges par lots JDBC. Les ordres n'utilisent que du SQL commun
+ *  Oracle et  la base embarque.
+ * <p>
+ * Arguments (tous facultatifs) :
+ * <ul>
+ * <li><code>--url=</code>, <code>--user=</code>, <code>--password=</code> :
+ * base vise ; sans url, une base embarque est cre ;</li>
+ * <li><code>--scripts=.</code> : rpertoire des scripts SQL,
+ * <code>--creer</code> pour recrer le schma d'une base externe ;</li>
+ * <li><code>--salles=0</code>, <code>--capacites=1000,5000,25000</code>
+ * (rparties cycliquement entre les salles gnres),
+ * <code>--classes=3</code> (par salle gnre) ;</li>
+ * <li><code>--spectacles=0</code>, <code>--dates=10</code> (reprsentations
+ * par spectacle gnr), <code>--debut=01/01/2014</code> (aprs les
+ * reprsentations de creabase.sql) ;</li>
+ * <li><code>--occupation=0.3</code> : proportion des places pr-rserves,
+ * <code>--client=generateur</code> : leur titulaire ;</li>
+ * <li><code>--lot=1000</code> : lignes par lot JDBC.</li>
+ * </ul>
+ *
+ * @author Aurel
+ *
+ */
+public class GenerateurDonnees {
+
+    private static final String SQL_DOUBLER = "insert into SEATS (RNAME, BNAME, SID) "
+            + "select RNAME, BNAME, SID + ? from SEATS where RNAME = ? and SID >= ? and SID < ? and SID + ? <= ?";
+    private static final String SQL_CLASSER = "update SEATS set BNAME = ? where RNAME = ? and SID between ? and ?";
+    // mme rpartition que EnvironnementBench.occupee, en SQL commun
+    private static final String SQL_OCCUPER = "insert into RESERVATIONS (SID, RNAME, RID, CNAME) "
+            + "select SID, RNAME, ?, ? from SEATS s where RNAME = ? and mod(SID * 2654435761, 65536) < ? "
+            + "and not exists (select 1 from RESERVATIONS r where r.RID = ? and r.SID = s.SID)";
+
+    private static final String SQL_RECOMPTER = "insert into DISPONIBILITES (RID, BNAME, LIBRES) "
+            + "select r.RID, s.BNAME, count(*) - count(b.SID) from REPRESENTATIONS r "
+            + "join SEATS s on s.RNAME = r.RNAME left join RESERVATIONS b on b.RID = r.RID and b.SID = s.SID "
+            + "group by r.RID, s.BNAME";
+
+    private final DataSource source;
+    private final int lot;
+
+    /**
+     * @param source
+     *            base  remplir
+     * @param lot
+     *            nombre de lignes par lot JDBC
+     */
+    public GenerateurDonnees(DataSource source, int lot) {
+        this.source = source;
+        this.lot = lot;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Arguments a = new Arguments(args);
+        String url = a.texte("url", null);
+        DataSource source;
+        if (url == null || a.present("creer")) {
+            EnvironnementBench env = new EnvironnementBench(url, a.texte("user", ""), a.texte("password", ""),
+                    Paths.get(a.texte("scripts", ".")));
+            env.creer();
+            source = env.getSource();
+        } else {
+            source = new SourceDriverManager(url, a.texte("user", ""), a.texte("password", ""));
+        }
+        GenerateurDonnees g = new GenerateurDonnees(source, a.entier("lot", 1000));
+        long debut = System.nanoTime();
+        g.ajouterSalles(a.entier("salles", 0), a.entiers("capacites", "1000,5000,25000"), a.entier("classes", 3));
+        System.out.println(g.completerSalles() + " places cres");
+        g.ajouterSpectacles(a.entier("spectacles", 0), a.entier("dates", 10),
+                new SimpleDateFormat("dd/MM/yyyy").parse(a.texte("debut", "01/01/2014")));
+        System.out.println(g.occuper(a.reel("occupation", 0.3), a.texte("client", "generateur"))
+                + " places pr-rserves");
+        try (Connection cn = source.getConnection()) {
+            cn.setAutoCommit(false);
+            recompterDisponibilites(cn);
+            cn.commit();
+        }
+        System.out.println("donnes gnres en " + (System.nanoTime() - debut) / 1000000 + " ms");
+    }
+
+    /**
+     * Ajoute des salles nommes <code>Salle 1</code>, <code>Salle 2</code>...
+     * ( la suite des salles gnres existantes) et leurs classes de
+     * rservation <code>categorie 1</code>  <code>categorie n</code>. Les
+     * places sont cres par {@link #completerSalles()}.
+     */
+    public void ajouterSalles(int nombre, int[] capacites, int classes) throws SQLException {
+        if (nombre <= 0) return;
+        try (Connection cn = source.getConnection();
+                PreparedStatement salle = cn.prepareStatement("insert into ROOMS values(?,?,?)");
+                PreparedStatement classe = cn.prepareStatement("insert into BOOKINGCLASSES values(?,?)")) {
+            cn.setAutoCommit(false);
+            int premier = compter(cn, "select count(*) from ROOMS where RNAME like 'Salle %'") + 1;
+            for (int i = 0; i < nombre; i++) {
+                String nom = "Salle " + (premier + i);
+                salle.setString(1, nom);
+                salle.setString(2, (premier + i) + " rue de la Salle, Paris");
+                salle.setInt(3, capacites[i % capacites.length]);
+                salle.addBatch();
+                for (int c = 1; c <= classes; c++) {
+                    classe.setString(1, nom);
+                    classe.setString(2, "categorie " + c);
+                    classe.addBatch();
+                }
+            }
+            salle.executeBatch();
+            classe.executeBatch();
+            cn.commit();
+        }
+    }
+
+    /**
+     * Complte chaque salle jusqu' sa capacit dclare. Les nouvelles places
+     * sont rparties en tranches contigus entre les classes de rservation
+     * de la salle.
+     *
+     * @return le nombre de places cres
+     */
+    public int completerSalles() throws SQLException {
+        try (Connection cn = source.getConnection()) {
+            cn.setAutoCommit(false);
+            Map<String, int[]> salles = new LinkedHashMap<String, int[]>(); // nom -> {capacit, dernier SID}
+            try (PreparedStatement ps = cn.prepareStatement("select r.RNAME, r.CAPACITY, "
+                    + "(select max(SID) from SEATS s where s.RNAME = r.RNAME) from ROOMS r order by r.RNAME");
+                    ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    salles.put(rs.getString(1), new int[] { rs.getInt(2), rs.getInt(3) });
+                }
+            }
+            int creees = 0;
+            for (Map.Entry<String, int[]> e : salles.entrySet()) {
+                int[] s = e.getValue();
+                if (s[1] >= s[0]) continue;
+                creees += remplirSalle(cn, e.getKey(), s[1] + 1, s[0], classes(cn, e.getKey()));
+                cn.commit();
+            }
+            return creees;
+        }
+    }
+
+    /**
+     * Cre les places numrotes de <code>premier</code> 
+     * <code>dernier</code> d'une salle, par doublements successifs, puis les
+     * rpartit en tranches contigus entre les classes indiques. La
+     * transaction n'est pas valide.
+     *
+     * @return le nombre de places cres
+     */
+    public static int remplirSalle(Connection cn, String salle, int premier, int dernier, String... classes)
+            throws SQLException {
+        if (premier > dernier) return 0;
+        if (classes.length == 0) throw new SQLException("aucune classe de rservation pour la salle " + salle);
+        try (PreparedStatement ps = cn.prepareStatement("insert into SEATS (RNAME, BNAME, SID) values(?,?,?)")) {
+            ps.setString(1, salle);
+            ps.setString(2, classes[0]);
+            ps.setInt(3, premier);
+            ps.executeUpdate();
+        }
+        try (PreparedStatement doubler = cn.prepareStatement(SQL_DOUBLER)) {
+            for (int k = 1; premier + k <= dernier; k *= 2) {
+                doubler.setInt(1, k);
+                doubler.setString(2, salle);
+                doubler.setInt(3, premier);
+                doubler.setInt(4, premier + k);
+                doubler.setInt(5, k);
+                doubler.setInt(6, dernier);
+                doubler.executeUpdate();
+            }
+        }
+        int nombre = dernier - premier + 1;
+        if (classes.length > 1) {
+            try (PreparedStatement classer = cn.prepareStatement(SQL_CLASSER)) {
+                for (int c = 1; c < classes.length; c++) { // la premire tranche a dj sa classe
+                    classer.setString(1, classes[c]);
+                    classer.setString(2, salle);
+                    classer.setInt(3, premier + (int) ((long) nombre * c / classes.length));
+                    classer.setInt(4, premier + (int) ((long) nombre * (c + 1) / classes.length) - 1);
+                    classer.executeUpdate();
+                }
+            }
+        }
+        return nombre;
+    }
+
+    /**
+     * Ajoute des spectacles nomms <code>Spectacle 1</code>,
+     * <code>Spectacle 2</code>..., leurs tarifs dans toutes les salles et
+     * leurs reprsentations, rparties entre les salles  raison d'une par
+     * salle et par jour.
+     */
+    public void ajouterSpectacles(int nombre, int dates, Date debut) throws SQLException {
+        if (nombre <= 0) return;
+        try (Connection cn = source.getConnection();
+                PreparedStatement spectacle = cn.prepareStatement("insert into SHOWS values(?,?,?,?)");
+                PreparedStatement cout = cn.prepareStatement("insert into COST values(?,?,?,?)");
+                PreparedStatement representation = cn.prepareStatement(
+                        "insert into REPRESENTATIONS (RID, SNAME, RNAME, STARTDATE, STARTTIME) values(?,?,?,?,?)")) {
+            cn.setAutoCommit(false);
+            List<String> salles = new ArrayList<String>();
+            Map<String, String[]> classes = new LinkedHashMap<String, String[]>();
+            try (PreparedStatement ps = cn.prepareStatement("select RNAME from ROOMS order by RNAME");
+                    ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    salles.add(rs.getString(1));
+                }
+            }
+            for (String s : salles) {
+                classes.put(s, classes(cn, s));
+            }
+            int premier = compter(cn, "select count(*) from SHOWS where SNAME like 'Spectacle %'") + 1;
+            int rid = compter(cn, "select coalesce(max(RID), 0) from REPRESENTATIONS") + 1;
+            int[] jours = new int[salles.size()]; // prochain jour libre de chaque salle
+            Calendar cal = Calendar.getInstance();
+            int lignes = 0;
+            for (int i = 0; i < nombre; i++) {
+                String nom = "Spectacle " + (premier + i);
+                spectacle.setString(1, nom);
+                spectacle.setInt(2, 90 + 30 * (i % 4));
+                spectacle.setString(3, i % 2 == 0 ? "music" : "theatre");
+                spectacle.setString(4, "Troupe " + (premier + i));
+                spectacle.addBatch();
+                for (String s : salles) {
+                    String[] c = classes.get(s);
+                    for (int k = 0; k < c.length; k++) {
+                        cout.setString(1, s);
+                        cout.setString(2, nom);
+                        cout.setString(3, c[k]);
+                        cout.setFloat(4, 90f - 80f * k / Math.max(c.length - 1, 1)); // PRICE decimal(4,2)
+                        cout.addBatch();
+                    }
+                }
+                for (int d = 0; d < dates; d++) {
+                    int s = (i + d) % salles.size();
+                    cal.setTime(debut);
+                    cal.add(Calendar.DAY_OF_YEAR, jours[s]++);
+                    representation.setInt(1, rid++);
+                    representation.setString(2, nom);
+                    representation.setString(3, salles.get(s));
+                    representation.setDate(4, new java.sql.Date(cal.getTimeInMillis()));
+                    representation.setInt(5, 20);
+                    representation.addBatch();
+                }
+                if (++lignes % Math.max(lot / Math.max(dates, 1), 1) == 0) {
+                    spectacle.executeBatch(); // les spectacles avant leurs tarifs et reprsentations
+                    cout.executeBatch();
+                    representation.executeBatch();
+                }
+            }
+            spectacle.executeBatch();
+            cout.executeBatch();
+            representation.executeBatch();
+            cn.commit();
+        }
+    }
+
+    /**
+     * Pr-rserve, pour chaque reprsentation, la proportion de places
+     * dsigne par {@link EnvironnementBench#occupee(int, double)}, en un
+     * ordre par reprsentation. Les places dj rserves sont conserves.
+     *
+     * @return le nombre de rservations cres
+     */
+    public int occuper(double occupation, String client) throws SQLException {
+        if (occupation <= 0) return 0;
+        try (Connection cn = source.getConnection()) {
+            cn.setAutoCommit(false);
+            ajouterClient(cn, client);
+            List<Object[]> representations = new ArrayList<Object[]>();
+            try (PreparedStatement ps = cn.prepareStatement("select RID, RNAME from REPRESENTATIONS order by RID");
+                    ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    representations.add(new Object[] { rs.getInt(1), rs.getString(2) });
+                }
+            }
+            int n = 0;
+            for (Object[] r : representations) {
+                n += occuper(cn, (Integer) r[0], (String) r[1], occupation, client);
+                cn.commit();
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Pr-rserve une proportion des places d'une reprsentation, en un seul
+     * ordre. La transaction n'est pas valide.
+     *
+     * @return le nombre de rservations cres
+     */
+    public static int occuper(Connection cn, int rid, String salle, double occupation, String client)
+            throws SQLException {
+        try (PreparedStatement ps = cn.prepareStatement(SQL_OCCUPER)) {
+            ps.setInt(1, rid);
+            ps.setString(2, client);
+            ps.setString(3, salle);
+            ps.setDouble(4, occupation * 0x10000L);
+            ps.setInt(5, rid);
+            return ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Recalcule, en un ordre, les compteurs de places libres de toutes les
+     * reprsentations. Indispensable sur une base sans dclencheurs (base
+     * embarque), qui ne tient pas ces compteurs  jour ; la transaction
+     * n'est pas valide.
+     */
+    public static void recompterDisponibilites(Connection cn) throws SQLException {
+        try (PreparedStatement vider = cn.prepareStatement("delete from DISPONIBILITES");
+                PreparedStatement ecarts = cn.prepareStatement("delete from DISPONIBILITES_ECARTS");
+                PreparedStatement compter = cn.prepareStatement(SQL_RECOMPTER)) {
+            vider.executeUpdate();
+            ecarts.executeUpdate();
+            compter.executeUpdate();
+        }
+    }
+
+    private static void ajouterClient(Connection cn, String client) throws SQLException {
+        try (PreparedStatement ps = cn.prepareStatement("select count(*) from CLIENTS where CNAME = ?")) {
+            ps.setString(1, client);
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                if (rs.getInt(1) > 0) return;
+            }
+        }
+        try (PreparedStatement ps = cn.prepareStatement("insert into CLIENTS values(?)")) {
+            ps.setString(1, client);
+            ps.executeUpdate();
+        }
+    }
+
+    private static String[] classes(Connection cn, String salle) throws SQLException {
+        List<String> l = new ArrayList<String>();
+        try (PreparedStatement ps = cn
+                .prepareStatement("select BNAME from BOOKINGCLASSES where RNAME = ? order by BNAME")) {
+            ps.setString(1, salle);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    l.add(rs.getString(1));
+                }
+            }
+        }
+        return l.toArray(new String[l.size()]);
+    }
+
+    private static int compter(Connection cn, String sql) throws SQLException {
+        try (PreparedStatement ps = cn.prepareStatement(sql); ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
+}
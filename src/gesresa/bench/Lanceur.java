@@ -0,0 +1,61 @@
+package gesresa.bench;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gesresa.ExecuteurReservation;
+
+/**
+ * Cration de l'excuteur des clients simuls : un thread virtuel par tche
+ * lorsque la JVM en dispose (Java 21 et plus), un pool de threads systme
+ * sinon (voir {@link ExecuteurReservation#threadsVirtuels()}).
+ *
+ * @author Aurel
+ *
+ */
+public final class Lanceur {
+
+    private Lanceur() {
+    }
+
+    /**
+     * @param virtuels
+     *            vrai pour utiliser des threads virtuels s'ils sont
+     *            disponibles
+     * @param nom
+     *            prfixe du nom des threads systme
+     * @return un excuteur crant un thread par tche soumise
+     */
+    public static ExecutorService executeur(boolean virtuels, final String nom) {
+        if (virtuels) {
+            ExecutorService e = ExecuteurReservation.threadsVirtuels();
+            if (e != null) return e;
+            System.out.println("threads virtuels indisponibles sur cette JVM, threads systme utiliss");
+        }
+        return Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger numero = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, nom + "-" + numero.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * @return vrai si la JVM propose les threads virtuels
+     */
+    public static boolean virtuelsDisponibles() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+package gesresa.bench;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import gesresa.GestionReservation;
+import gesresa.ListeAttente;
+import gesresa.Place;
+import gesresa.RappelAttente;
+import gesresa.Representation;
+import gesresa.ResultatReservation;
+import gesresa.Substitution;
+
+/**
+ * Parcours d'un client simul, tel que dcrit dans le sujet : consultation des
+ * reprsentations d'un spectacle tir au hasard, rflexion, choix d'une
+ * reprsentation et consultation de ses places, rflexion, choix de deux
+ * places libres et rservation. En cas d'chec, le client reprend  la
+ * consultation des reprsentations.
+ * <p>
+ * Le client abandonne aprs un nombre donn de consultations n'offrant pas
+ * assez de places libres, ou de rservations refuses. Si une liste d'attente
+ * est donne, le client qui ne trouve pas assez de places s'y inscrit au lieu
+ * de reprendre la consultation, et rserve les places qui lui sont proposes,
+ * ou abandonne si aucune ne l'est dans le dlai d'attente. Si une politique
+ * de substitution est donne, les places choisies prises entre-temps sont
+ * remplaces lors de la rservation au lieu de la faire chouer.
+ *
+ * @author Aurel
+ *
+ */
+public class ParcoursClient {
+
+    /** nombre de places rserves par parcours */
+    public static final int PLACES_PAR_CLIENT = 2;
+
+    private final String[] spectacles;
+    private final Date debut;
+    private final Date fin;
+    private final Delai reflexionRepresentation;
+    private final Delai reflexionPlaces;
+    private final double echelle;
+    private final int maxManques;
+    private final int maxConflits;
+    private final StatistiquesCharge stats;
+    private final boolean verbeux;
+    private ListeAttente attente;
+    private long delaiAttente;
+    private Substitution substitution;
+
+    /**
+     * @param spectacles
+     *            spectacles parmi lesquels le client choisit
+     * @param debut
+     *            dbut de la priode de recherche des reprsentations
+     * @param fin
+     *            fin de la priode de recherche
+     * @param reflexionRepresentation
+     *            rflexion avant le choix d'une reprsentation
+     * @param reflexionPlaces
+     *            rflexion avant le choix des places
+     * @param echelle
+     *            facteur appliqu  tous les temps de rflexion
+     * @param maxManques
+     *            nombre de consultations sans assez de places avant abandon
+     * @param maxConflits
+     *            nombre de rservations refuses avant abandon, 0 pour
+     *            insister indfiniment
+     * @param stats
+     *            mesures  alimenter
+     * @param verbeux
+     *            vrai pour tracer chaque tape
+     */
+    public ParcoursClient(String[] spectacles, Date debut, Date fin, Delai reflexionRepresentation,
+            Delai reflexionPlaces, double echelle, int maxManques, int maxConflits, StatistiquesCharge stats,
+            boolean verbeux) {
+        this.spectacles = spectacles;
+        this.debut = debut;
+        this.fin = fin;
+        this.reflexionRepresentation = reflexionRepresentation;
+        this.reflexionPlaces = reflexionPlaces;
+        this.echelle = echelle;
+        this.maxManques = maxManques;
+        this.maxConflits = maxConflits;
+        this.stats = stats;
+        this.verbeux = verbeux;
+    }
+
+    /**
+     * Fait attendre les clients sur une liste d'attente plutt que de
+     * consulter  nouveau les reprsentations.  appeler avant le premier
+     * parcours.
+     *
+     * @param delai
+     *            attente maximale des places, en millisecondes
+     */
+    public void attendre(ListeAttente attente, long delai) {
+        this.attente = attente;
+        this.delaiAttente = delai;
+    }
+
+    /**
+     * Fait rserver les places choisies avec une politique de substitution.
+     *  appeler avant le premier parcours.
+     */
+    public void substituer(Substitution substitution) {
+        this.substitution = substitution;
+    }
+
+    /**
+     * Droule un parcours.
+     *
+     * @param g
+     *            session du client
+     * @param aleatoire
+     *            gnrateur propre au thread appelant
+     * @param depart
+     *            date de dbut du parcours (<code>System.nanoTime()</code>) :
+     *            en charge ouverte, la date d'arrive prvue, pour que
+     *            l'attente avant le dmarrage soit compte
+     * @return vrai si le parcours s'est termin par une rservation
+     */
+    public boolean executer(GestionReservation g, Random aleatoire, long depart) throws InterruptedException {
+        String nom = Thread.currentThread().getName();
+        stats.debutes.incrementAndGet();
+        try {
+            String spectacle = spectacles[aleatoire.nextInt(spectacles.length)];
+            int manques = 0;
+            int conflits = 0;
+            while (true) {
+                long t0 = System.nanoTime();
+                List<Representation> representations = g.listerRepresentations(spectacle, debut, fin);
+                stats.representations.enregistrer(System.nanoTime() - t0);
+                if (representations.isEmpty()) {
+                    stats.abandons.incrementAndGet();
+                    return false;
+                }
+                reflexionRepresentation.attendre(aleatoire, echelle);
+                Representation r = representations.get(aleatoire.nextInt(representations.size()));
+                if (verbeux) System.out.println(nom + " choisi " + r);
+
+                // disponibilit d'aprs les compteurs : une salle pleine n'est pas liste
+                int disponibles = 0;
+                for (int n : g.listerDisponibilites(r).values()) {
+                    disponibles += n;
+                }
+                List<Place> libres = new ArrayList<Place>();
+                if (disponibles >= PLACES_PAR_CLIENT) {
+                    t0 = System.nanoTime();
+                    List<Place> places = g.listerPlaces(r, false);
+                    stats.places.enregistrer(System.nanoTime() - t0);
+                    for (Place p : places) {
+                        if (p.isEstLibre()) libres.add(p);
+                    }
+                }
+                if (libres.size() < PLACES_PAR_CLIENT) {
+                    stats.manques.incrementAndGet();
+                    if (verbeux) System.out.println(nom + " pas assez de place !");
+                    if (attente != null) return attendre(g, nom, r, depart);
+                    if (++manques >= maxManques) {
+                        stats.abandons.incrementAndGet();
+                        if (verbeux) System.out.println(nom + " abandonne !");
+                        return false;
+                    }
+                    continue;
+                }
+
+                reflexionPlaces.attendre(aleatoire, echelle);
+                List<Place> choix = new ArrayList<Place>(PLACES_PAR_CLIENT);
+                for (int i = 0; i < PLACES_PAR_CLIENT; i++) { // tirage sans remise
+                    int k = i + aleatoire.nextInt(libres.size() - i);
+                    Place p = libres.get(k);
+                    libres.set(k, libres.get(i));
+                    libres.set(i, p);
+                    choix.add(p);
+                }
+
+                t0 = System.nanoTime();
+                List<Place> reservees;
+                if (substitution == null) {
+                    reservees = g.reserverPlaces(r, choix);
+                } else {
+                    ResultatReservation resultat = g.reserverPlaces(r, choix, substitution);
+                    reservees = resultat == null ? null : resultat.getPlaces();
+                    if (resultat != null) stats.substitutions.addAndGet(resultat.getPerdues().size());
+                }
+                stats.reservations.enregistrer(System.nanoTime() - t0);
+                if (reservees != null) {
+                    stats.reussis.incrementAndGet();
+                    stats.parcours.enregistrer(System.nanoTime() - depart);
+                    if (verbeux) System.out.println("Rservation de " + nom + " bien effectue !");
+                    return true;
+                }
+                stats.conflits.incrementAndGet();
+                if (maxConflits > 0 && ++conflits >= maxConflits) {
+                    stats.abandons.incrementAndGet();
+                    return false;
+                }
+            }
+        } catch (SQLException e) {
+            stats.erreurs.incrementAndGet();
+            if (verbeux) e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Inscrit le client sur la liste d'attente de la reprsentation, puis
+     * rserve les places proposes.
+     *
+     * @return vrai si le parcours s'est termin par une rservation
+     */
+    private boolean attendre(GestionReservation g, String nom, Representation r, long depart) throws SQLException,
+            InterruptedException {
+        final CompletableFuture<List<Place>> offertes = new CompletableFuture<List<Place>>();
+        stats.attentes.incrementAndGet();
+        ListeAttente.Inscription inscription = attente.inscrire(r, nom, PLACES_PAR_CLIENT, null, new RappelAttente() {
+            @Override
+            public void placesOffertes(Representation representation, List<Place> places) {
+                offertes.complete(places);
+            }
+        });
+        List<Place> places = null;
+        while (places == null) {
+            try {
+                places = offertes.get(delaiAttente, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (inscription.annuler()) {
+                    stats.abandons.incrementAndGet();
+                    if (verbeux) System.out.println(nom + " abandonne l'attente !");
+                    return false;
+                }
+                // places en cours de proposition : elles arrivent, ou l'inscription redevient annulable
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        stats.attentesServies.incrementAndGet();
+        long t0 = System.nanoTime();
+        List<Place> reservees = g.reserverPlaces(r, places); // confirme les options poses par la liste
+        stats.reservations.enregistrer(System.nanoTime() - t0);
+        if (reservees == null) { // options expires et reprises entre-temps
+            stats.conflits.incrementAndGet();
+            stats.abandons.incrementAndGet();
+            return false;
+        }
+        stats.reussis.incrementAndGet();
+        stats.parcours.enregistrer(System.nanoTime() - depart);
+        if (verbeux) System.out.println("Rservation de " + nom + " bien effectue aprs attente !");
+        return true;
+    }
+
+}
@@ -0,0 +1,33 @@
+package gesresa.bench;
+
+import java.util.Arrays;
+
+import gesresa.GestionReservationImpl;
+
+/**
+ * Simulation du sujet : les clients ci-dessous rservent chacun deux places,
+ * en un parcours, avec les temps de rflexion d'origine. La base est
+ * dsigne par <code>--url=</code> (obligatoire), <code>--user=</code> et
+ * <code>--password=</code> ; les autres arguments sont passs au
+ * {@link GenerateurCharge} et remplacent ceux de la simulation.
+ *
+ * @author Aurel
+ *
+ */
+public class SimulationSujet {
+
+    /** clients du sujet */
+    public static final String[] CLIENTS = { "Lise", "Dupont", "Luc", "Pierre", "Aurel", "Adrien", "Hugo", "Yann" };
+
+    public static void main(String[] args) throws Exception {
+        if (!new Arguments(args).present("url"))
+            throw new IllegalArgumentException("base  indiquer : --url=jdbc:oracle:thin:@hote:port:base");
+
+        GestionReservationImpl.init();
+
+        String[] simulation = { "--noms=" + String.join(",", CLIENTS), "--parcours=1", "--duree=0", "--verbeux" };
+        String[] l = Arrays.copyOf(simulation, simulation.length + args.length);
+        System.arraycopy(args, 0, l, simulation.length, args.length); // les derniers l'emportent
+        GenerateurCharge.main(l);
+    }
+}
@@ -0,0 +1,244 @@
+package gesresa.bench;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Source de connexions intercale devant une autre pour compter les changes
+ * avec la base : les connexions, requtes et <code>ResultSet</code> qu'elle
+ * dlivre sont des mandataires qui tiennent  jour le {@link CompteurJdbc} du
+ * thread appelant, puis dlguent  l'objet du pilote.
+ * <p>
+ * Les compteurs sont propres  chaque thread, les connexions d'un pool
+ * passant d'un thread  l'autre : le cot d'un appel 
+ * {@link gesresa.GestionReservation} est celui relev sur le thread qui l'a
+ * fait, sans les changes des threads de service (nettoyeur d'options, liste
+ * d'attente, crivains) ni ceux des autres clients.
+ * <p>
+ * Le nombre d'allers-retours est une estimation : la lecture des lignes est
+ * compte par blocs de la taille de lecture de la requte (10 lignes si elle
+ * n'est pas fixe, la valeur par dfaut du pilote Oracle), et l'ouverture
+ * d'une connexion n'est compte que parmi les connexions.
+ *
+ * @author Aurel
+ *
+ */
+public class SourceComptee implements DataSource {
+
+    /** taille de lecture suppose d'une requte qui n'en fixe pas */
+    public static final int LIGNES_PAR_DEFAUT = 10;
+
+    private final DataSource source;
+    private final ThreadLocal<CompteurJdbc> compteurs = new ThreadLocal<CompteurJdbc>() {
+        @Override
+        protected CompteurJdbc initialValue() {
+            return new CompteurJdbc();
+        }
+    };
+
+    /**
+     * @param source
+     *            source des connexions physiques
+     */
+    public SourceComptee(DataSource source) {
+        this.source = source;
+    }
+
+    /**
+     * @return les compteurs du thread appelant, cumuls depuis son premier
+     *         accs  la base
+     */
+    public CompteurJdbc compteur() {
+        return compteurs.get();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        Connection cn = source.getConnection();
+        compteur().connexions++;
+        return mandataire(Connection.class, new Connexion(cn));
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        Connection cn = source.getConnection(username, password);
+        compteur().connexions++;
+        return mandataire(Connection.class, new Connexion(cn));
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return source.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        source.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        source.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return source.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return source.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) return iface.cast(this);
+        return source.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || source.isWrapperFor(iface);
+    }
+
+    @Override
+    public String toString() {
+        return "SourceComptee [source=" + source + "]";
+    }
+
+    private static <T> T mandataire(Class<T> type, InvocationHandler traitement) {
+        return type.cast(Proxy.newProxyInstance(SourceComptee.class.getClassLoader(), new Class<?>[] { type },
+                traitement));
+    }
+
+    /**
+     * Appelle la mthode de l'objet du pilote, en rendant  l'appelant
+     * l'exception leve par le pilote plutt que son enveloppe.
+     */
+    private static Object deleguer(Object cible, Method m, Object[] args) throws Throwable {
+        try {
+            return m.invoke(cible, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Mandataire d'une connexion : compte les prparations, validations,
+     * annulations et points de reprise.
+     */
+    private final class Connexion implements InvocationHandler {
+        private final Connection cn;
+
+        Connexion(Connection cn) {
+            this.cn = cn;
+        }
+
+        @Override
+        public Object invoke(Object mandataire, Method m, Object[] args) throws Throwable {
+            String nom = m.getName();
+            CompteurJdbc c = compteur();
+            if (nom.equals("commit")) {
+                c.commits++;
+                c.allersRetours++;
+            } else if (nom.equals("rollback")) {
+                c.annulations++;
+                c.allersRetours++;
+            } else if (nom.equals("setSavepoint")) {
+                c.allersRetours++;
+            }
+            Object r = deleguer(cn, m, args);
+            if (r instanceof Statement) { // createStatement, prepareStatement, prepareCall
+                c.preparations++;
+                return mandataire(m.getReturnType().asSubclass(Statement.class),
+                        new Requete((Statement) r, (Connection) mandataire));
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Mandataire d'une requte : compte les excutions, les ordres envoys et
+     * les allers-retours, un lot n'en cotant qu'un.
+     */
+    private final class Requete implements InvocationHandler {
+        private final Statement ps;
+        private final Connection connexion;
+        private int lot; // ordres en attente dans le lot
+
+        Requete(Statement ps, Connection connexion) {
+            this.ps = ps;
+            this.connexion = connexion;
+        }
+
+        @Override
+        public Object invoke(Object mandataire, Method m, Object[] args) throws Throwable {
+            String nom = m.getName();
+            CompteurJdbc c = compteur();
+            if (nom.equals("addBatch")) {
+                lot++;
+            } else if (nom.equals("clearBatch")) {
+                lot = 0;
+            } else if (nom.equals("executeBatch") || nom.equals("executeLargeBatch")) {
+                if (lot > 0) c.allersRetours++;
+                c.requetes += lot;
+                lot = 0;
+            } else if (nom.startsWith("execute")) { // execute, executeQuery, executeUpdate, executeLargeUpdate
+                c.requetes++;
+                c.allersRetours++;
+            } else if (nom.equals("getConnection")) {
+                return connexion;
+            }
+            Object r = deleguer(ps, m, args);
+            if (r instanceof ResultSet) { // executeQuery, getResultSet, getGeneratedKeys
+                int taille = ps.getFetchSize();
+                return mandataire(ResultSet.class,
+                        new Resultat((ResultSet) r, (Statement) mandataire, taille > 0 ? taille : LIGNES_PAR_DEFAUT));
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Mandataire d'un <code>ResultSet</code> : compte les lignes lues et un
+     * aller-retour par bloc de lignes au-del du premier.
+     */
+    private final class Resultat implements InvocationHandler {
+        private final ResultSet rs;
+        private final Statement requete;
+        private final int taille;
+        private long lues;
+
+        Resultat(ResultSet rs, Statement requete, int taille) {
+            this.rs = rs;
+            this.requete = requete;
+            this.taille = taille;
+        }
+
+        @Override
+        public Object invoke(Object mandataire, Method m, Object[] args) throws Throwable {
+            if (m.getName().equals("getStatement")) return requete;
+            Object r = deleguer(rs, m, args);
+            if (m.getName().equals("next") && Boolean.TRUE.equals(r)) {
+                CompteurJdbc c = compteur();
+                c.lignes++;
+                if (lues > 0 && lues % taille == 0) c.allersRetours++; // bloc suivant
+                lues++;
+            }
+            return r;
+        }
+    }
+
+}
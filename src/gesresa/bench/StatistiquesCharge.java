@@ -0,0 +1,84 @@
+package gesresa.bench;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gesresa.Histogramme;
+
+/**
+ * Mesures recueillies par le gnrateur de charge : latence de chaque
+ * opration et de chaque parcours complet, et dcompte des issues des
+ * parcours.
+ *
+ * @author Aurel
+ *
+ */
+public class StatistiquesCharge {
+
+    /** dure des consultations de reprsentations (ns) */
+    public final Histogramme representations = new Histogramme();
+    /** dure des consultations de places (ns) */
+    public final Histogramme places = new Histogramme();
+    /** dure des tentatives de rservation (ns) */
+    public final Histogramme reservations = new Histogramme();
+    /** dure des parcours aboutis, rflexion comprise (ns) */
+    public final Histogramme parcours = new Histogramme();
+
+    /** parcours commencs */
+    public final AtomicLong debutes = new AtomicLong();
+    /** parcours termins par une rservation */
+    public final AtomicLong reussis = new AtomicLong();
+    /** rservations refuses car une place choisie a t prise entre-temps */
+    public final AtomicLong conflits = new AtomicLong();
+    /** places choisies perdues puis remplaces lors de la rservation */
+    public final AtomicLong substitutions = new AtomicLong();
+    /** consultations n'offrant pas assez de places libres */
+    public final AtomicLong manques = new AtomicLong();
+    /** inscriptions sur liste d'attente, et celles servies avant leur dlai */
+    public final AtomicLong attentes = new AtomicLong();
+    public final AtomicLong attentesServies = new AtomicLong();
+    /** parcours abandonns (trop de manques ou de conflits) */
+    public final AtomicLong abandons = new AtomicLong();
+    /** parcours interrompus par une erreur */
+    public final AtomicLong erreurs = new AtomicLong();
+
+    /**
+     * Affiche les mesures.
+     *
+     * @param sortie
+     *            flux d'affichage
+     * @param duree
+     *            dure de la mesure en millisecondes, pour le calcul des
+     *            dbits
+     */
+    public void afficher(PrintStream sortie, long duree) {
+        double secondes = Math.max(duree, 1) / 1000.0;
+        sortie.println("opration\tnombre\top/s\tp50 s\tp99 s\tp99.9 s\tmax s");
+        ligne(sortie, "reprsentations", representations, secondes);
+        ligne(sortie, "places", places, secondes);
+        ligne(sortie, "rservation", reservations, secondes);
+        ligne(sortie, "parcours", parcours, secondes);
+        long tentatives = reservations.getNombre();
+        long termines = reussis.get() + abandons.get() + erreurs.get();
+        sortie.println("parcours : " + debutes.get() + " commencs, " + reussis.get() + " aboutis, "
+                + abandons.get() + " abandonns, " + erreurs.get() + " en erreur");
+        sortie.println("taux de conflit : " + pourcent(conflits.get(), tentatives) + " des rservations ("
+                + conflits.get() + "/" + tentatives + ")"
+                + (substitutions.get() > 0 ? ", " + substitutions.get() + " places remplaces" : ""));
+        sortie.println("taux d'abandon : " + pourcent(abandons.get(), termines) + " des parcours termins, "
+                + manques.get() + " consultations sans assez de places");
+        if (attentes.get() > 0) sortie.println("liste d'attente : " + attentes.get() + " inscriptions, "
+                + attentesServies.get() + " servies");
+    }
+
+    private static void ligne(PrintStream sortie, String nom, Histogramme h, double secondes) {
+        sortie.println(nom + "\t" + h.getNombre() + "\t" + (long) (h.getNombre() / secondes) + "\t"
+                + h.percentile(50) / 1000 + "\t" + h.percentile(99) / 1000 + "\t" + h.percentile(99.9) / 1000 + "\t"
+                + h.getMax() / 1000);
+    }
+
+    private static String pourcent(long n, long total) {
+        return total == 0 ? "-" : String.format("%.2f %%", 100.0 * n / total);
+    }
+
+}